@@ -0,0 +1,43 @@
+package com.karacasoft.cardboardui.texture;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs on a device, the sizes of pooled bitmaps depend on the platform.
+ */
+public class BitmapPoolTest extends TestCase {
+
+    public void testAcquire_takes4444FromAPooledBitmapOfTheSamePixelCount() throws Exception {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT)
+        {
+            // Older versions only reuse bitmaps of the same size and config.
+            return;
+        }
+        BitmapPool pool = new BitmapPool();
+        pool.release(Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888));
+
+        Bitmap bitmap = pool.acquire(128, 32, Bitmap.Config.ARGB_4444);
+
+        assertEquals(128, bitmap.getWidth());
+        assertEquals(32, bitmap.getHeight());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getBytes());
+    }
+
+    public void testAcquire_doesNotTake4444FromASmallerPooledBitmap() throws Exception {
+        BitmapPool pool = new BitmapPool();
+        // Two bytes per pixel, a 4444 bitmap of the same size needs four since API 19.
+        pool.release(Bitmap.createBitmap(64, 64, Bitmap.Config.RGB_565));
+
+        Bitmap bitmap = pool.acquire(64, 64, Bitmap.Config.ARGB_4444);
+
+        assertEquals(64, bitmap.getWidth());
+        assertEquals(64, bitmap.getHeight());
+        assertEquals(1, pool.getMissCount());
+        // The smaller bitmap stays in the pool.
+        assertEquals(64 * 64 * 2, pool.getBytes());
+    }
+}
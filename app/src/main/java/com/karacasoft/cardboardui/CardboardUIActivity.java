@@ -1,5 +1,6 @@
 package com.karacasoft.cardboardui;
 
+import android.graphics.Typeface;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.os.Bundle;
@@ -9,8 +10,26 @@ import com.google.vrtoolkit.cardboard.CardboardView;
 import com.google.vrtoolkit.cardboard.Eye;
 import com.google.vrtoolkit.cardboard.HeadTransform;
 import com.google.vrtoolkit.cardboard.Viewport;
+import com.karacasoft.cardboardui.debug.AllocationTracker;
+import com.karacasoft.cardboardui.gl.GLErrorPolicy;
+import com.karacasoft.cardboardui.gl.GLState;
+import com.karacasoft.cardboardui.gl.ProgramCache;
+import com.karacasoft.cardboardui.gl.ShaderProgram;
+import com.karacasoft.cardboardui.gl.ShaderVariants;
+import com.karacasoft.cardboardui.render.QuadBatch;
+import com.karacasoft.cardboardui.render.RenderQueue;
+import com.karacasoft.cardboardui.text.SdfFont;
+import com.karacasoft.cardboardui.text.TextMetrics;
+import com.karacasoft.cardboardui.texture.BitmapPool;
+import com.karacasoft.cardboardui.texture.ResourceCache;
+import com.karacasoft.cardboardui.texture.TextureAtlas;
+import com.karacasoft.cardboardui.texture.TextureLoader;
+import com.karacasoft.cardboardui.texture.TextureRegistry;
+import com.karacasoft.cardboardui.view.GazeIndex;
 import com.karacasoft.cardboardui.view.View3D;
 
+import java.io.File;
+
 import javax.microedition.khronos.egl.EGLConfig;
 
 /**
@@ -19,7 +38,8 @@ import javax.microedition.khronos.egl.EGLConfig;
  * <p>You can think of this as the Canvas of your application.</p>
  *
  * <p>It has a very simple lifecycle inside. The View3D objects you add will be updated first.
- * (via {@link View3D#update()}). Then they will be drawn with their {@link View3D#draw(Eye)} method.</p>
+ * (via {@link View3D#update()}). Then they are submitted to a {@link RenderQueue}, which sorts
+ * them and draws them with their {@link View3D#draw(Eye)} method.</p>
  *
  * <p>You have to use @link ViewContent to add your views to your "canvas". Here's a simple
  *  view initialization inside a CardboardUIActivity:</p>
@@ -49,15 +69,20 @@ public class CardboardUIActivity extends CardboardActivity implements CardboardV
     private float[] mViewMatrix = new float[16];
     private float[] mProjectionMatrix = new float[16];
     private float[] mHeadViewMatrix = new float[16];
+    private float[] mFrameViewMatrix = new float[16];
 
     private float[] mForwardVector = new float[4];
 
     private float[] mPointModelMatrix = new float[16];
+    private float[] mPointMVPMatrix = new float[16];
+
+    private float[] mInvertedEyeMatrix = new float[16];
 
     private int mMVPMatrixHandle;
     private int mMVMatrixHandle;
     private int mLightPosHandle;
     private int mTextureHandle;
+    private int mTexRectHandle;
     private int mProgramHandle;
 
     private int mLightProgramHandle;
@@ -70,6 +95,38 @@ public class CardboardUIActivity extends CardboardActivity implements CardboardV
 
     private ViewContent currentContent;
 
+    private GLState mGLState = new GLState();
+
+    private ProgramCache mProgramCache;
+
+    private ShaderVariants mShaderVariants = new ShaderVariants(mGLState);
+
+    private QuadBatch mQuadBatch = new QuadBatch(this);
+
+    private RenderQueue mRenderQueue = new RenderQueue(this);
+
+    private GazeIndex mGazeIndex = new GazeIndex();
+
+    private volatile boolean triggerPending = false;
+
+    private TextureRegistry mTextureRegistry = new TextureRegistry(mGLState);
+
+    private SdfFont mDefaultFont;
+
+    private TextMetrics mTextMetrics = new TextMetrics();
+
+    private TextureAtlas mTextureAtlas = new TextureAtlas(mTextureRegistry);
+
+    private BitmapPool mBitmapPool = new BitmapPool();
+
+    private ResourceCache mResourceCache = new ResourceCache(this);
+
+    private TextureLoader mTextureLoader = new TextureLoader(mTextureAtlas, mBitmapPool);
+
+    private AllocationTracker mAllocationTracker = new AllocationTracker();
+
+    private GLErrorPolicy mGLErrorPolicy = BuildConfig.DEBUG ? GLErrorPolicy.sampled(60) : GLErrorPolicy.OFF;
+
     private int screenWidth;
     private int screenHeight;
 
@@ -89,30 +146,76 @@ public class CardboardUIActivity extends CardboardActivity implements CardboardV
         cardboardView.setRenderer(this);
         setCardboardView(cardboardView);
         setConvertTapIntoTrigger(true);
+
+        mProgramCache = new ProgramCache(mGLState, new File(getCacheDir(), "programs"));
+    }
+
+    @Override
+    protected void onDestroy() {
+        mTextureLoader.shutdown();
+        mBitmapPool.clear();
+        mResourceCache.clear();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mResourceCache.trimMemory(level);
     }
 
     @Override
     public void onNewFrame(HeadTransform headTransform) {
+        mAllocationTracker.beginFrame();
+        mGLErrorPolicy.beginFrame();
         headTransform.getHeadView(mHeadViewMatrix, 0);
         headTransform.getForwardVector(mForwardVector, 0);
+        if(lockCameraFlag) {
+            System.arraycopy(mCameraMatrix, 0, mFrameViewMatrix, 0, 16);
+        }else{
+            Matrix.multiplyMM(mFrameViewMatrix, 0, mHeadViewMatrix, 0, mCameraMatrix, 0);
+        }
+        // One gaze ray for the frame, against the index of the last frame. Views read their
+        // hover state from the nearest hit.
+        View3D hovered = mGazeIndex.pick(mFrameViewMatrix);
+        if(triggerPending)
+        {
+            triggerPending = false;
+            if(hovered != null)
+            {
+                hovered.performTriggerIfLookingAt();
+            }
+        }
         currentContent.update();
-        Util.checkGLError("Error On New Frame");
+        // Textures rasterized by the workers, as many as the frame budget allows.
+        mTextureLoader.uploadPending();
+        // Evicts the textures not seen for the longest time while over the memory budget.
+        mTextureRegistry.beginFrame();
+        // Views upload their textures while updating, without going through the state cache.
+        mGLState.invalidateTextures();
+
+        // Walk the views once, both eyes replay the same queue.
+        mRenderQueue.clear();
+        mGazeIndex.begin();
+        currentContent.submit(mRenderQueue);
+        mGazeIndex.finish();
+        mRenderQueue.sort();
+        mGLErrorPolicy.check("onNewFrame");
     }
 
     @Override
     public void onDrawEye(Eye eye) {
         if(resetCameraFlag)
         {
-            float[] invertedEye = new float[16];
-            Matrix.invertM(invertedEye, 0, eye.getEyeView(), 0);
+            Matrix.invertM(mInvertedEyeMatrix, 0, eye.getEyeView(), 0);
             setUpCamera();
-            Matrix.multiplyMM(mCameraMatrix, 0, invertedEye, 0, mCameraMatrix, 0);
+            Matrix.multiplyMM(mCameraMatrix, 0, mInvertedEyeMatrix, 0, mCameraMatrix, 0);
             resetCameraFlag = false;
         }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
         if(lockCameraFlag) {
-            mViewMatrix = mCameraMatrix.clone();
+            System.arraycopy(mCameraMatrix, 0, mViewMatrix, 0, 16);
         }else{
             Matrix.multiplyMM(mViewMatrix, 0, eye.getEyeView(), 0, mCameraMatrix, 0);
         }
@@ -122,41 +225,40 @@ public class CardboardUIActivity extends CardboardActivity implements CardboardV
         Matrix.multiplyMV(mLightPosInWorldSpace, 0, mLightModelMatrix, 0, mLightPosInModelSpace, 0);
         Matrix.multiplyMV(mLightPosInEyeSpace, 0, mViewMatrix, 0, mLightPosInWorldSpace, 0);
 
-        mProjectionMatrix = eye.getPerspective(Z_NEAR, Z_FAR);
+        // Written into our own array, Eye.getPerspective() may allocate a new one.
+        eye.getFov().toPerspectiveMatrix(Z_NEAR, Z_FAR, mProjectionMatrix, 0);
 
-        GLES20.glUseProgram(mProgramHandle);
-        currentContent.draw(eye);
+        mGLState.useProgram(mProgramHandle);
+        mRenderQueue.draw(eye);
 
         if(drawRedPoint) {
+            // Part of the overlay pass, the queue leaves the depth test disabled.
             drawTargetingPoint();
         }
-        Util.checkGLError("Error Draw Eye");
+        mGLErrorPolicy.check("onDrawEye");
     }
 
     private void drawTargetingPoint()
     {
-        GLES20.glUseProgram(mLightProgramHandle);
+        mGLState.useProgram(mLightProgramHandle);
 
         GLES20.glVertexAttrib3f(Util.ATTRIBUTE_POSITION, 0.0f, 0.0f, 0.0f);
 
-        GLES20.glDisableVertexAttribArray(Util.ATTRIBUTE_POSITION);
-
-        float[] MVPMatrix = new float[16];
-
+        mGLState.disableVertexAttribArray(Util.ATTRIBUTE_POSITION);
 
         Matrix.setIdentityM(mPointModelMatrix, 0);
         Matrix.translateM(mPointModelMatrix, 0, 0.0f, 0.0f, 2.0f);
 
-        Matrix.multiplyMM(MVPMatrix, 0, mCameraMatrix, 0, mPointModelMatrix, 0);
-        Matrix.multiplyMM(MVPMatrix, 0, mProjectionMatrix, 0, MVPMatrix, 0);
-        GLES20.glUniformMatrix4fv(mLightMVPMatrixHandle, 1, false, MVPMatrix, 0);
+        Matrix.multiplyMM(mPointMVPMatrix, 0, mCameraMatrix, 0, mPointModelMatrix, 0);
+        Matrix.multiplyMM(mPointMVPMatrix, 0, mProjectionMatrix, 0, mPointMVPMatrix, 0);
+        mGLState.uniformMatrix4fv(mLightMVPMatrixHandle, mPointMVPMatrix, 0);
 
         GLES20.glDrawArrays(GLES20.GL_POINTS, 0, 1);
     }
 
     @Override
     public void onFinishFrame(Viewport viewport) {
-
+        mAllocationTracker.endFrame();
     }
 
     @Override
@@ -169,17 +271,33 @@ public class CardboardUIActivity extends CardboardActivity implements CardboardV
         Matrix.setIdentityM(mLightModelMatrix, 0);
         Matrix.translateM(mLightModelMatrix, 0, -2.0f, 1.0f, -2.0f);
 
+        mGLState.onContextCreated();
+        Util.invalidateEmptyTexture();
+
         GLES20.glClearColor(0.5f, 0.5f, 0.5f, 1.0f);
 
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        mGLState.setDepthTest(true);
 
         setUpCamera();
 
-        mProgramHandle = Util.createProgram();
-        mMVMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVMatrix");
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_MVPMatrix");
-        mLightPosHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_LightPos");
-        mTextureHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_Texture");
+        // Linked binaries from the last launch, when the driver supports them.
+        Util.setProgramCache(mProgramCache);
+        Util.setGLErrorPolicy(mGLErrorPolicy);
+        mGLState.setErrorPolicy(mGLErrorPolicy);
+        // Views compile the other variants when they first need them.
+        ShaderProgram program = mShaderVariants.get(ShaderVariants.DEFAULT);
+        mProgramHandle = program.getHandle();
+        mMVMatrixHandle = program.getMVMatrixHandle();
+        mMVPMatrixHandle = program.getMVPMatrixHandle();
+        mLightPosHandle = program.getLightPosHandle();
+        mTextureHandle = program.getTextureHandle();
+        mTexRectHandle = program.getTexRectHandle();
+
+        mTextureAtlas.restore();
+        // Textures of their own are loaded again by their views when they are drawn.
+        mTextureRegistry.invalidate();
+        Util.getEmptyTexture();
+        mGLState.invalidateTextures();
 
         mLightProgramHandle = Util.createLightProgram();
         mLightMVPMatrixHandle = GLES20.glGetUniformLocation(mLightProgramHandle, "u_MVPMatrix");
@@ -222,10 +340,8 @@ public class CardboardUIActivity extends CardboardActivity implements CardboardV
             lockCameraFlag = false;
             return;
         }
-        for(View3D v : currentContent.getViews())
-        {
-            v.performTriggerIfLookingAt();
-        }
+        // Handled on the GL thread by the next frame, only the views near the gaze are asked.
+        triggerPending = true;
     }
 
     public void resetCamera()
@@ -268,6 +384,14 @@ public class CardboardUIActivity extends CardboardActivity implements CardboardV
         return mHeadViewMatrix;
     }
 
+    /**
+     * @return the view matrix between the two eyes for the current frame. Used for the work
+     * that is done once per frame, like sorting the render queue.
+     */
+    public float[] getFrameViewMatrix() {
+        return mFrameViewMatrix;
+    }
+
     public float[] getForwardVector() {
         return mForwardVector;
     }
@@ -292,6 +416,59 @@ public class CardboardUIActivity extends CardboardActivity implements CardboardV
         return mTextureHandle;
     }
 
+    public int getTexRectHandle() {
+        return mTexRectHandle;
+    }
+
+    /**
+     * @return the atlas views put their small textures into. Must only be used on the GL thread.
+     */
+    public TextureAtlas getTextureAtlas() {
+        return mTextureAtlas;
+    }
+
+    /**
+     * @return the cache views load their drawables and images from. Can be used on any thread.
+     */
+    public ResourceCache getResourceCache() {
+        return mResourceCache;
+    }
+
+    /**
+     * @return the cache views measure their text with. Can be used on any thread.
+     */
+    public TextMetrics getTextMetrics() {
+        return mTextMetrics;
+    }
+
+    /**
+     * @return the font text views are drawn with. Its glyphs are rendered the first time it
+     * is asked for, on the calling thread.
+     */
+    public synchronized SdfFont getDefaultFont() {
+        if(mDefaultFont == null)
+        {
+            mDefaultFont = new SdfFont(Typeface.DEFAULT);
+        }
+        return mDefaultFont;
+    }
+
+    /**
+     * @return the owner of the textures that are not in the atlas, with the texture memory
+     * budget. Must only be used on the GL thread.
+     */
+    public TextureRegistry getTextureRegistry() {
+        return mTextureRegistry;
+    }
+
+    /**
+     * @return the loader views rasterize their textures with. Its upload budget can be changed
+     * with {@link TextureLoader#setUploadBudget(long, int)}.
+     */
+    public TextureLoader getTextureLoader() {
+        return mTextureLoader;
+    }
+
     public int getScreenWidth() {
         return screenWidth;
     }
@@ -300,6 +477,95 @@ public class CardboardUIActivity extends CardboardActivity implements CardboardV
         return screenHeight;
     }
 
+    /**
+     * @return the GL state cache. Views and renderers should change GL state through it, so
+     * that redundant calls are skipped.
+     */
+    public GLState getGLState() {
+        return mGLState;
+    }
+
+    /**
+     * @return the variants of the view program. Views pick one with
+     * {@link View3D#getShaderFlags()}.
+     */
+    public ShaderVariants getShaderVariants() {
+        return mShaderVariants;
+    }
+
+    /**
+     * @return the cache of linked programs. Its counters tell how long the programs took to
+     * compile or load.
+     */
+    public ProgramCache getProgramCache() {
+        return mProgramCache;
+    }
+
+    public QuadBatch getQuadBatch() {
+        return mQuadBatch;
+    }
+
+    /**
+     * @return the index views are hit-tested through. Must only be used on the GL thread.
+     */
+    public GazeIndex getGazeIndex() {
+        return mGazeIndex;
+    }
+
+    public RenderQueue getRenderQueue() {
+        return mRenderQueue;
+    }
+
+    /**
+     * @param eyeType One of {@link Eye.Type} values.
+     * @return the number of views skipped by frustum culling on the last frame for that eye.
+     */
+    public int getCulledCount(int eyeType) {
+        return mRenderQueue.getCulledCount(eyeType);
+    }
+
+    /**
+     * Enables or disables batching flat views into a few draw calls. Enabled by default.
+     *
+     * @param enabled false to draw every view with its own draw call.
+     */
+    public void setBatchingEnabled(boolean enabled) {
+        mQuadBatch.setEnabled(enabled);
+    }
+
+    /**
+     * @param eyeType One of {@link Eye.Type} values.
+     * @return the number of batched draw calls on the last frame for that eye.
+     */
+    public int getBatchCount(int eyeType) {
+        return mQuadBatch.getBatchCount(eyeType);
+    }
+
+    /**
+     * @return the tracker counting allocations of the render thread per frame. Disabled
+     * unless a mode is set on it.
+     */
+    public AllocationTracker getAllocationTracker() {
+        return mAllocationTracker;
+    }
+
+    public GLErrorPolicy getGLErrorPolicy() {
+        return mGLErrorPolicy;
+    }
+
+    /**
+     * Chooses when GL errors are checked. Debug builds check one frame in 60 by default,
+     * release builds never check. Use {@link GLErrorPolicy#strict()} to find the command
+     * that failed, it checks after every GL call.
+     *
+     * @param policy The policy, must not be null.
+     */
+    public void setGLErrorPolicy(GLErrorPolicy policy) {
+        this.mGLErrorPolicy = policy;
+        mGLState.setErrorPolicy(policy);
+        Util.setGLErrorPolicy(policy);
+    }
+
     public int getProgramHandle() {
         return mProgramHandle;
     }
@@ -1,12 +1,20 @@
 package com.karacasoft.cardboardui;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLUtils;
+import android.os.Build;
+
+import com.karacasoft.cardboardui.gl.GLErrorPolicy;
+import com.karacasoft.cardboardui.gl.ProgramCache;
+import com.karacasoft.cardboardui.gl.ShaderVariants;
+import com.karacasoft.cardboardui.texture.TextureParams;
 
 /**
  * Created by Karaca on 5/23/2015.
@@ -17,45 +25,178 @@ public class Util {
     public static final int ATTRIBUTE_COLOR = 1;
     public static final int ATTRIBUTE_NORMAL = 2;
     public static final int ATTRIBUTE_TEXTURE = 3;
+    /** First of the four columns of the per-instance model matrix, uses 4 to 7. */
+    public static final int ATTRIBUTE_MODEL = 4;
+    public static final int ATTRIBUTE_TEX_RECT = 8;
+
+    /** Number of quads the uniform array shader can draw with one call. */
+    public static final int UNIFORM_ARRAY_INSTANCES = 16;
 
     private static int emptyTexture = -1;
 
+    private static ProgramCache programCache;
+    private static GLErrorPolicy errorPolicy = GLErrorPolicy.OFF;
+
+    /**
+     * Vertex shader of the views. Parts of it are switched on by the defines of
+     * {@link ShaderVariants}, see {@link #createProgram(int)}.
+     */
     public static final String vertex_shader = "uniform mat4 u_MVPMatrix;\n" +
             "uniform mat4 u_MVMatrix;\n" +
+            "uniform vec4 u_TexRect;\n" +
             "\n" +
             "attribute vec4 a_Position;\n" +
             "attribute vec3 a_Normal;\n" +
             "attribute vec4 a_Color;\n" +
             "attribute vec2 a_TexCoord;\n" +
             "\n" +
+            "#ifdef LIT\n" +
             "varying vec3 v_Position;\n" +
-            "varying vec4 v_Color;\n" +
             "varying vec3 v_Normal;\n" +
+            "#endif\n" +
+            "#ifdef VERTEX_COLOR\n" +
+            "varying vec4 v_Color;\n" +
+            "#endif\n" +
+            "#ifdef TEXTURED\n" +
             "varying vec2 v_TexCoord;\n" +
+            "#endif\n" +
+            "#ifdef HIGHLIGHT\n" +
+            "varying vec2 v_LocalCoord;\n" +
+            "#endif\n" +
+            "#ifdef BORDER\n" +
+            "uniform float u_Aspect;\n" +
+            "varying vec3 v_BorderCoord;\n" +
+            "#endif\n" +
             "\n" +
             "void main(){\n" +
             "\n" +
+            "#ifdef LIT\n" +
             "   v_Position = vec3(u_MVMatrix * a_Position);\n" +
-            "   v_Color = a_Color;\n" +
-            "   v_TexCoord = a_TexCoord;\n" +
-            "   \n" +
             "   v_Normal = vec3(u_MVMatrix * vec4(a_Normal, 0.0));\n" +
+            "#endif\n" +
+            "#ifdef VERTEX_COLOR\n" +
+            "   v_Color = a_Color;\n" +
+            "#endif\n" +
+            "#ifdef TEXTURED\n" +
+            "   v_TexCoord = u_TexRect.xy + a_TexCoord * u_TexRect.zw;\n" +
+            "#endif\n" +
+            "#ifdef HIGHLIGHT\n" +
+            "   v_LocalCoord = a_TexCoord;\n" +
+            "#endif\n" +
+            "#ifdef BORDER\n" +
+            "   v_BorderCoord = vec3((a_TexCoord - 0.5) * vec2(u_Aspect, 1.0), 0.5 * u_Aspect);\n" +
+            "#endif\n" +
             "   \n" +
             "   gl_Position = u_MVPMatrix * a_Position;\n" +
             "}\n";
 
-    public static final String fragment_shader = "precision mediump float;\n" +
+    /**
+     * Draws the shared quad many times with one call, GLES 3.0 instancing. The model matrix
+     * and the texture rectangle come from per-instance attributes.
+     */
+    public static final String instanced_vertex_shader = "uniform mat4 u_MVPMatrix;\n" +
             "\n" +
-            "uniform vec3 u_LightPos;\n" +
-            "uniform sampler2D u_Texture;\n" +
+            "attribute vec4 a_Position;\n" +
+            "attribute vec4 a_Model0;\n" +
+            "attribute vec4 a_Model1;\n" +
+            "attribute vec4 a_Model2;\n" +
+            "attribute vec4 a_Model3;\n" +
+            "attribute vec4 a_TexRect;\n" +
             "\n" +
-            "varying vec4 v_Color;\n" +
+            "varying vec2 v_TexCoord;\n" +
+            "#ifdef BORDER\n" +
+            "varying vec3 v_BorderCoord;\n" +
+            "#endif\n" +
+            "\n" +
+            "void main(){\n" +
+            "\n" +
+            "   mat4 model = mat4(a_Model0, a_Model1, a_Model2, a_Model3);\n" +
+            "   vec4 world = model * vec4(a_Position.xy, 0.0, 1.0);\n" +
+            "   v_TexCoord = a_TexRect.xy + vec2(a_Position.x, 1.0 - a_Position.y) * a_TexRect.zw;\n" +
+            "#ifdef BORDER\n" +
+            "   float aspect = length(a_Model0.xyz) / max(length(a_Model1.xyz), 1e-6);\n" +
+            "   v_BorderCoord = vec3((a_Position.xy - 0.5) * vec2(aspect, 1.0), 0.5 * aspect);\n" +
+            "#endif\n" +
+            "   \n" +
+            "   gl_Position = u_MVPMatrix * world;\n" +
+            "}\n";
+
+    /**
+     * Draws up to {@link #UNIFORM_ARRAY_INSTANCES} copies of the shared quad with one call on
+     * GLES 2.0. The z coordinate of a vertex is the index of its quad in the uniform arrays.
+     */
+    public static final String uniform_array_vertex_shader = "uniform mat4 u_MVPMatrix;\n" +
+            "uniform mat4 u_Models[" + UNIFORM_ARRAY_INSTANCES + "];\n" +
+            "uniform vec4 u_TexRects[" + UNIFORM_ARRAY_INSTANCES + "];\n" +
+            "\n" +
+            "attribute vec4 a_Position;\n" +
+            "\n" +
+            "varying vec2 v_TexCoord;\n" +
+            "#ifdef BORDER\n" +
+            "varying vec3 v_BorderCoord;\n" +
+            "#endif\n" +
+            "\n" +
+            "void main(){\n" +
+            "\n" +
+            "   int index = int(a_Position.z);\n" +
+            "   mat4 model = u_Models[index];\n" +
+            "   vec4 rect = u_TexRects[index];\n" +
+            "   vec4 world = model * vec4(a_Position.xy, 0.0, 1.0);\n" +
+            "   v_TexCoord = rect.xy + vec2(a_Position.x, 1.0 - a_Position.y) * rect.zw;\n" +
+            "#ifdef BORDER\n" +
+            "   float aspect = length(model[0].xyz) / max(length(model[1].xyz), 1e-6);\n" +
+            "   v_BorderCoord = vec3((a_Position.xy - 0.5) * vec2(aspect, 1.0), 0.5 * aspect);\n" +
+            "#endif\n" +
+            "   \n" +
+            "   gl_Position = u_MVPMatrix * world;\n" +
+            "}\n";
+
+    /**
+     * Fragment shader of the views. The lit vertex color is added to the texel, without a
+     * define the part is left out. Lighting only changes the vertex color, so LIT needs
+     * VERTEX_COLOR. The highlight is drawn over the texel, so HIGHLIGHT needs TEXTURED.
+     * BORDER draws a rounded outline under the texel, so it needs TEXTURED too. Its coordinates
+     * are centered on the quad, in units of its height.
+     * DISTANCE_FIELD uses the texel as the coverage of the vertex color. The edge is smoothed
+     * over a screen pixel with derivatives, or a fixed width on GPUs without them.
+     */
+    public static final String fragment_shader = "#ifdef DISTANCE_FIELD\n" +
+            "#ifdef GL_OES_standard_derivatives\n" +
+            "#extension GL_OES_standard_derivatives : enable\n" +
+            "#endif\n" +
+            "#endif\n" +
+            "precision mediump float;\n" +
+            "\n" +
+            "#ifdef LIT\n" +
+            "uniform vec3 u_LightPos;\n" +
             "varying vec3 v_Position;\n" +
             "varying vec3 v_Normal;\n" +
+            "#endif\n" +
+            "#ifdef VERTEX_COLOR\n" +
+            "varying vec4 v_Color;\n" +
+            "#endif\n" +
+            "#ifdef TEXTURED\n" +
+            "uniform sampler2D u_Texture;\n" +
             "varying vec2 v_TexCoord;\n" +
+            "#endif\n" +
+            "#ifdef HIGHLIGHT\n" +
+            "uniform vec4 u_Highlight;\n" +
+            "uniform vec4 u_HighlightShape;\n" +
+            "varying vec2 v_LocalCoord;\n" +
+            "#endif\n" +
+            "#ifdef BORDER\n" +
+            "uniform vec4 u_BorderColor;\n" +
+            "uniform vec2 u_Border;\n" +
+            "varying vec3 v_BorderCoord;\n" +
+            "#endif\n" +
             "\n" +
             "void main()\n" +
             "{\n" +
+            "   vec3 color = vec3(0.0);\n" +
+            "   float alpha = 1.0;\n" +
+            "#ifdef VERTEX_COLOR\n" +
+            "   color = v_Color.rgb;\n" +
+            "#ifdef LIT\n" +
             "   float distance = length(u_LightPos - v_Position);\n" +
             "   \n" +
             "   vec3 lightVector = normalize(u_LightPos - v_Position);\n" +
@@ -64,8 +205,48 @@ public class Util {
             "   \n" +
             "   diffuse = diffuse * (1.0 / (1.0 + (0.25 * distance)));\n" +
             "   diffuse = diffuse + 0.3;\n" +
-            "   \n" +
-            "   gl_FragColor = v_Color * diffuse + texture2D(u_Texture, v_TexCoord);\n" +
+            "   color = color * diffuse;\n" +
+            "#endif\n" +
+            "#endif\n" +
+            "#ifdef TEXTURED\n" +
+            "   vec4 texel = texture2D(u_Texture, v_TexCoord);\n" +
+            "#ifdef DISTANCE_FIELD\n" +
+            "#ifdef GL_OES_standard_derivatives\n" +
+            "   float edge = 0.7 * length(vec2(dFdx(texel.a), dFdy(texel.a)));\n" +
+            "#else\n" +
+            "   float edge = 0.06;\n" +
+            "#endif\n" +
+            "   alpha = v_Color.a * smoothstep(0.5 - edge, 0.5 + edge, texel.a);\n" +
+            "   color = color * alpha;\n" +
+            "#else\n" +
+            "   color = color + texel.rgb;\n" +
+            "   alpha = texel.a;\n" +
+            "#endif\n" +
+            "#endif\n" +
+            "#ifdef BORDER\n" +
+            "   // Outline of a rounded rectangle inside the quad, under the texel.\n" +
+            "   vec2 borderCorner = abs(v_BorderCoord.xy) - (vec2(v_BorderCoord.z, 0.5) - u_Border.x);\n" +
+            "   float borderDistance = length(max(borderCorner, 0.0))\n" +
+            "         + min(max(borderCorner.x, borderCorner.y), 0.0) - u_Border.x;\n" +
+            "   float stroke = smoothstep(-u_Border.y - 0.01, -u_Border.y, borderDistance)\n" +
+            "         * (1.0 - smoothstep(-0.01, 0.0, borderDistance)) * u_BorderColor.a;\n" +
+            "   color = color + u_BorderColor.rgb * stroke * (1.0 - alpha);\n" +
+            "   alpha = alpha + stroke * (1.0 - alpha);\n" +
+            "#endif\n" +
+            "#ifdef HIGHLIGHT\n" +
+            "   // Rounded rectangle over the view, filled from the bottom up to the progress.\n" +
+            "   vec2 size = vec2(u_HighlightShape.x, 1.0);\n" +
+            "   vec2 corner = abs(v_LocalCoord - 0.5) * size - (0.5 * size - u_HighlightShape.y);\n" +
+            "   float inside = step(length(max(corner, 0.0)), u_HighlightShape.y)\n" +
+            "         * step(1.0 - u_HighlightShape.z, v_LocalCoord.y) * u_Highlight.a;\n" +
+            "   vec3 highlight = mix(u_Highlight.rgb, 1.0 - texel.rgb, texel.a * u_HighlightShape.w);\n" +
+            "   color = mix(color, highlight, inside);\n" +
+            "   alpha = mix(alpha, 1.0, inside);\n" +
+            "#endif\n" +
+            "#ifdef ALPHA_MASK\n" +
+            "   if(alpha < 0.5) discard;\n" +
+            "#endif\n" +
+            "   gl_FragColor = vec4(color, alpha);\n" +
             "}\n";
 
 
@@ -91,8 +272,10 @@ public class Util {
         if(shaderHandle != 0)
         {
             GLES20.glShaderSource(shaderHandle, shaderCode);
+            errorPolicy.checkCall("glShaderSource");
 
             GLES20.glCompileShader(shaderHandle);
+            errorPolicy.checkCall("glCompileShader");
 
             final int[] compileStatus = new int[1];
             GLES20.glGetShaderiv(shaderHandle, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
@@ -109,50 +292,111 @@ public class Util {
         return shaderHandle;
     }
 
+    /**
+     * Creates the view program with every feature, like {@link ShaderVariants#DEFAULT}.
+     */
     public static int createProgram()
     {
-        int programHandle = GLES20.glCreateProgram();
-
-        if(programHandle != 0)
-        {
-            GLES20.glAttachShader(programHandle, createShader(vertex_shader, GLES20.GL_VERTEX_SHADER));
-
-            GLES20.glAttachShader(programHandle, createShader(fragment_shader, GLES20.GL_FRAGMENT_SHADER));
-
-            GLES20.glBindAttribLocation(programHandle, ATTRIBUTE_POSITION, "a_Position");
-            GLES20.glBindAttribLocation(programHandle, ATTRIBUTE_COLOR, "a_Color");
-            GLES20.glBindAttribLocation(programHandle, ATTRIBUTE_NORMAL, "a_Normal");
-            GLES20.glBindAttribLocation(programHandle, ATTRIBUTE_TEXTURE, "a_TexCoord");
+        return createProgram(ShaderVariants.DEFAULT);
+    }
 
-            GLES20.glLinkProgram(programHandle);
+    /**
+     * Creates a variant of the view program.
+     *
+     * @param flags Features of the variant, see {@link ShaderVariants}.
+     */
+    public static int createProgram(int flags)
+    {
+        String defines = ShaderVariants.getDefines(flags);
+        return createProgram(defines + vertex_shader, defines + fragment_shader,
+                "a_Position", "a_Color", "a_Normal", "a_TexCoord");
+    }
 
-            final int[] linkStatus = new int[1];
-            GLES20.glGetProgramiv(programHandle, GLES20.GL_LINK_STATUS, linkStatus, 0);
+    /**
+     * Creates a program with the textured fragment shader of the views and one of the
+     * instancing vertex shaders. Batched quads are flat, they don't need lighting.
+     *
+     * @param instanced true for {@link #instanced_vertex_shader}, false for
+     *                  {@link #uniform_array_vertex_shader}.
+     * @param border    true to draw the outline of {@link ShaderVariants#BORDER}.
+     */
+    public static int createQuadBatchProgram(boolean instanced, boolean border)
+    {
+        String defines = ShaderVariants.getDefines(ShaderVariants.TEXTURED
+                | (border ? ShaderVariants.BORDER : 0));
+        String fragment = defines + fragment_shader;
+        if(instanced)
+        {
+            return createProgram(defines + instanced_vertex_shader, fragment,
+                    "a_Position", null, null, null, "a_Model0", "a_Model1", "a_Model2", "a_Model3", "a_TexRect");
+        }
+        return createProgram(defines + uniform_array_vertex_shader, fragment, "a_Position");
+    }
 
-            if(linkStatus[0] == 0)
-            {
-                GLES20.glDeleteProgram(programHandle);
-                throw new RuntimeException("Error creating program");
-            }
-        }else{
-            throw new RuntimeException("Error creating program");
+    /**
+     * Creates a program through the {@link ProgramCache} if one is set, compiles it otherwise.
+     *
+     * @param attributes Attribute names, bound to the location of their index. Null entries
+     *                   are skipped.
+     */
+    public static int createProgram(String vertexShader, String fragmentShader, String... attributes)
+    {
+        if(programCache != null)
+        {
+            return programCache.createProgram(vertexShader, fragmentShader, attributes);
         }
-        return programHandle;
+        return compileProgram(vertexShader, fragmentShader, attributes);
     }
 
-    public static int createLightProgram()
+    /**
+     * Compiles and links a program from source.
+     *
+     * @param attributes Attribute names, bound to the location of their index. Null entries
+     *                   are skipped.
+     */
+    public static int compileProgram(String vertexShader, String fragmentShader, String... attributes)
+    {
+        return compileProgram(vertexShader, fragmentShader, false, attributes);
+    }
+
+    /**
+     * Compiles and links a program from source.
+     *
+     * @param retrievable true to tell the driver the binary will be read back with
+     *                    glGetProgramBinary. Needs GLES 3.0. Without the hint some drivers
+     *                    return no binary, or one they reject later.
+     * @param attributes  Attribute names, bound to the location of their index. Null entries
+     *                    are skipped.
+     */
+    public static int compileProgram(String vertexShader, String fragmentShader, boolean retrievable,
+                                     String... attributes)
     {
         int programHandle = GLES20.glCreateProgram();
+
         if(programHandle != 0)
         {
+            GLES20.glAttachShader(programHandle, createShader(vertexShader, GLES20.GL_VERTEX_SHADER));
+            errorPolicy.checkCall("glAttachShader");
 
-            GLES20.glAttachShader(programHandle, createShader(point_vertex_shader, GLES20.GL_VERTEX_SHADER));
-
-            GLES20.glAttachShader(programHandle, createShader(point_fragment_shader, GLES20.GL_FRAGMENT_SHADER));
+            GLES20.glAttachShader(programHandle, createShader(fragmentShader, GLES20.GL_FRAGMENT_SHADER));
+            errorPolicy.checkCall("glAttachShader");
 
-            GLES20.glBindAttribLocation(programHandle, ATTRIBUTE_POSITION, "a_Position");
+            for(int i = 0; i < attributes.length; i++)
+            {
+                if(attributes[i] != null)
+                {
+                    GLES20.glBindAttribLocation(programHandle, i, attributes[i]);
+                    errorPolicy.checkCall("glBindAttribLocation");
+                }
+            }
 
+            if(retrievable && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+            {
+                // Only counts if it is set before linking.
+                setRetrievableHint(programHandle);
+            }
             GLES20.glLinkProgram(programHandle);
+            errorPolicy.checkCall("glLinkProgram");
 
             final int[] linkStatus = new int[1];
             GLES20.glGetProgramiv(programHandle, GLES20.GL_LINK_STATUS, linkStatus, 0);
@@ -162,14 +406,45 @@ public class Util {
                 GLES20.glDeleteProgram(programHandle);
                 throw new RuntimeException("Error creating program");
             }
-
         }else{
             throw new RuntimeException("Error creating program");
         }
-
         return programHandle;
     }
 
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void setRetrievableHint(int program)
+    {
+        GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        errorPolicy.checkCall("glProgramParameteri");
+    }
+
+    public static int createLightProgram()
+    {
+        return createProgram(point_vertex_shader, point_fragment_shader, "a_Position");
+    }
+
+    /**
+     * Makes the create methods load linked programs from the cache when possible.
+     *
+     * @param cache The cache, null to always compile.
+     */
+    public static void setProgramCache(ProgramCache cache)
+    {
+        programCache = cache;
+    }
+
+    /**
+     * Sets the policy asked after the GL calls of the shader and texture methods, see
+     * {@link GLErrorPolicy#checkCall(String)}.
+     *
+     * @param policy The policy, must not be null.
+     */
+    public static void setGLErrorPolicy(GLErrorPolicy policy)
+    {
+        errorPolicy = policy;
+    }
+
     public static int loadTexture(final Context context, final int resourceId)
     {
         Bitmap bmp = BitmapFactory.decodeResource(context.getResources(), resourceId);
@@ -182,36 +457,84 @@ public class Util {
         if(textureHandle != 0)
         {
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
+            errorPolicy.checkCall("glBindTexture");
 
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+            errorPolicy.checkCall("glTexParameteri");
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+            errorPolicy.checkCall("glTexParameteri");
 
             GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bmp, 0);
+            errorPolicy.checkCall("texImage2D");
         }else{
             throw new RuntimeException("Error loading texture");
         }
     }
 
     public static int loadTexture(final Bitmap bmp)
+    {
+        return loadTexture(bmp, TextureParams.NEAREST);
+    }
+
+    /**
+     * Uploads a bitmap into a new texture. With mipmaps, bitmaps whose sides are not powers
+     * of two are scaled up first, GLES 2.0 can't make mipmaps for them.
+     *
+     * @param bmp    Pixels of the texture. Not recycled.
+     * @param params Filtering of the texture.
+     */
+    public static int loadTexture(final Bitmap bmp, final TextureParams params)
     {
         int[] textureHandle = new int[1];
 
         GLES20.glGenTextures(1, textureHandle, 0);
+        errorPolicy.checkCall("glGenTextures");
 
         if(textureHandle[0] != 0)
         {
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+            errorPolicy.checkCall("glBindTexture");
 
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+            params.apply(params.hasMipmaps());
 
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bmp, 0);
+            Bitmap upload = bmp;
+            if(params.hasMipmaps())
+            {
+                int width = nextPowerOfTwo(bmp.getWidth());
+                int height = nextPowerOfTwo(bmp.getHeight());
+                if(width != bmp.getWidth() || height != bmp.getHeight())
+                {
+                    upload = Bitmap.createScaledBitmap(bmp, width, height, true);
+                }
+            }
+
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, upload, 0);
+            errorPolicy.checkCall("texImage2D");
+            if(params.hasMipmaps())
+            {
+                GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+                errorPolicy.checkCall("glGenerateMipmap");
+            }
+            if(upload != bmp)
+            {
+                upload.recycle();
+            }
         }else{
             throw new RuntimeException("Error loading texture");
         }
         return textureHandle[0];
     }
 
+    private static int nextPowerOfTwo(int value)
+    {
+        int power = 1;
+        while(power < value)
+        {
+            power <<= 1;
+        }
+        return power;
+    }
+
     public static int getEmptyTexture() {
         if (emptyTexture != -1) {
             return emptyTexture;
@@ -224,12 +547,23 @@ public class Util {
         }
     }
 
+    /**
+     * Forgets the empty texture. Call when a new GL context is created, the old texture handle
+     * is not valid anymore.
+     */
+    public static void invalidateEmptyTexture() {
+        emptyTexture = -1;
+    }
+
+    /**
+     * Throws if GL has an error flag set. This always waits for GL, the renderer uses
+     * {@link com.karacasoft.cardboardui.gl.GLErrorPolicy} to decide when to check instead.
+     *
+     * @param message Describes the place of the check, used in the error message.
+     */
     public static void checkGLError(String message)
     {
-        if(GLES20.glGetError() != GLES20.GL_NO_ERROR)
-        {
-            throw new RuntimeException("GL Error: " + message + " : " + GLES20.glGetError());
-        }
+        GLErrorPolicy.throwIfError(message);
     }
 
 
@@ -2,12 +2,11 @@ package com.karacasoft.cardboardui;
 
 import android.util.Log;
 
-import com.google.vrtoolkit.cardboard.Eye;
+import com.karacasoft.cardboardui.render.RenderQueue;
 import com.karacasoft.cardboardui.view.TextView3D;
 import com.karacasoft.cardboardui.view.View3D;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 
 /**
  * Created by Karaca on 5/27/2015.
@@ -30,12 +29,18 @@ public class ViewContent {
         this.context = context;
     }
 
-    public void draw(Eye eye)
+    /**
+     * Adds the visible views to the render queue, then applies the pending view additions
+     * and removals.
+     *
+     * @param queue The queue of the frame.
+     */
+    public void submit(RenderQueue queue)
     {
         if(showTitle) {
-            drawTitle(eye);
+            submitTitle(queue);
         }
-        drawContent(eye);
+        submitContent(queue);
     }
 
 
@@ -47,13 +52,14 @@ public class ViewContent {
                 titleText.update();
             }
         }
-        for (View3D v : views)
+        // Indexed loops, iterators would allocate on every frame.
+        for (int i = 0; i < views.size(); i++)
         {
-            v.update();
+            views.get(i).update();
         }
     }
 
-    private void drawTitle(Eye eye)
+    private void submitTitle(RenderQueue queue)
     {
         if(titleText == null) {
             titleText = new TextView3D(context, name);
@@ -61,35 +67,34 @@ public class ViewContent {
             titleText.scale(0.4f, 0.4f, 0.4f);
             titleText.translate(-titleText.getWidth() / titleText.getHeight() / 2, 3.0f, 0.0f);
         }
-        titleText.draw(eye);
+        titleText.submit(queue);
     }
 
-    private void drawContent(Eye eye)
+    private void submitContent(RenderQueue queue)
     {
-        for(View3D v : views)
+        for(int i = 0; i < views.size(); i++)
         {
+            View3D v = views.get(i);
             if(v.isVisible()) {
-                v.draw(eye);
+                v.submit(queue);
             }
         }
-        Iterator<View3D> it = addQueue.iterator();
-        while(it.hasNext())
+        if(!addQueue.isEmpty())
         {
-            views.add(it.next());
-            it.remove();
+            views.addAll(addQueue);
+            addQueue.clear();
         }
-        it = removeQueue.iterator();
-        while(it.hasNext())
+        for(int i = 0; i < removeQueue.size(); i++)
         {
-            View3D v = it.next();
-            if(views.contains(v))
+            View3D v = removeQueue.get(i);
+            if(views.remove(v))
             {
-                views.remove(v);
+                v.releaseBuffers();
             } else {
                 Log.w("ViewContent", "View remove failed. No such view found.");
             }
-            it.remove();
         }
+        removeQueue.clear();
     }
 
     protected void onContentSelected() {}
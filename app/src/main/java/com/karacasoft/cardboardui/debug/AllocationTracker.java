@@ -0,0 +1,213 @@
+package com.karacasoft.cardboardui.debug;
+
+import android.util.Log;
+
+/**
+ * Measures the memory allocated during each frame.
+ *
+ * <p>The render loop is supposed to run without allocating anything once the views are set
+ * up. Allocations in the loop make the garbage collector run while the user is looking
+ * around, which shows up as judder. {@link com.karacasoft.cardboardui.CardboardUIActivity}
+ * calls {@link #beginFrame()} at the start of each frame and {@link #endFrame()} at its end.</p>
+ *
+ * <p>Modes:</p>
+ * <ul>
+ *     <li>{@link #MODE_OFF}: nothing is measured. The default.</li>
+ *     <li>{@link #MODE_COUNT}: frames with allocations are counted and logged.</li>
+ *     <li>{@link #MODE_STRICT}: frames with allocations are logged as errors, and
+ *     {@link #assertNoAllocations()} throws afterwards. Meant for tests of scenes that don't
+ *     change, the test calls it from its own thread so the GL thread keeps running.</li>
+ * </ul>
+ *
+ * <p>The default {@link #HEAP_COUNTER} reads the bytes used by the heap, the per thread
+ * allocation counters of {@link android.os.Debug} don't count on ART. It sees the allocations
+ * of all threads, the texture workers too, so measure scenes whose textures are loaded. ART
+ * hands out memory to threads in blocks, small allocations show up when a thread takes a new
+ * block: a loop that allocates a little every frame is found within a few frames, not on
+ * the exact frame. Frames during which the garbage collector freed memory can't be measured
+ * and are skipped.</p>
+ *
+ * <p>The first frames after enabling are not checked, views create their textures and
+ * buffers on them. See {@link #setWarmUpFrames(int)}.</p>
+ */
+public class AllocationTracker {
+
+    /**
+     * Source of the allocation numbers.
+     */
+    public interface Counter {
+
+        /**
+         * @return a number of bytes that grows with every allocation.
+         */
+        long read();
+    }
+
+    /**
+     * Reads the bytes used by the heap of the process.
+     */
+    public static final Counter HEAP_COUNTER = new Counter() {
+        @Override
+        public long read() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    };
+
+    public static final int MODE_OFF = 0;
+    public static final int MODE_COUNT = 1;
+    public static final int MODE_STRICT = 2;
+
+    private static final String TAG = "AllocationTracker";
+
+    private final Counter counter;
+
+    private int mode = MODE_OFF;
+    private int warmUpFrames = 60;
+
+    private boolean measuring = false;
+    private long frameStart = 0;
+    private int frameCount = 0;
+    private long lastFrameBytes = 0;
+    private int framesWithAllocations = 0;
+    private int skippedFrames = 0;
+    private long totalBytes = 0;
+    private volatile String firstFailure = null;
+
+    public AllocationTracker()
+    {
+        this(HEAP_COUNTER);
+    }
+
+    /**
+     * @param counter Source of the allocation numbers.
+     */
+    public AllocationTracker(Counter counter)
+    {
+        this.counter = counter;
+    }
+
+    public void beginFrame()
+    {
+        measuring = mode != MODE_OFF;
+        if(measuring)
+        {
+            frameStart = counter.read();
+        }
+    }
+
+    public void endFrame()
+    {
+        if(!measuring)
+        {
+            return;
+        }
+        measuring = false;
+        long bytes = counter.read() - frameStart;
+        frameCount++;
+        if(frameCount <= warmUpFrames)
+        {
+            return;
+        }
+        if(bytes < 0)
+        {
+            // Collected during the frame.
+            skippedFrames++;
+            return;
+        }
+        lastFrameBytes = bytes;
+        if(bytes == 0)
+        {
+            return;
+        }
+        framesWithAllocations++;
+        totalBytes += bytes;
+        String message = "Frame " + frameCount + " allocated " + bytes + " bytes";
+        if(mode == MODE_STRICT)
+        {
+            if(firstFailure == null)
+            {
+                firstFailure = message;
+            }
+            Log.e(TAG, message);
+        }else{
+            Log.w(TAG, message);
+        }
+    }
+
+    /**
+     * Throws if a checked frame allocated since the mode was set or the tracker was reset.
+     * Call it from a test after the scene ran for a while.
+     *
+     * @throws IllegalStateException describing the first frame that allocated.
+     */
+    public void assertNoAllocations()
+    {
+        String failure = firstFailure;
+        if(failure != null)
+        {
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * Changes the mode and resets the counters.
+     *
+     * @param mode One of MODE_OFF, MODE_COUNT and MODE_STRICT.
+     */
+    public void setMode(int mode) {
+        this.mode = mode;
+        reset();
+    }
+
+    /**
+     * @param warmUpFrames Number of frames to skip after enabling or resetting.
+     */
+    public void setWarmUpFrames(int warmUpFrames) {
+        this.warmUpFrames = warmUpFrames;
+    }
+
+    public void reset()
+    {
+        frameCount = 0;
+        lastFrameBytes = 0;
+        framesWithAllocations = 0;
+        skippedFrames = 0;
+        totalBytes = 0;
+        firstFailure = null;
+    }
+
+    /**
+     * @return the bytes allocated by the last checked frame.
+     */
+    public long getLastFrameBytes() {
+        return lastFrameBytes;
+    }
+
+    /**
+     * @return the number of checked frames that allocated anything.
+     */
+    public int getFramesWithAllocations() {
+        return framesWithAllocations;
+    }
+
+    /**
+     * @return the number of frames that could not be measured because memory was collected
+     * during them.
+     */
+    public int getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+}
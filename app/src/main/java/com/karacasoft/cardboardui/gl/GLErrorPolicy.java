@@ -0,0 +1,123 @@
+package com.karacasoft.cardboardui.gl;
+
+import android.opengl.GLES20;
+
+/**
+ * Decides when the renderer asks GL for errors.
+ *
+ * <p>glGetError waits for the driver to catch up with the commands sent so far, which stalls
+ * the pipeline on tiled mobile GPUs. The renderer calls {@link #check(String)} at a few places
+ * of the frame, and {@link #checkCall(String)} after single GL calls in {@link GLState},
+ * {@link Mesh}, the quad batch and {@link com.karacasoft.cardboardui.Util}. The policy decides
+ * whether it is worth the round trip:</p>
+ * <ul>
+ *     <li>{@link #OFF}: never checks. For release builds.</li>
+ *     <li>{@link #sampled(int)}: checks on one frame out of N. GL keeps an error until it is
+ *     read, so an error is still caught, but the reported site is only the first check
+ *     after it.</li>
+ *     <li>{@link #strict()}: checks after every GL call, so the site is the name of the
+ *     failing command.</li>
+ * </ul>
+ *
+ * <p>Errors are thrown as {@link RuntimeException}s with the site and the GL error code.</p>
+ *
+ * @see com.karacasoft.cardboardui.CardboardUIActivity#setGLErrorPolicy(GLErrorPolicy)
+ */
+public abstract class GLErrorPolicy {
+
+    public static final GLErrorPolicy OFF = new GLErrorPolicy() {
+        @Override
+        public void check(String site) {}
+    };
+
+    /**
+     * @param interval Number of frames between checks. 1 checks every frame.
+     * @return a policy that only checks on some frames.
+     */
+    public static GLErrorPolicy sampled(final int interval)
+    {
+        return new GLErrorPolicy() {
+
+            private int frame = 0;
+            private boolean checking = true;
+
+            @Override
+            public void beginFrame() {
+                checking = frame % interval == 0;
+                frame++;
+            }
+
+            @Override
+            public void check(String site) {
+                if(checking)
+                {
+                    throwIfError(site);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a policy that checks every time it is asked to.
+     */
+    public static GLErrorPolicy strict()
+    {
+        return new GLErrorPolicy() {
+            @Override
+            public void check(String site) {
+                throwIfError(site);
+            }
+
+            @Override
+            public void checkCall(String call) {
+                throwIfError(call);
+            }
+        };
+    }
+
+    /**
+     * Called once at the start of each frame.
+     */
+    public void beginFrame() {}
+
+    /**
+     * Checks for GL errors if the policy wants to.
+     *
+     * @param site Describes the place of the check, used in the error message.
+     */
+    public abstract void check(String site);
+
+    /**
+     * Called after single GL calls. Only {@link #strict()} checks there, the other policies
+     * leave it to the sites of {@link #check(String)}.
+     *
+     * @param call Name of the GL call, used in the error message.
+     */
+    public void checkCall(String call) {}
+
+    /**
+     * Reads the GL error flags and throws if one was set. Every flag is read, so the next
+     * check doesn't report an old error.
+     *
+     * @param site Describes the place of the check, used in the error message.
+     */
+    public static void throwIfError(String site)
+    {
+        int error = GLES20.glGetError();
+        if(error == GLES20.GL_NO_ERROR)
+        {
+            return;
+        }
+        // More than one flag can be set, clear them all but report the first.
+        int last = error;
+        int count = 0;
+        int next;
+        while(count < 16 && (next = GLES20.glGetError()) != GLES20.GL_NO_ERROR)
+        {
+            last = next;
+            count++;
+        }
+        throw new RuntimeException("GL Error: " + site + " : 0x" + Integer.toHexString(error)
+                + (count > 0 ? " (and " + count + " more, last 0x" + Integer.toHexString(last) + ")" : ""));
+    }
+}
@@ -0,0 +1,507 @@
+package com.karacasoft.cardboardui.gl;
+
+import android.opengl.GLES20;
+import android.os.Build;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the GL state set through it and skips calls that would not change anything.
+ *
+ * <p>Tracks the bound program, the active texture unit and the textures bound to each unit,
+ * enabled vertex attribute arrays, bound array and element buffers, depth test, depth writes
+ * and blending, and the last value of scalar and vector uniforms for each program. Matrix
+ * uniforms are always sent.</p>
+ *
+ * <p>The cache only knows about calls made through it. Code that changes the same state
+ * directly (texture uploads in {@link com.karacasoft.cardboardui.Util} for example) must call
+ * the matching invalidate method afterwards. {@link com.karacasoft.cardboardui.CardboardUIActivity}
+ * invalidates the texture bindings after the views are updated, and everything when the
+ * surface is created.</p>
+ *
+ * <p>Issued and skipped calls are counted, see {@link #getSkippedCalls()}.</p>
+ */
+public class GLState {
+
+    private static final int MAX_TEXTURE_UNITS = 8;
+    private static final int MAX_ATTRIBUTES = 16;
+    private static final int MAX_UNIFORM_LOCATIONS = 32;
+
+    private static final int UNKNOWN = -1;
+
+    private int program = UNKNOWN;
+    private int activeTextureUnit = UNKNOWN;
+    private final int[] boundTextures = new int[MAX_TEXTURE_UNITS];
+
+    private int knownAttributes = 0;
+    private int enabledAttributes = 0;
+
+    private int arrayBuffer = UNKNOWN;
+    private int elementArrayBuffer = UNKNOWN;
+
+    private int depthTest = UNKNOWN;
+    private int depthMask = UNKNOWN;
+    private int blend = UNKNOWN;
+    private int blendSrc = UNKNOWN;
+    private int blendDst = UNKNOWN;
+
+    private final SparseArray<float[]> uniformValues = new SparseArray<>();
+
+    private int issuedCalls = 0;
+    private int skippedCalls = 0;
+
+    private GLErrorPolicy errorPolicy = GLErrorPolicy.OFF;
+
+    private int contextGeneration = 0;
+    private int majorVersion = 2;
+
+    public GLState()
+    {
+        invalidate();
+    }
+
+    public void useProgram(int program)
+    {
+        if(this.program == program)
+        {
+            skippedCalls++;
+            return;
+        }
+        GLES20.glUseProgram(program);
+        errorPolicy.checkCall("glUseProgram");
+        this.program = program;
+        issuedCalls++;
+    }
+
+    /**
+     * Binds a texture to the given unit. Changes the active texture unit if needed.
+     *
+     * @param unit    Texture unit index, 0 for GL_TEXTURE0.
+     * @param texture GL texture handle.
+     */
+    public void bindTexture(int unit, int texture)
+    {
+        if(unit >= MAX_TEXTURE_UNITS)
+        {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+            errorPolicy.checkCall("glActiveTexture");
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+            errorPolicy.checkCall("glBindTexture");
+            activeTextureUnit = UNKNOWN;
+            issuedCalls += 2;
+            return;
+        }
+        if(boundTextures[unit] == texture)
+        {
+            skippedCalls++;
+            return;
+        }
+        activeTexture(unit);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        errorPolicy.checkCall("glBindTexture");
+        boundTextures[unit] = texture;
+        issuedCalls++;
+    }
+
+    public void activeTexture(int unit)
+    {
+        if(activeTextureUnit == unit)
+        {
+            skippedCalls++;
+            return;
+        }
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        errorPolicy.checkCall("glActiveTexture");
+        activeTextureUnit = unit;
+        issuedCalls++;
+    }
+
+    public void enableVertexAttribArray(int index)
+    {
+        setVertexAttribArray(index, true);
+    }
+
+    public void disableVertexAttribArray(int index)
+    {
+        setVertexAttribArray(index, false);
+    }
+
+    private void setVertexAttribArray(int index, boolean enabled)
+    {
+        int bit = 1 << index;
+        if(index < MAX_ATTRIBUTES && (knownAttributes & bit) != 0 && ((enabledAttributes & bit) != 0) == enabled)
+        {
+            skippedCalls++;
+            return;
+        }
+        if(enabled)
+        {
+            GLES20.glEnableVertexAttribArray(index);
+            errorPolicy.checkCall("glEnableVertexAttribArray");
+            enabledAttributes |= bit;
+        }else{
+            GLES20.glDisableVertexAttribArray(index);
+            errorPolicy.checkCall("glDisableVertexAttribArray");
+            enabledAttributes &= ~bit;
+        }
+        knownAttributes |= bit;
+        issuedCalls++;
+    }
+
+    /**
+     * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER.
+     * @param buffer GL buffer handle, 0 to unbind.
+     */
+    public void bindBuffer(int target, int buffer)
+    {
+        if(target == GLES20.GL_ARRAY_BUFFER)
+        {
+            if(arrayBuffer == buffer)
+            {
+                skippedCalls++;
+                return;
+            }
+            arrayBuffer = buffer;
+        }else if(target == GLES20.GL_ELEMENT_ARRAY_BUFFER)
+        {
+            if(elementArrayBuffer == buffer)
+            {
+                skippedCalls++;
+                return;
+            }
+            elementArrayBuffer = buffer;
+        }
+        GLES20.glBindBuffer(target, buffer);
+        errorPolicy.checkCall("glBindBuffer");
+        issuedCalls++;
+    }
+
+    /**
+     * Deletes textures and forgets their bindings. Deleting a bound texture binds 0 in its
+     * place, a new texture given the same handle would otherwise be taken as bound.
+     */
+    public void deleteTextures(int n, int[] textures, int offset)
+    {
+        for(int i = offset; i < offset + n; i++)
+        {
+            for(int unit = 0; unit < MAX_TEXTURE_UNITS; unit++)
+            {
+                if(boundTextures[unit] == textures[i])
+                {
+                    boundTextures[unit] = 0;
+                }
+            }
+        }
+        GLES20.glDeleteTextures(n, textures, offset);
+        errorPolicy.checkCall("glDeleteTextures");
+        issuedCalls++;
+    }
+
+    /**
+     * Deletes buffers and forgets their bindings. Deleting a bound buffer unbinds it in GL.
+     */
+    public void deleteBuffers(int n, int[] buffers, int offset)
+    {
+        for(int i = offset; i < offset + n; i++)
+        {
+            if(buffers[i] == arrayBuffer)
+            {
+                arrayBuffer = 0;
+            }
+            if(buffers[i] == elementArrayBuffer)
+            {
+                elementArrayBuffer = 0;
+            }
+        }
+        GLES20.glDeleteBuffers(n, buffers, offset);
+        errorPolicy.checkCall("glDeleteBuffers");
+        issuedCalls++;
+    }
+
+    public void setDepthTest(boolean enabled)
+    {
+        depthTest = setCapability(GLES20.GL_DEPTH_TEST, depthTest, enabled);
+    }
+
+    public void setBlend(boolean enabled)
+    {
+        blend = setCapability(GLES20.GL_BLEND, blend, enabled);
+    }
+
+    private int setCapability(int capability, int current, boolean enabled)
+    {
+        int value = enabled ? 1 : 0;
+        if(current == value)
+        {
+            skippedCalls++;
+            return current;
+        }
+        if(enabled)
+        {
+            GLES20.glEnable(capability);
+            errorPolicy.checkCall("glEnable");
+        }else{
+            GLES20.glDisable(capability);
+            errorPolicy.checkCall("glDisable");
+        }
+        issuedCalls++;
+        return value;
+    }
+
+    public void setDepthMask(boolean enabled)
+    {
+        int value = enabled ? 1 : 0;
+        if(depthMask == value)
+        {
+            skippedCalls++;
+            return;
+        }
+        GLES20.glDepthMask(enabled);
+        errorPolicy.checkCall("glDepthMask");
+        depthMask = value;
+        issuedCalls++;
+    }
+
+    public void blendFunc(int src, int dst)
+    {
+        if(blendSrc == src && blendDst == dst)
+        {
+            skippedCalls++;
+            return;
+        }
+        GLES20.glBlendFunc(src, dst);
+        errorPolicy.checkCall("glBlendFunc");
+        blendSrc = src;
+        blendDst = dst;
+        issuedCalls++;
+    }
+
+    public void uniform1i(int location, int value)
+    {
+        if(setUniform(location, value, 0f, 0f, 0f))
+        {
+            GLES20.glUniform1i(location, value);
+            errorPolicy.checkCall("glUniform1i");
+        }
+    }
+
+    public void uniform1f(int location, float x)
+    {
+        if(setUniform(location, x, 0f, 0f, 0f))
+        {
+            GLES20.glUniform1f(location, x);
+            errorPolicy.checkCall("glUniform1f");
+        }
+    }
+
+    public void uniform2f(int location, float x, float y)
+    {
+        if(setUniform(location, x, y, 0f, 0f))
+        {
+            GLES20.glUniform2f(location, x, y);
+            errorPolicy.checkCall("glUniform2f");
+        }
+    }
+
+    public void uniform3f(int location, float x, float y, float z)
+    {
+        if(setUniform(location, x, y, z, 0f))
+        {
+            GLES20.glUniform3f(location, x, y, z);
+            errorPolicy.checkCall("glUniform3f");
+        }
+    }
+
+    public void uniform4f(int location, float x, float y, float z, float w)
+    {
+        if(setUniform(location, x, y, z, w))
+        {
+            GLES20.glUniform4f(location, x, y, z, w);
+            errorPolicy.checkCall("glUniform4f");
+        }
+    }
+
+    public void uniformMatrix4fv(int location, float[] value, int offset)
+    {
+        GLES20.glUniformMatrix4fv(location, 1, false, value, offset);
+        errorPolicy.checkCall("glUniformMatrix4fv");
+        issuedCalls++;
+    }
+
+    /**
+     * Sets a matrix array uniform. Not cached, like single matrices.
+     */
+    public void uniformMatrix4fv(int location, int count, float[] value, int offset)
+    {
+        GLES20.glUniformMatrix4fv(location, count, false, value, offset);
+        errorPolicy.checkCall("glUniformMatrix4fv");
+        issuedCalls++;
+    }
+
+    /**
+     * Sets a vec4 array uniform. Not cached.
+     */
+    public void uniform4fv(int location, int count, float[] value, int offset)
+    {
+        GLES20.glUniform4fv(location, count, value, offset);
+        errorPolicy.checkCall("glUniform4fv");
+        issuedCalls++;
+    }
+
+    /**
+     * Stores a uniform value for the current program.
+     *
+     * @return true if the value changed and the call must be issued.
+     */
+    private boolean setUniform(int location, float x, float y, float z, float w)
+    {
+        if(location < 0 || location >= MAX_UNIFORM_LOCATIONS || program == UNKNOWN)
+        {
+            issuedCalls++;
+            return location >= 0;
+        }
+        float[] values = uniformValues.get(program);
+        if(values == null)
+        {
+            values = new float[MAX_UNIFORM_LOCATIONS * 4];
+            Arrays.fill(values, Float.NaN);
+            uniformValues.put(program, values);
+        }
+        int i = location * 4;
+        if(values[i] == x && values[i + 1] == y && values[i + 2] == z && values[i + 3] == w)
+        {
+            skippedCalls++;
+            return false;
+        }
+        values[i] = x;
+        values[i + 1] = y;
+        values[i + 2] = z;
+        values[i + 3] = w;
+        issuedCalls++;
+        return true;
+    }
+
+    /**
+     * Forgets the texture bindings. Call after binding textures without this class.
+     */
+    public void invalidateTextures()
+    {
+        activeTextureUnit = UNKNOWN;
+        Arrays.fill(boundTextures, UNKNOWN);
+    }
+
+    /**
+     * Forgets the buffer bindings. Call after binding buffers without this class.
+     */
+    public void invalidateBuffers()
+    {
+        arrayBuffer = UNKNOWN;
+        elementArrayBuffer = UNKNOWN;
+    }
+
+    /**
+     * Forgets everything. Call when a new GL context is created.
+     */
+    public void invalidate()
+    {
+        program = UNKNOWN;
+        knownAttributes = 0;
+        enabledAttributes = 0;
+        depthTest = UNKNOWN;
+        depthMask = UNKNOWN;
+        blend = UNKNOWN;
+        blendSrc = UNKNOWN;
+        blendDst = UNKNOWN;
+        uniformValues.clear();
+        invalidateTextures();
+        invalidateBuffers();
+    }
+
+    /**
+     * Forgets everything and starts a new context generation. GL objects created before this
+     * call belong to the old context, see {@link #getContextGeneration()}.
+     */
+    public void onContextCreated()
+    {
+        contextGeneration++;
+        invalidate();
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        // "OpenGL ES 3.0 ...", the GLES30 bindings exist since API 18.
+        majorVersion = 2;
+        if(version != null && version.startsWith("OpenGL ES ") && version.length() > 10
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+        {
+            majorVersion = Math.max(2, Character.digit(version.charAt(10), 10));
+        }
+    }
+
+    /**
+     * @return the policy asked after every issued call. Code making GL calls without this class
+     * should ask it too, see {@link GLErrorPolicy#checkCall(String)}.
+     */
+    public GLErrorPolicy getErrorPolicy() {
+        return errorPolicy;
+    }
+
+    /**
+     * @param errorPolicy The policy, must not be null.
+     */
+    public void setErrorPolicy(GLErrorPolicy errorPolicy) {
+        this.errorPolicy = errorPolicy;
+    }
+
+    /**
+     * @return the major OpenGL ES version of the current context, 2 or more.
+     */
+    public int getMajorVersion() {
+        return majorVersion;
+    }
+
+    /**
+     * @return a number that changes every time a new GL context is created. Objects holding
+     * GL handles can compare it with the value at creation time to find out that their
+     * handles are gone.
+     */
+    public int getContextGeneration() {
+        return contextGeneration;
+    }
+
+    /**
+     * Forgets the uniform values of a program. Call when a program is deleted, its handle can
+     * be reused by a new program.
+     */
+    public void invalidateProgram(int program)
+    {
+        uniformValues.remove(program);
+        if(this.program == program)
+        {
+            this.program = UNKNOWN;
+        }
+    }
+
+    public int getProgram() {
+        return program;
+    }
+
+    /**
+     * @return the number of GL calls that were issued since the last {@link #resetCounters()}.
+     */
+    public int getIssuedCalls() {
+        return issuedCalls;
+    }
+
+    /**
+     * @return the number of GL calls that were skipped because they would not change
+     * anything, since the last {@link #resetCounters()}.
+     */
+    public int getSkippedCalls() {
+        return skippedCalls;
+    }
+
+    public void resetCounters()
+    {
+        issuedCalls = 0;
+        skippedCalls = 0;
+    }
+}
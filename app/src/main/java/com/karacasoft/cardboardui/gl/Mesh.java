@@ -0,0 +1,346 @@
+package com.karacasoft.cardboardui.gl;
+
+import android.opengl.GLES20;
+
+import com.karacasoft.cardboardui.Util;
+import com.karacasoft.cardboardui.view.ViewData;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the geometry of a view in a form OpenGL can draw.
+ *
+ * <p>The data is always kept in direct buffers on the client side. When buffer objects are
+ * enabled (default), the data is also uploaded into GL vertex and element buffers once, and
+ * drawing only binds those buffers. The upload is deferred to the next {@link #bind(GLState)} call.</p>
+ *
+ * <p>{@link #setData(ViewData)} can be called from any thread. The data is double buffered:
+ * it is copied into a set of buffers the GL thread doesn't use, which is handed over at once
+ * and picked up on the next bind. The set the GL thread drew from before is given back for the
+ * next update, so a view that changes every frame reuses two sets of buffers and a draw never
+ * sees half of an update.</p>
+ *
+ * <p>Buffer objects belong to the GL context. Call {@link #release(GLState)} on the GL thread when
+ * the mesh is not needed anymore.</p>
+ */
+public class Mesh {
+
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int BYTES_PER_SHORT = 2;
+
+    private static final int BUFFER_VERTICES = 0;
+    private static final int BUFFER_COLORS = 1;
+    private static final int BUFFER_NORMALS = 2;
+    private static final int BUFFER_TEXTURES = 3;
+    private static final int BUFFER_DRAW_ORDER = 4;
+    private static final int BUFFER_COUNT = 5;
+
+    /**
+     * Client side copy of a {@link ViewData}. Owned by one thread at a time: the one filling
+     * it, or the GL thread after it took it from {@link #pending}.
+     */
+    private static final class Geometry {
+        FloatBuffer vertices;
+        FloatBuffer colors;
+        FloatBuffer normals;
+        FloatBuffer textures;
+        ShortBuffer drawOrder;
+        int indexCount;
+
+        /**
+         * Copies the data, reusing the buffers that are big enough.
+         */
+        void fill(ViewData data)
+        {
+            vertices = fill(vertices, data.getVerticesData());
+            colors = fill(colors, data.getColorData());
+            normals = fill(normals, data.getNormalData());
+            textures = fill(textures, data.getTextureData());
+
+            short[] order = data.getVerticesDrawOrder();
+            if(order != null)
+            {
+                if(drawOrder == null || drawOrder.capacity() < order.length)
+                {
+                    drawOrder = ByteBuffer.allocateDirect(order.length * BYTES_PER_SHORT)
+                            .order(ByteOrder.nativeOrder()).asShortBuffer();
+                }
+                drawOrder.clear();
+                drawOrder.put(order).flip();
+                indexCount = order.length;
+            }else{
+                drawOrder = null;
+                indexCount = 0;
+            }
+        }
+
+        private static FloatBuffer fill(FloatBuffer buffer, float[] data)
+        {
+            if(data == null)
+            {
+                return null;
+            }
+            if(buffer == null || buffer.capacity() < data.length)
+            {
+                buffer = ByteBuffer.allocateDirect(data.length * BYTES_PER_FLOAT)
+                        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            }
+            buffer.clear();
+            buffer.put(data).flip();
+            return buffer;
+        }
+    }
+
+    /** Filled and not taken by the GL thread yet. */
+    private final AtomicReference<Geometry> pending = new AtomicReference<>();
+    /** Given back by the GL thread, the next {@link #setData(ViewData)} fills it. */
+    private final AtomicReference<Geometry> spare = new AtomicReference<>();
+    /** The last one filled, for the getters. */
+    private volatile Geometry latest;
+    /** What the GL buffers hold, only used on the GL thread. */
+    private Geometry bound;
+
+    private final int[] bufferHandles = new int[BUFFER_COUNT];
+    private final int[] uploadedSizes = new int[BUFFER_COUNT];
+
+    private boolean bufferObjectsEnabled = true;
+    private boolean uploadPending = false;
+    private int contextGeneration = -1;
+
+    /**
+     * Copies the given data into the client side buffers the GL thread is not drawing from.
+     * Can be called from any thread, but from one at a time. The GL buffers will be updated on
+     * the next {@link #bind(GLState)}.
+     *
+     * @param data Geometry of the view.
+     */
+    public void setData(ViewData data)
+    {
+        Geometry geometry = spare.getAndSet(null);
+        if(geometry == null)
+        {
+            geometry = new Geometry();
+        }
+        geometry.fill(data);
+        latest = geometry;
+        Geometry skipped = pending.getAndSet(geometry);
+        if(skipped != null)
+        {
+            // Never taken by the GL thread, it can be filled again.
+            spare.compareAndSet(null, skipped);
+        }
+    }
+
+    /**
+     * Uploads the client side buffers into GL buffer objects. Existing buffer objects are
+     * reused, so the handles only change after {@link #release(GLState)}.
+     */
+    private void upload(GLState state)
+    {
+        if(bufferHandles[BUFFER_VERTICES] == 0)
+        {
+            GLES20.glGenBuffers(BUFFER_COUNT, bufferHandles, 0);
+            state.getErrorPolicy().checkCall("glGenBuffers");
+            for(int i = 0; i < BUFFER_COUNT; i++)
+            {
+                uploadedSizes[i] = -1;
+            }
+        }
+        upload(state, GLES20.GL_ARRAY_BUFFER, BUFFER_VERTICES, bound.vertices, BYTES_PER_FLOAT);
+        upload(state, GLES20.GL_ARRAY_BUFFER, BUFFER_COLORS, bound.colors, BYTES_PER_FLOAT);
+        upload(state, GLES20.GL_ARRAY_BUFFER, BUFFER_NORMALS, bound.normals, BYTES_PER_FLOAT);
+        upload(state, GLES20.GL_ARRAY_BUFFER, BUFFER_TEXTURES, bound.textures, BYTES_PER_FLOAT);
+        upload(state, GLES20.GL_ELEMENT_ARRAY_BUFFER, BUFFER_DRAW_ORDER, bound.drawOrder, BYTES_PER_SHORT);
+        uploadPending = false;
+    }
+
+    private void upload(GLState state, int target, int index, Buffer buffer, int elementSize)
+    {
+        if(buffer == null)
+        {
+            return;
+        }
+        int size = buffer.limit() * elementSize;
+        buffer.position(0);
+        state.bindBuffer(target, bufferHandles[index]);
+        if(uploadedSizes[index] == size)
+        {
+            GLES20.glBufferSubData(target, 0, size, buffer);
+            state.getErrorPolicy().checkCall("glBufferSubData");
+        }else{
+            GLES20.glBufferData(target, size, buffer, GLES20.GL_STATIC_DRAW);
+            state.getErrorPolicy().checkCall("glBufferData");
+            uploadedSizes[index] = size;
+        }
+    }
+
+    /**
+     * Sets up the vertex attributes for drawing this mesh. Must be called on the GL thread.
+     *
+     * @param state State cache of the GL context.
+     * @return false if there's nothing to draw.
+     */
+    public boolean bind(GLState state)
+    {
+        Geometry next = pending.getAndSet(null);
+        if(next != null)
+        {
+            if(bound != null)
+            {
+                spare.compareAndSet(null, bound);
+            }
+            bound = next;
+            uploadPending = true;
+        }
+        if(bound == null || bound.vertices == null || bound.drawOrder == null)
+        {
+            return false;
+        }
+        if(bufferObjectsEnabled)
+        {
+            if(contextGeneration != state.getContextGeneration())
+            {
+                // The buffers died with the old context.
+                for(int i = 0; i < BUFFER_COUNT; i++)
+                {
+                    bufferHandles[i] = 0;
+                }
+                contextGeneration = state.getContextGeneration();
+            }
+            if(uploadPending || bufferHandles[BUFFER_VERTICES] == 0)
+            {
+                upload(state);
+            }
+            bindAttribute(state, Util.ATTRIBUTE_POSITION, BUFFER_VERTICES, bound.vertices, 3);
+            bindAttribute(state, Util.ATTRIBUTE_COLOR, BUFFER_COLORS, bound.colors, 4);
+            bindAttribute(state, Util.ATTRIBUTE_NORMAL, BUFFER_NORMALS, bound.normals, 3);
+            bindAttribute(state, Util.ATTRIBUTE_TEXTURE, BUFFER_TEXTURES, bound.textures, 2);
+            state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, bufferHandles[BUFFER_DRAW_ORDER]);
+        }else{
+            state.bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+            bindClientAttribute(state, Util.ATTRIBUTE_POSITION, bound.vertices, 3);
+            bindClientAttribute(state, Util.ATTRIBUTE_COLOR, bound.colors, 4);
+            bindClientAttribute(state, Util.ATTRIBUTE_NORMAL, bound.normals, 3);
+            bindClientAttribute(state, Util.ATTRIBUTE_TEXTURE, bound.textures, 2);
+        }
+        return true;
+    }
+
+    private void bindAttribute(GLState state, int attribute, int index, FloatBuffer buffer, int size)
+    {
+        if(buffer == null)
+        {
+            state.disableVertexAttribArray(attribute);
+            return;
+        }
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, bufferHandles[index]);
+        GLES20.glVertexAttribPointer(attribute, size, GLES20.GL_FLOAT, false, size * BYTES_PER_FLOAT, 0);
+        state.getErrorPolicy().checkCall("glVertexAttribPointer");
+        state.enableVertexAttribArray(attribute);
+    }
+
+    private void bindClientAttribute(GLState state, int attribute, FloatBuffer buffer, int size)
+    {
+        if(buffer == null)
+        {
+            state.disableVertexAttribArray(attribute);
+            return;
+        }
+        buffer.position(0);
+        GLES20.glVertexAttribPointer(attribute, size, GLES20.GL_FLOAT, false, size * BYTES_PER_FLOAT, buffer);
+        state.getErrorPolicy().checkCall("glVertexAttribPointer");
+        state.enableVertexAttribArray(attribute);
+    }
+
+    /**
+     * Issues the draw call. {@link #bind(GLState)} must be called first.
+     *
+     * @param state State cache of the GL context.
+     */
+    public void draw(GLState state)
+    {
+        if(bufferObjectsEnabled)
+        {
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, bound.indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+            state.getErrorPolicy().checkCall("glDrawElements");
+        }else{
+            bound.drawOrder.position(0);
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, bound.indexCount, GLES20.GL_UNSIGNED_SHORT, bound.drawOrder);
+            state.getErrorPolicy().checkCall("glDrawElements");
+        }
+    }
+
+    /**
+     * Deletes the GL buffer objects. Client side data is kept, so the mesh will be uploaded
+     * again if it is drawn after being released. Must be called on the GL thread.
+     *
+     * @param state State cache of the GL context.
+     */
+    public void release(GLState state)
+    {
+        if(bufferHandles[BUFFER_VERTICES] != 0 && contextGeneration == state.getContextGeneration())
+        {
+            state.deleteBuffers(BUFFER_COUNT, bufferHandles, 0);
+        }
+        for(int i = 0; i < BUFFER_COUNT; i++)
+        {
+            bufferHandles[i] = 0;
+        }
+        uploadPending = true;
+    }
+
+    public boolean isBufferObjectsEnabled() {
+        return bufferObjectsEnabled;
+    }
+
+    /**
+     * Switches between GL buffer objects and client side arrays. Switching off does not
+     * delete the existing buffer objects, use {@link #release(GLState)} for that.
+     *
+     * @param bufferObjectsEnabled true to keep the geometry on the GPU.
+     */
+    public void setBufferObjectsEnabled(boolean bufferObjectsEnabled) {
+        this.bufferObjectsEnabled = bufferObjectsEnabled;
+    }
+
+    public int getIndexCount() {
+        Geometry geometry = latest;
+        return geometry == null ? 0 : geometry.indexCount;
+    }
+
+    /**
+     * @return the vertices of the last {@link #setData(ViewData)}. The buffers are shared with
+     * the GL thread and filled again by later updates: don't modify or keep them, read them
+     * through {@code duplicate()}.
+     */
+    public FloatBuffer getVerticesBuffer() {
+        Geometry geometry = latest;
+        return geometry == null ? null : geometry.vertices;
+    }
+
+    public FloatBuffer getColorBuffer() {
+        Geometry geometry = latest;
+        return geometry == null ? null : geometry.colors;
+    }
+
+    public FloatBuffer getNormalBuffer() {
+        Geometry geometry = latest;
+        return geometry == null ? null : geometry.normals;
+    }
+
+    public FloatBuffer getTextureBuffer() {
+        Geometry geometry = latest;
+        return geometry == null ? null : geometry.textures;
+    }
+
+    public ShortBuffer getDrawOrderBuffer() {
+        Geometry geometry = latest;
+        return geometry == null ? null : geometry.drawOrder;
+    }
+}
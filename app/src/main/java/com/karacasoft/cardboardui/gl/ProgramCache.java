@@ -0,0 +1,288 @@
+package com.karacasoft.cardboardui.gl;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+import com.karacasoft.cardboardui.Util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stores linked program binaries on disk, so programs don't have to be compiled on every
+ * launch and after every context loss.
+ *
+ * <p>A binary is keyed by a hash of the shader sources, the attribute bindings and the GL
+ * renderer and version strings, so a driver update doesn't load an old binary. A binary the
+ * driver rejects is deleted and the program is compiled again.</p>
+ *
+ * <p>Program binaries need GLES 3.0 and API 18. Otherwise every program is compiled. The time
+ * spent compiling and loading is counted, see {@link #getCompileNanos()} and
+ * {@link #getLoadNanos()}. All methods must be called on the GL thread.</p>
+ *
+ * @see Util#setProgramCache(ProgramCache)
+ */
+public class ProgramCache {
+
+    private static final String TAG = "ProgramCache";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final GLState state;
+    private final File directory;
+
+    private final int[] values = new int[1];
+    private final int[] format = new int[1];
+
+    private int compileCount = 0;
+    private long compileNanos = 0;
+    private int loadCount = 0;
+    private long loadNanos = 0;
+    private int rejectCount = 0;
+
+    /**
+     * @param state     State of the GL context, used to find out the GL version.
+     * @param directory Directory the binaries are written to. Created if it doesn't exist.
+     */
+    public ProgramCache(GLState state, File directory)
+    {
+        this.state = state;
+        this.directory = directory;
+    }
+
+    /**
+     * Loads the program from the cache, or compiles it and adds it to the cache.
+     *
+     * @see Util#compileProgram(String, String, String...)
+     */
+    public int createProgram(String vertexShader, String fragmentShader, String... attributes)
+    {
+        if(state.getMajorVersion() < 3 || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2)
+        {
+            return compile(vertexShader, fragmentShader, false, attributes);
+        }
+
+        File file = new File(directory, key(vertexShader, fragmentShader, attributes));
+        if(file.exists())
+        {
+            long start = System.nanoTime();
+            int program = load(file);
+            if(program != 0)
+            {
+                long time = System.nanoTime() - start;
+                loadCount++;
+                loadNanos += time;
+                Log.d(TAG, "Loaded " + file.getName() + " in " + time / 1000 + " us");
+                return program;
+            }
+            rejectCount++;
+            if(!file.delete())
+            {
+                Log.w(TAG, "Could not delete rejected binary " + file.getName());
+            }
+        }
+
+        int program = compile(vertexShader, fragmentShader, true, attributes);
+        store(program, file);
+        return program;
+    }
+
+    private int compile(String vertexShader, String fragmentShader, boolean retrievable, String... attributes)
+    {
+        long start = System.nanoTime();
+        int program = Util.compileProgram(vertexShader, fragmentShader, retrievable, attributes);
+        long time = System.nanoTime() - start;
+        compileCount++;
+        compileNanos += time;
+        Log.d(TAG, "Compiled program in " + time / 1000 + " us");
+        return program;
+    }
+
+    /**
+     * @return the program, or 0 if the binary can't be read or the driver rejects it.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private int load(File file)
+    {
+        int binaryFormat;
+        byte[] bytes;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            binaryFormat = in.readInt();
+            bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + file.getName(), e);
+            return 0;
+        } finally {
+            close(in);
+        }
+
+        ByteBuffer binary = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+        binary.put(bytes).flip();
+
+        int program = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(program, binaryFormat, binary, bytes.length);
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, values, 0);
+        if(values[0] == 0)
+        {
+            // Usually a driver update that kept the same version string.
+            Log.w(TAG, "Binary " + file.getName() + " was rejected");
+            GLES20.glDeleteProgram(program);
+            // Clear the error glProgramBinary may have set.
+            GLES20.glGetError();
+            return 0;
+        }
+        return program;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void store(int program, File file)
+    {
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, values, 0);
+        int length = values[0];
+        if(length <= 0)
+        {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        GLES30.glGetProgramBinary(program, length, values, 0, format, 0, binary);
+        byte[] bytes = new byte[values[0]];
+        binary.get(bytes);
+
+        if(!directory.exists() && !directory.mkdirs())
+        {
+            Log.w(TAG, "Could not create " + directory);
+            return;
+        }
+        // Written next to the binary and renamed, so a crash or a full disk never leaves a
+        // partly written binary under the real name.
+        File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(temp));
+            out.writeInt(format[0]);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.close();
+            out = null;
+            if(!temp.renameTo(file))
+            {
+                throw new IOException("Could not rename " + temp.getName());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file.getName(), e);
+            close(out);
+            out = null;
+            temp.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(java.io.Closeable closeable)
+    {
+        if(closeable == null)
+        {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static String key(String vertexShader, String fragmentShader, String... attributes)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(GLES20.glGetString(GLES20.GL_RENDERER)).append('\n');
+        builder.append(GLES20.glGetString(GLES20.GL_VERSION)).append('\n');
+        builder.append(vertexShader).append('\n');
+        builder.append(fragmentShader).append('\n');
+        for(String attribute : attributes)
+        {
+            builder.append(attribute).append(',');
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(builder.toString().getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder();
+            for(byte b : hash)
+            {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16));
+                name.append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append(".bin").toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every Android device has SHA-1 and UTF-8.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deletes all the stored binaries.
+     */
+    public void clear()
+    {
+        File[] files = directory.listFiles();
+        if(files == null)
+        {
+            return;
+        }
+        for(File file : files)
+        {
+            String name = file.getName();
+            if((name.endsWith(".bin") || name.endsWith(TEMP_SUFFIX)) && !file.delete())
+            {
+                Log.w(TAG, "Could not delete " + file.getName());
+            }
+        }
+    }
+
+    /**
+     * @return the number of programs compiled from source.
+     */
+    public int getCompileCount() {
+        return compileCount;
+    }
+
+    /**
+     * @return the total time spent compiling programs from source.
+     */
+    public long getCompileNanos() {
+        return compileNanos;
+    }
+
+    /**
+     * @return the number of programs loaded from a binary.
+     */
+    public int getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * @return the total time spent loading binaries that were accepted.
+     */
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+
+    /**
+     * @return the number of binaries the driver rejected.
+     */
+    public int getRejectCount() {
+        return rejectCount;
+    }
+}
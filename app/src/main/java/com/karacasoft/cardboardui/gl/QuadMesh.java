@@ -0,0 +1,107 @@
+package com.karacasoft.cardboardui.gl;
+
+import com.karacasoft.cardboardui.view.ViewData;
+
+/**
+ * A 1x1 quad on the XY plane, shared by every flat view.
+ *
+ * <p>The quad spans from (0, 0) to (1, 1). Views that use it put their width and height
+ * into the model matrix, so resizing a view never touches the vertex data.</p>
+ *
+ * <p>The mesh is reference counted. Each view calls {@link #acquire()} once and
+ * {@link #release(GLState)} once when it is done. The GL buffers are deleted when the last
+ * reference is released, which must happen on the GL thread.</p>
+ */
+public final class QuadMesh {
+
+    private static final float[] VERTICES = {
+            0.0f, 0.0f, 0.0f,
+            0.0f, 1.0f, 0.0f,
+            1.0f, 0.0f, 0.0f,
+            1.0f, 1.0f, 0.0f
+    };
+
+    private static final short[] DRAW_ORDER = {
+            0, 1, 2, 2, 1, 3
+    };
+
+    private static final float[] COLORS = {
+            0.0f, 0.0f, 0.0f, 1.0f,
+            0.0f, 0.0f, 0.0f, 1.0f,
+            0.0f, 0.0f, 0.0f, 1.0f,
+            0.0f, 0.0f, 0.0f, 1.0f
+    };
+
+    private static final float[] NORMALS = {
+            0.0f, 0.0f, 1.0f,
+            0.0f, 0.0f, 1.0f,
+            0.0f, 0.0f, 1.0f,
+            0.0f, 0.0f, 1.0f
+    };
+
+    private static final float[] TEXTURES = {
+            0.0f, 1.0f,
+            0.0f, 0.0f,
+            1.0f, 1.0f,
+            1.0f, 0.0f
+    };
+
+    private static Mesh mesh;
+    private static int referenceCount = 0;
+
+    private QuadMesh() {}
+
+    /**
+     * Returns the shared quad and increments its reference count. Does not need a GL
+     * context, the quad is uploaded on its first draw.
+     *
+     * @return the shared quad mesh.
+     */
+    public static synchronized Mesh acquire()
+    {
+        if(mesh == null)
+        {
+            mesh = new Mesh();
+            mesh.setData(createViewData());
+        }
+        referenceCount++;
+        return mesh;
+    }
+
+    /**
+     * Decrements the reference count. Deletes the GL buffers if nobody uses the quad anymore.
+     * Must be called on the GL thread.
+     *
+     * @param state State cache of the GL context.
+     */
+    public static synchronized void release(GLState state)
+    {
+        if(referenceCount == 0)
+        {
+            return;
+        }
+        referenceCount--;
+        if(referenceCount == 0)
+        {
+            mesh.release(state);
+        }
+    }
+
+    public static synchronized int getReferenceCount() {
+        return referenceCount;
+    }
+
+    /**
+     * @return a copy of the quad data. Useful for views which need their own, modified quad.
+     */
+    public static ViewData createViewData()
+    {
+        ViewData data = new ViewData();
+        data.setVerticesData(VERTICES.clone());
+        data.setVerticesDrawOrder(DRAW_ORDER.clone());
+        data.setColorData(COLORS.clone());
+        data.setNormalData(NORMALS.clone());
+        data.setTextureData(TEXTURES.clone());
+        return data;
+    }
+}
@@ -0,0 +1,114 @@
+package com.karacasoft.cardboardui.gl;
+
+import android.opengl.GLES20;
+
+/**
+ * A linked variant of the view program and the locations of its uniforms. Uniforms the
+ * variant doesn't use have the location -1, GL ignores values set on it.
+ *
+ * @see ShaderVariants
+ */
+public class ShaderProgram {
+
+    private final int handle;
+    private final int flags;
+
+    private final int mvpMatrixHandle;
+    private final int mvMatrixHandle;
+    private final int lightPosHandle;
+    private final int textureHandle;
+    private final int texRectHandle;
+    private final int highlightHandle;
+    private final int highlightShapeHandle;
+    private final int aspectHandle;
+    private final int borderHandle;
+    private final int borderColorHandle;
+
+    public ShaderProgram(int handle, int flags)
+    {
+        this.handle = handle;
+        this.flags = flags;
+        mvMatrixHandle = GLES20.glGetUniformLocation(handle, "u_MVMatrix");
+        mvpMatrixHandle = GLES20.glGetUniformLocation(handle, "u_MVPMatrix");
+        lightPosHandle = GLES20.glGetUniformLocation(handle, "u_LightPos");
+        textureHandle = GLES20.glGetUniformLocation(handle, "u_Texture");
+        texRectHandle = GLES20.glGetUniformLocation(handle, "u_TexRect");
+        highlightHandle = GLES20.glGetUniformLocation(handle, "u_Highlight");
+        highlightShapeHandle = GLES20.glGetUniformLocation(handle, "u_HighlightShape");
+        aspectHandle = GLES20.glGetUniformLocation(handle, "u_Aspect");
+        borderHandle = GLES20.glGetUniformLocation(handle, "u_Border");
+        borderColorHandle = GLES20.glGetUniformLocation(handle, "u_BorderColor");
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+
+    /**
+     * @return the features of the variant, see {@link ShaderVariants}.
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public int getMVPMatrixHandle() {
+        return mvpMatrixHandle;
+    }
+
+    public int getMVMatrixHandle() {
+        return mvMatrixHandle;
+    }
+
+    public int getLightPosHandle() {
+        return lightPosHandle;
+    }
+
+    public int getTextureHandle() {
+        return textureHandle;
+    }
+
+    public int getTexRectHandle() {
+        return texRectHandle;
+    }
+
+    /**
+     * @return location of u_Highlight: the tint color and its strength.
+     */
+    public int getHighlightHandle() {
+        return highlightHandle;
+    }
+
+    /**
+     * @return location of u_HighlightShape: aspect ratio of the view, corner radius relative
+     * to the height, fill progress and 1 to invert the texture colors instead of tinting.
+     */
+    public int getHighlightShapeHandle() {
+        return highlightShapeHandle;
+    }
+
+    /**
+     * @return location of u_Aspect: width of the view divided by its height.
+     */
+    public int getAspectHandle() {
+        return aspectHandle;
+    }
+
+    /**
+     * @return location of u_Border: corner radius and stroke width of the outline, relative to
+     * the height.
+     */
+    public int getBorderHandle() {
+        return borderHandle;
+    }
+
+    /**
+     * @return location of u_BorderColor: color of the outline.
+     */
+    public int getBorderColorHandle() {
+        return borderColorHandle;
+    }
+}
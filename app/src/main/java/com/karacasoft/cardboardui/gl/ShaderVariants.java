@@ -0,0 +1,163 @@
+package com.karacasoft.cardboardui.gl;
+
+import android.opengl.GLES20;
+
+import com.karacasoft.cardboardui.Util;
+
+/**
+ * Variants of the view program with only the features a view needs.
+ *
+ * <p>The full view program lights the vertex color per fragment and adds a texel to it. Flat
+ * UI quads have black vertex colors, so the lighting doesn't change them, and untextured
+ * views sampled a 1x1 black texture. Fill rate is the limit on most Cardboard phones, so each
+ * view draws with the cheapest variant that gives the same picture, see
+ * {@link com.karacasoft.cardboardui.view.View3D#getShaderFlags()}.</p>
+ *
+ * <p>Features:</p>
+ * <ul>
+ *     <li>{@link #VERTEX_COLOR}: the color attribute is used. Without it the color is black.</li>
+ *     <li>{@link #LIT}: the vertex color is lit per fragment. Needs VERTEX_COLOR, it is
+ *     dropped without it.</li>
+ *     <li>{@link #TEXTURED}: the texture is sampled and added to the color, its alpha is
+ *     used. Without it the alpha is 1.</li>
+ *     <li>{@link #ALPHA_MASK}: fragments with an alpha under 0.5 are discarded, so cut-out
+ *     textures can be drawn in the opaque pass.</li>
+ *     <li>{@link #HIGHLIGHT}: a rounded rectangle is filled with a tint from the bottom up to
+ *     a progress, over the texture or with its colors inverted. Buttons draw their hover and
+ *     focus states with it. Needs TEXTURED, it is dropped without it.</li>
+ *     <li>{@link #DISTANCE_FIELD}: the texture alpha is a signed distance field, the vertex
+ *     color is drawn where it is over 0.5, with smooth edges. Text uses it, see
+ *     {@link com.karacasoft.cardboardui.text.SdfFont}. Needs TEXTURED and VERTEX_COLOR.</li>
+ *     <li>{@link #BORDER}: the outline of a rounded rectangle is drawn under the texture, so
+ *     buttons don't need their background in every texture. Needs TEXTURED, it is dropped
+ *     without it. See {@link com.karacasoft.cardboardui.view.View3D#setBorder(int, float, float)}.</li>
+ * </ul>
+ *
+ * <p>Variants are compiled the first time they are asked for, through the
+ * {@link ProgramCache} if one is set. Must be used on the GL thread.</p>
+ */
+public class ShaderVariants {
+
+    public static final int LIT = 1;
+    public static final int TEXTURED = 1 << 1;
+    public static final int VERTEX_COLOR = 1 << 2;
+    public static final int ALPHA_MASK = 1 << 3;
+    public static final int HIGHLIGHT = 1 << 4;
+    public static final int DISTANCE_FIELD = 1 << 5;
+    public static final int BORDER = 1 << 6;
+
+    /** Number of bits used by the flags. */
+    public static final int FLAG_BITS = 7;
+
+    /** The features of the original view program. */
+    public static final int DEFAULT = LIT | TEXTURED | VERTEX_COLOR;
+
+    private static final String[] NAMES = {"LIT", "TEXTURED", "VERTEX_COLOR", "ALPHA_MASK", "HIGHLIGHT",
+            "DISTANCE_FIELD", "BORDER"};
+
+    private final GLState state;
+
+    private final ShaderProgram[] programs = new ShaderProgram[1 << FLAG_BITS];
+    private int contextGeneration = -1;
+
+    public ShaderVariants(GLState state)
+    {
+        this.state = state;
+    }
+
+    /**
+     * @return the flags of the variant that is used for the given flags.
+     */
+    public static int normalize(int flags)
+    {
+        flags &= (1 << FLAG_BITS) - 1;
+        if((flags & VERTEX_COLOR) == 0)
+        {
+            flags &= ~LIT;
+        }
+        if((flags & TEXTURED) == 0)
+        {
+            flags &= ~(HIGHLIGHT | BORDER);
+        }
+        if((flags & TEXTURED) == 0 || (flags & VERTEX_COLOR) == 0)
+        {
+            flags &= ~DISTANCE_FIELD;
+        }
+        return flags;
+    }
+
+    /**
+     * @return the #define lines that switch on the features in the shader sources of
+     * {@link Util}.
+     */
+    public static String getDefines(int flags)
+    {
+        flags = normalize(flags);
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < FLAG_BITS; i++)
+        {
+            if((flags & (1 << i)) != 0)
+            {
+                builder.append("#define ").append(NAMES[i]).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param flags Features of the variant.
+     * @return the variant, compiled if it wasn't used on this context yet.
+     */
+    public ShaderProgram get(int flags)
+    {
+        if(contextGeneration != state.getContextGeneration())
+        {
+            // The programs died with the old context.
+            for(int i = 0; i < programs.length; i++)
+            {
+                programs[i] = null;
+            }
+            contextGeneration = state.getContextGeneration();
+        }
+        flags = normalize(flags);
+        ShaderProgram program = programs[flags];
+        if(program == null)
+        {
+            program = new ShaderProgram(Util.createProgram(flags), flags);
+            programs[flags] = program;
+        }
+        return program;
+    }
+
+    /**
+     * Deletes the compiled variants of the current context.
+     */
+    public void release()
+    {
+        for(int i = 0; i < programs.length; i++)
+        {
+            if(programs[i] != null && contextGeneration == state.getContextGeneration())
+            {
+                GLES20.glDeleteProgram(programs[i].getHandle());
+                state.invalidateProgram(programs[i].getHandle());
+            }
+            programs[i] = null;
+        }
+    }
+
+    /**
+     * @return the number of variants compiled on the current context.
+     */
+    public int getProgramCount()
+    {
+        int count = 0;
+        for(ShaderProgram program : programs)
+        {
+            if(program != null)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+}
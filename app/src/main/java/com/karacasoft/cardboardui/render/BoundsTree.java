@@ -0,0 +1,503 @@
+package com.karacasoft.cardboardui.render;
+
+import java.util.Arrays;
+
+/**
+ * A bounding volume hierarchy over axis aligned boxes, to find the boxes a ray goes through
+ * without testing all of them.
+ *
+ * <p>Boxes are given as minX, minY, minZ, maxX, maxY, maxZ, like the world bounds of views.
+ * {@link #build(float[], int)} splits them at the median of the longest axis until at most
+ * {@link #LEAF_SIZE} are left in a node, so a query visits about log n nodes. When the same
+ * boxes move, {@link #refit(float[])} updates the node bounds bottom up without changing the
+ * tree, which is much cheaper than building it again. Refitted nodes get looser as the boxes
+ * move apart, {@link #needsRebuild()} tells when a build pays off again.</p>
+ *
+ * <p>Queries don't allocate. This class has no GL or Android dependencies.</p>
+ */
+public class BoundsTree {
+
+    public static final int LEAF_SIZE = 4;
+
+    /** Refitted trees are rebuilt when their nodes get this much bigger than after the build. */
+    private static final float REBUILD_GROWTH = 2f;
+
+    /**
+     * Exact test of an item, for items that are smaller than their boxes.
+     */
+    public interface Intersector {
+        /**
+         * @param item Index of the box in the array the tree was built from.
+         * @return the distance along the ray to the item, NaN if the ray misses it.
+         */
+        float intersect(int item);
+    }
+
+    private int itemCount = 0;
+    private float[] boxes = new float[0];
+    private float[] centers = new float[0];
+    private int[] items = new int[0];
+
+    private int nodeTotal = 0;
+    private float[] nodeBounds = new float[0];
+    // Leaves have their first item and item count, inner nodes the index of their second
+    // child and a count of 0. The first child is always the next node.
+    private int[] nodeStart = new int[0];
+    private int[] nodeCount = new int[0];
+    private int[] stack = new int[1];
+    private float buildArea;
+    private float area;
+
+    private final float[] rayOrigin = new float[3];
+    private final float[] rayDirection = new float[3];
+    private final float[] rayInverse = new float[3];
+
+    private int[] hits = new int[16];
+    private float distance;
+
+    /**
+     * Builds the tree from scratch.
+     *
+     * @param bounds Boxes, six floats each. They are copied.
+     * @param count  Number of boxes.
+     */
+    public void build(float[] bounds, int count)
+    {
+        itemCount = count;
+        if(boxes.length < count * 6)
+        {
+            boxes = new float[count * 6];
+            centers = new float[count * 3];
+            items = new int[count];
+            // A binary tree with count leaves at most.
+            nodeBounds = new float[count * 2 * 6];
+            nodeStart = new int[count * 2];
+            nodeCount = new int[count * 2];
+        }
+        System.arraycopy(bounds, 0, boxes, 0, count * 6);
+        for(int i = 0; i < count; i++)
+        {
+            items[i] = i;
+            for(int axis = 0; axis < 3; axis++)
+            {
+                centers[i * 3 + axis] = (boxes[i * 6 + axis] + boxes[i * 6 + axis + 3]) * 0.5f;
+            }
+        }
+        nodeTotal = 0;
+        int depth = count > 0 ? build(0, count, 1) : 0;
+        if(stack.length < depth + 1)
+        {
+            stack = new int[depth + 1];
+        }
+        buildArea = area = measureArea();
+    }
+
+    /**
+     * @return the depth of the subtree.
+     */
+    private int build(int start, int end, int depth)
+    {
+        int node = nodeTotal++;
+        if(end - start > LEAF_SIZE)
+        {
+            int axis = longestCenterAxis(start, end);
+            if(axis != -1)
+            {
+                int middle = (start + end) >>> 1;
+                select(start, end - 1, middle, axis);
+                int first = build(start, middle, depth + 1);
+                int second = nodeTotal;
+                nodeStart[node] = second;
+                nodeCount[node] = 0;
+                int last = build(middle, end, depth + 1);
+                unionChildren(node);
+                return Math.max(first, last);
+            }
+            // All the centers are at the same point, splitting doesn't help.
+        }
+        nodeStart[node] = start;
+        nodeCount[node] = end - start;
+        unionItems(node);
+        return depth;
+    }
+
+    /**
+     * @return the axis along which the centers spread the most, -1 if they are all equal.
+     */
+    private int longestCenterAxis(int start, int end)
+    {
+        int best = -1;
+        float bestExtent = 0f;
+        for(int axis = 0; axis < 3; axis++)
+        {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for(int i = start; i < end; i++)
+            {
+                float c = centers[items[i] * 3 + axis];
+                min = Math.min(min, c);
+                max = Math.max(max, c);
+            }
+            if(max - min > bestExtent)
+            {
+                bestExtent = max - min;
+                best = axis;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Reorders items[left..right] so the item at k has the k-th center along the axis, with
+     * smaller ones before it and bigger ones after it.
+     */
+    private void select(int left, int right, int k, int axis)
+    {
+        while(left < right)
+        {
+            float pivot = centers[items[(left + right) >>> 1] * 3 + axis];
+            int i = left;
+            int j = right;
+            while(i <= j)
+            {
+                while(centers[items[i] * 3 + axis] < pivot) i++;
+                while(centers[items[j] * 3 + axis] > pivot) j--;
+                if(i <= j)
+                {
+                    int swap = items[i];
+                    items[i] = items[j];
+                    items[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if(k <= j)
+            {
+                right = j;
+            }else if(k >= i)
+            {
+                left = i;
+            }else{
+                return;
+            }
+        }
+    }
+
+    private void unionItems(int node)
+    {
+        int o = node * 6;
+        setEmpty(nodeBounds, o);
+        for(int i = nodeStart[node]; i < nodeStart[node] + nodeCount[node]; i++)
+        {
+            include(nodeBounds, o, boxes, items[i] * 6);
+        }
+    }
+
+    private void unionChildren(int node)
+    {
+        int o = node * 6;
+        setEmpty(nodeBounds, o);
+        include(nodeBounds, o, nodeBounds, (node + 1) * 6);
+        include(nodeBounds, o, nodeBounds, nodeStart[node] * 6);
+    }
+
+    private static void setEmpty(float[] box, int offset)
+    {
+        for(int i = 0; i < 3; i++)
+        {
+            box[offset + i] = Float.POSITIVE_INFINITY;
+            box[offset + i + 3] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void include(float[] box, int offset, float[] other, int otherOffset)
+    {
+        for(int i = 0; i < 3; i++)
+        {
+            box[offset + i] = Math.min(box[offset + i], other[otherOffset + i]);
+            box[offset + i + 3] = Math.max(box[offset + i + 3], other[otherOffset + i + 3]);
+        }
+    }
+
+    /**
+     * @return the summed surface area of the inner nodes, a measure of how many nodes a
+     * random ray visits.
+     */
+    private float measureArea()
+    {
+        float sum = 0f;
+        for(int node = 0; node < nodeTotal; node++)
+        {
+            if(nodeCount[node] == 0)
+            {
+                int o = node * 6;
+                float x = nodeBounds[o + 3] - nodeBounds[o];
+                float y = nodeBounds[o + 4] - nodeBounds[o + 1];
+                float z = nodeBounds[o + 5] - nodeBounds[o + 2];
+                sum += x * y + y * z + z * x;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Updates the tree for boxes that moved. The boxes must be the same ones, in the same order,
+     * as in the last {@link #build(float[], int)}.
+     *
+     * @param bounds Boxes, six floats each. They are copied.
+     */
+    public void refit(float[] bounds)
+    {
+        System.arraycopy(bounds, 0, boxes, 0, itemCount * 6);
+        // Children come after their parents.
+        for(int node = nodeTotal - 1; node >= 0; node--)
+        {
+            if(nodeCount[node] > 0)
+            {
+                unionItems(node);
+            }else{
+                unionChildren(node);
+            }
+        }
+        area = measureArea();
+    }
+
+    /**
+     * @return true if refitting made the tree much slower to query than a new build would be.
+     */
+    public boolean needsRebuild()
+    {
+        return area > buildArea * REBUILD_GROWTH;
+    }
+
+    private void setRay(float ox, float oy, float oz, float dx, float dy, float dz)
+    {
+        rayOrigin[0] = ox;
+        rayOrigin[1] = oy;
+        rayOrigin[2] = oz;
+        rayDirection[0] = dx;
+        rayDirection[1] = dy;
+        rayDirection[2] = dz;
+        for(int axis = 0; axis < 3; axis++)
+        {
+            rayInverse[axis] = 1f / rayDirection[axis];
+        }
+    }
+
+    /**
+     * Slab test of the ray against a box.
+     *
+     * @return the distance where the ray enters the box, clamped to tMin, NaN if it misses
+     * the box between tMin and tMax.
+     */
+    private float enter(float[] box, int offset, float tMin, float tMax)
+    {
+        for(int axis = 0; axis < 3; axis++)
+        {
+            float origin = rayOrigin[axis];
+            float min = box[offset + axis];
+            float max = box[offset + axis + 3];
+            if(rayDirection[axis] == 0f)
+            {
+                if(origin < min || origin > max)
+                {
+                    return Float.NaN;
+                }
+                continue;
+            }
+            float t0 = (min - origin) * rayInverse[axis];
+            float t1 = (max - origin) * rayInverse[axis];
+            if(t0 > t1)
+            {
+                float swap = t0;
+                t0 = t1;
+                t1 = swap;
+            }
+            tMin = Math.max(tMin, t0);
+            tMax = Math.min(tMax, t1);
+            if(tMin > tMax)
+            {
+                return Float.NaN;
+            }
+        }
+        return tMin;
+    }
+
+    /**
+     * Slab test of a ray against a single box, for exact tests of items in their own space.
+     *
+     * @return the distance where the ray enters the box, clamped to tMin, NaN if it misses
+     * the box between tMin and tMax.
+     */
+    public static float intersectBox(float[] origin, float[] direction, float[] box, int offset,
+                                     float tMin, float tMax)
+    {
+        for(int axis = 0; axis < 3; axis++)
+        {
+            float min = box[offset + axis];
+            float max = box[offset + axis + 3];
+            if(direction[axis] == 0f)
+            {
+                if(origin[axis] < min || origin[axis] > max)
+                {
+                    return Float.NaN;
+                }
+                continue;
+            }
+            float t0 = (min - origin[axis]) / direction[axis];
+            float t1 = (max - origin[axis]) / direction[axis];
+            tMin = Math.max(tMin, Math.min(t0, t1));
+            tMax = Math.min(tMax, Math.max(t0, t1));
+            if(tMin > tMax)
+            {
+                return Float.NaN;
+            }
+        }
+        return tMin;
+    }
+
+    /**
+     * Finds all the boxes the ray goes through between two distances. Pass infinite distances
+     * to test a line.
+     *
+     * @return the number of boxes found, see {@link #getHit(int)}.
+     */
+    public int intersect(float ox, float oy, float oz, float dx, float dy, float dz,
+                         float tMin, float tMax)
+    {
+        if(nodeTotal == 0)
+        {
+            return 0;
+        }
+        setRay(ox, oy, oz, dx, dy, dz);
+        int count = 0;
+        int top = 0;
+        stack[top++] = 0;
+        while(top > 0)
+        {
+            int node = stack[--top];
+            if(Float.isNaN(enter(nodeBounds, node * 6, tMin, tMax)))
+            {
+                continue;
+            }
+            if(nodeCount[node] == 0)
+            {
+                stack[top++] = nodeStart[node];
+                stack[top++] = node + 1;
+                continue;
+            }
+            for(int i = nodeStart[node]; i < nodeStart[node] + nodeCount[node]; i++)
+            {
+                int item = items[i];
+                if(!Float.isNaN(enter(boxes, item * 6, tMin, tMax)))
+                {
+                    if(count == hits.length)
+                    {
+                        hits = Arrays.copyOf(hits, count * 2);
+                    }
+                    hits[count++] = item;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param i Index of the hit, below the count returned by the last
+     *          {@link #intersect(float, float, float, float, float, float, float, float)}.
+     * @return index of the box in the array the tree was built from.
+     */
+    public int getHit(int i) {
+        return hits[i];
+    }
+
+    /**
+     * Finds the nearest item in front of the ray origin. Nodes are visited nearest first, and
+     * nodes behind the best hit so far are skipped.
+     *
+     * @param tMax  Maximum distance.
+     * @param exact Test of the items whose boxes are hit, null to use the boxes.
+     * @return index of the nearest item, -1 if none is hit. Its distance is kept in
+     * {@link #getDistance()}.
+     */
+    public int raycast(float ox, float oy, float oz, float dx, float dy, float dz, float tMax,
+                       Intersector exact)
+    {
+        distance = Float.NaN;
+        if(nodeTotal == 0)
+        {
+            return -1;
+        }
+        setRay(ox, oy, oz, dx, dy, dz);
+        int best = -1;
+        float bestDistance = tMax;
+        int top = 0;
+        stack[top++] = 0;
+        while(top > 0)
+        {
+            int node = stack[--top];
+            if(Float.isNaN(enter(nodeBounds, node * 6, 0f, bestDistance)))
+            {
+                continue;
+            }
+            if(nodeCount[node] == 0)
+            {
+                int near = node + 1;
+                int far = nodeStart[node];
+                float nearEnter = enter(nodeBounds, near * 6, 0f, bestDistance);
+                float farEnter = enter(nodeBounds, far * 6, 0f, bestDistance);
+                if(Float.isNaN(nearEnter) || (!Float.isNaN(farEnter) && farEnter < nearEnter))
+                {
+                    int swap = near;
+                    near = far;
+                    far = swap;
+                }
+                // Popped first, the far one is tested again against the best hit then.
+                stack[top++] = far;
+                stack[top++] = near;
+                continue;
+            }
+            for(int i = nodeStart[node]; i < nodeStart[node] + nodeCount[node]; i++)
+            {
+                int item = items[i];
+                float t = enter(boxes, item * 6, 0f, bestDistance);
+                if(Float.isNaN(t))
+                {
+                    continue;
+                }
+                if(exact != null)
+                {
+                    t = exact.intersect(item);
+                    if(!(t >= 0f && t <= bestDistance))
+                    {
+                        continue;
+                    }
+                }
+                best = item;
+                bestDistance = t;
+            }
+        }
+        if(best != -1)
+        {
+            distance = bestDistance;
+        }
+        return best;
+    }
+
+    /**
+     * @return the distance of the item found by the last
+     * {@link #raycast(float, float, float, float, float, float, float, Intersector)}, NaN if
+     * there was none.
+     */
+    public float getDistance() {
+        return distance;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public int getNodeCount() {
+        return nodeTotal;
+    }
+}
@@ -0,0 +1,69 @@
+package com.karacasoft.cardboardui.render;
+
+/**
+ * The six planes of a view frustum, used to skip views that can't be seen.
+ *
+ * <p>The planes are extracted from a view-projection matrix, so the frustum is in the same
+ * space as the points the matrix is applied to (world space for projection * view).</p>
+ */
+public class Frustum {
+
+    private static final int PLANE_COUNT = 6;
+
+    /** a, b, c, d for each plane. A point p is inside the plane if a*x + b*y + c*z + d >= 0. */
+    private final float[] planes = new float[PLANE_COUNT * 4];
+
+    /**
+     * Extracts the planes from a column major matrix, like the ones built by
+     * {@link android.opengl.Matrix}.
+     *
+     * @param m      View-projection matrix.
+     * @param offset Offset of the matrix in the array.
+     */
+    public void set(float[] m, int offset)
+    {
+        for(int i = 0; i < 3; i++)
+        {
+            // Left/bottom/near: row 3 + row i, right/top/far: row 3 - row i.
+            setPlane(i * 2, m, offset, i, 1f);
+            setPlane(i * 2 + 1, m, offset, i, -1f);
+        }
+    }
+
+    private void setPlane(int plane, float[] m, int offset, int row, float sign)
+    {
+        int p = plane * 4;
+        planes[p] = m[offset + 3] + sign * m[offset + row];
+        planes[p + 1] = m[offset + 7] + sign * m[offset + 4 + row];
+        planes[p + 2] = m[offset + 11] + sign * m[offset + 8 + row];
+        planes[p + 3] = m[offset + 15] + sign * m[offset + 12 + row];
+    }
+
+    /**
+     * Tests an axis aligned box against the frustum. Boxes near the corners of the frustum
+     * may be reported as visible even if they are not, which is fine for culling.
+     *
+     * @param bounds Box as minX, minY, minZ, maxX, maxY, maxZ.
+     * @param offset Offset of the box in the array.
+     * @return false if the box is completely outside of the frustum.
+     */
+    public boolean intersects(float[] bounds, int offset)
+    {
+        for(int i = 0; i < PLANE_COUNT; i++)
+        {
+            int p = i * 4;
+            float a = planes[p];
+            float b = planes[p + 1];
+            float c = planes[p + 2];
+            // The corner of the box that is the furthest along the plane normal.
+            float x = a >= 0f ? bounds[offset + 3] : bounds[offset];
+            float y = b >= 0f ? bounds[offset + 4] : bounds[offset + 1];
+            float z = c >= 0f ? bounds[offset + 5] : bounds[offset + 2];
+            if(a * x + b * y + c * z + planes[p + 3] < 0f)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,618 @@
+package com.karacasoft.cardboardui.render;
+
+import android.annotation.TargetApi;
+import android.graphics.Color;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.Matrix;
+import android.os.Build;
+
+import com.google.vrtoolkit.cardboard.Eye;
+import com.karacasoft.cardboardui.CardboardUIActivity;
+import com.karacasoft.cardboardui.Util;
+import com.karacasoft.cardboardui.gl.GLState;
+import com.karacasoft.cardboardui.gl.ShaderProgram;
+import com.karacasoft.cardboardui.gl.ShaderVariants;
+import com.karacasoft.cardboardui.texture.TextureRegion;
+import com.karacasoft.cardboardui.view.View3D;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Draws many flat views with a few draw calls.
+ *
+ * <p>While the batch is active (between {@link #begin(Eye)} and {@link #end()}), views that use
+ * the shared quad are not drawn one by one. They are collected and drawn at once when the
+ * texture changes, when the batch is full, or when a view that can't be batched has to be
+ * drawn in between.</p>
+ *
+ * <p>There are three ways to draw the collected quads, see {@link #setMode(int)}:</p>
+ * <ul>
+ *     <li>{@link #MODE_CPU}: the four corners of each quad are transformed into world space on
+ *     the CPU and streamed into a vertex buffer. Works everywhere.</li>
+ *     <li>{@link #MODE_INSTANCED}: GLES 3.0 instancing. Only the model matrix and the texture
+ *     rectangle of each quad are streamed, as per-instance attributes.</li>
+ *     <li>{@link #MODE_UNIFORM_ARRAY}: GLES 2.0 pseudo-instancing. The model matrices and
+ *     texture rectangles are sent as uniform arrays, and up to
+ *     {@link Util#UNIFORM_ARRAY_INSTANCES} quads are drawn from a static buffer whose vertices
+ *     know the index of their quad.</li>
+ * </ul>
+ * <p>{@link #MODE_AUTO}, the default, picks instancing on GLES 3.0 contexts from API 18 on and
+ * uniform arrays otherwise.</p>
+ *
+ * <p>Quads with a {@link ShaderVariants#BORDER} are batched with the instancing modes, their
+ * outline is drawn from the model matrix. The CPU mode only batches quads without one. The
+ * batch is drawn when the border changes, quads with the same border style are usually next
+ * to each other in the {@link RenderQueue}.</p>
+ *
+ * <p>The number of draw calls issued for each eye can be read with
+ * {@link #getBatchCount(int)}.</p>
+ */
+public class QuadBatch {
+
+    public static final int MAX_QUADS = 256;
+
+    public static final int MODE_AUTO = 0;
+    public static final int MODE_CPU = 1;
+    public static final int MODE_INSTANCED = 2;
+    public static final int MODE_UNIFORM_ARRAY = 3;
+
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int BYTES_PER_SHORT = 2;
+
+    private static final int POSITION_SIZE = 3;
+    private static final int COLOR_SIZE = 4;
+    private static final int NORMAL_SIZE = 3;
+    private static final int TEXTURE_SIZE = 2;
+    private static final int VERTEX_SIZE = POSITION_SIZE + COLOR_SIZE + NORMAL_SIZE + TEXTURE_SIZE;
+    private static final int STRIDE = VERTEX_SIZE * BYTES_PER_FLOAT;
+
+    private static final int COLOR_OFFSET = POSITION_SIZE * BYTES_PER_FLOAT;
+    private static final int NORMAL_OFFSET = COLOR_OFFSET + COLOR_SIZE * BYTES_PER_FLOAT;
+    private static final int TEXTURE_OFFSET = NORMAL_OFFSET + NORMAL_SIZE * BYTES_PER_FLOAT;
+
+    private static final int MATRIX_SIZE = 16;
+    private static final int RECT_SIZE = 4;
+
+    private static final int BUFFER_VERTICES = 0;
+    private static final int BUFFER_INDICES = 1;
+    private static final int BUFFER_INSTANCES = 2;
+    private static final int BUFFER_QUADS = 3;
+    private static final int BUFFER_COUNT = 4;
+
+    private final CardboardUIActivity context;
+
+    private final float[] vertices = new float[MAX_QUADS * 4 * VERTEX_SIZE];
+    private final float[] models = new float[MAX_QUADS * MATRIX_SIZE];
+    private final float[] rects = new float[MAX_QUADS * RECT_SIZE];
+    private final FloatBuffer vertexBuffer;
+    private final ShortBuffer indexBuffer;
+
+    private final int[] bufferHandles = new int[BUFFER_COUNT];
+    private int contextGeneration = -1;
+
+    private int mode = MODE_AUTO;
+    private int activeMode = MODE_CPU;
+    // Programs without and with the border, created when first used.
+    private final int[] programHandles = new int[2];
+    private final int[] mvpMatrixHandles = new int[2];
+    private final int[] textureHandles = new int[2];
+    private final int[] modelsHandles = new int[2];
+    private final int[] texRectsHandles = new int[2];
+    private final int[] borderHandles = new int[2];
+    private final int[] borderColorHandles = new int[2];
+
+    private final float[] mMVPMatrix = new float[16];
+
+    private int quadCount = 0;
+    private int currentTexture = -1;
+    private boolean currentBorder = false;
+    private int borderColor;
+    private float borderRadius;
+    private float borderWidth;
+
+    private float u0;
+    private float v0;
+    private float u1;
+    private float v1;
+
+    private boolean active = false;
+    private boolean enabled = true;
+
+    private int eyeType;
+    private int batchCount = 0;
+    private final int[] batchCounts = new int[3];
+
+    public QuadBatch(CardboardUIActivity context)
+    {
+        this.context = context;
+
+        vertexBuffer = ByteBuffer.allocateDirect(vertices.length * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+        indexBuffer = ByteBuffer.allocateDirect(MAX_QUADS * 6 * BYTES_PER_SHORT)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        for(int i = 0; i < MAX_QUADS; i++)
+        {
+            short first = (short) (i * 4);
+            indexBuffer.put(first);
+            indexBuffer.put((short) (first + 1));
+            indexBuffer.put((short) (first + 2));
+            indexBuffer.put((short) (first + 2));
+            indexBuffer.put((short) (first + 1));
+            indexBuffer.put((short) (first + 3));
+        }
+        indexBuffer.flip();
+    }
+
+    /**
+     * Starts collecting views for the given eye. Views drawn with {@link View3D#draw(Eye)}
+     * after this call are added to the batch if they can be batched.
+     *
+     * @param eye The eye being drawn.
+     */
+    public void begin(Eye eye)
+    {
+        eyeType = eye.getType();
+        batchCount = 0;
+        quadCount = 0;
+        currentTexture = -1;
+        currentBorder = false;
+        active = enabled;
+        if(active)
+        {
+            prepare(context.getGLState());
+        }
+    }
+
+    /**
+     * Adds a view which uses the shared quad to the batch.
+     *
+     * @param v      The view. Its texture and border are read immediately.
+     * @param m      Draw matrix of the view.
+     * @param offset Offset of the matrix in the array.
+     * @return false if the view can't be batched in the current mode, it must be drawn alone.
+     */
+    public boolean add(View3D v, float[] m, int offset)
+    {
+        boolean border = (ShaderVariants.normalize(v.getShaderFlags()) & ShaderVariants.BORDER) != 0;
+        if(border && activeMode == MODE_CPU)
+        {
+            return false;
+        }
+        int texture = v.getTextureHandle() != -1 ? v.getTextureHandle() : Util.getEmptyTexture();
+        if(quadCount > 0 && (texture != currentTexture || quadCount == MAX_QUADS
+                || border != currentBorder || (border && !isCurrentBorder(v))))
+        {
+            flush();
+        }
+        currentTexture = texture;
+        currentBorder = border;
+        if(border)
+        {
+            borderColor = v.getBorderColor();
+            borderRadius = v.getBorderRadius();
+            borderWidth = v.getBorderWidth();
+        }
+
+        TextureRegion region = v.getTextureRegion();
+        if(region != null)
+        {
+            u0 = region.getU0();
+            v0 = region.getV0();
+            u1 = region.getU1();
+            v1 = region.getV1();
+        }else{
+            u0 = 0f;
+            v0 = 0f;
+            u1 = 1f;
+            v1 = 1f;
+        }
+
+        if(activeMode != MODE_CPU)
+        {
+            System.arraycopy(m, offset, models, quadCount * MATRIX_SIZE, MATRIX_SIZE);
+            int r = quadCount * RECT_SIZE;
+            rects[r] = u0;
+            rects[r + 1] = v0;
+            rects[r + 2] = u1 - u0;
+            rects[r + 3] = v1 - v0;
+            quadCount++;
+            return true;
+        }
+
+        float nx = m[offset + 8];
+        float ny = m[offset + 9];
+        float nz = m[offset + 10];
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if(length > 0f)
+        {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+        }
+
+        int index = quadCount * 4 * VERTEX_SIZE;
+        index = putVertex(index, m, offset, 0f, 0f, nx, ny, nz);
+        index = putVertex(index, m, offset, 0f, 1f, nx, ny, nz);
+        index = putVertex(index, m, offset, 1f, 0f, nx, ny, nz);
+        putVertex(index, m, offset, 1f, 1f, nx, ny, nz);
+        quadCount++;
+        return true;
+    }
+
+    private boolean isCurrentBorder(View3D v)
+    {
+        return v.getBorderColor() == borderColor && v.getBorderRadius() == borderRadius
+                && v.getBorderWidth() == borderWidth;
+    }
+
+    private int putVertex(int offset, float[] m, int mOffset, float x, float y, float nx, float ny, float nz)
+    {
+        vertices[offset++] = m[mOffset] * x + m[mOffset + 4] * y + m[mOffset + 12];
+        vertices[offset++] = m[mOffset + 1] * x + m[mOffset + 5] * y + m[mOffset + 13];
+        vertices[offset++] = m[mOffset + 2] * x + m[mOffset + 6] * y + m[mOffset + 14];
+
+        vertices[offset++] = 0.0f;
+        vertices[offset++] = 0.0f;
+        vertices[offset++] = 0.0f;
+        vertices[offset++] = 1.0f;
+
+        vertices[offset++] = nx;
+        vertices[offset++] = ny;
+        vertices[offset++] = nz;
+
+        vertices[offset++] = u0 + x * (u1 - u0);
+        vertices[offset++] = v0 + (1.0f - y) * (v1 - v0);
+        return offset;
+    }
+
+    /**
+     * Creates the buffers and the program of the mode for the current context, if needed.
+     */
+    private void prepare(GLState state)
+    {
+        if(contextGeneration != state.getContextGeneration())
+        {
+            // Buffers and programs died with the old context.
+            for(int i = 0; i < BUFFER_COUNT; i++)
+            {
+                bufferHandles[i] = 0;
+            }
+            programHandles[0] = 0;
+            programHandles[1] = 0;
+            contextGeneration = state.getContextGeneration();
+        }
+        if(bufferHandles[BUFFER_VERTICES] != 0)
+        {
+            return;
+        }
+
+        GLES20.glGenBuffers(BUFFER_COUNT, bufferHandles, 0);
+        state.getErrorPolicy().checkCall("glGenBuffers");
+        state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, bufferHandles[BUFFER_INDICES]);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer.limit() * BYTES_PER_SHORT,
+                indexBuffer, GLES20.GL_STATIC_DRAW);
+        state.getErrorPolicy().checkCall("glBufferData");
+
+        activeMode = mode;
+        if(activeMode == MODE_AUTO || (activeMode == MODE_INSTANCED && !canInstance(state)))
+        {
+            activeMode = canInstance(state) ? MODE_INSTANCED : MODE_UNIFORM_ARRAY;
+        }
+        if(activeMode == MODE_CPU)
+        {
+            return;
+        }
+
+        // Corners of the shared quad, z is the index of the quad for the uniform array shader.
+        int quads = Util.UNIFORM_ARRAY_INSTANCES;
+        FloatBuffer corners = ByteBuffer.allocateDirect(quads * 4 * POSITION_SIZE * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for(int i = 0; i < quads; i++)
+        {
+            corners.put(0f).put(0f).put(i);
+            corners.put(0f).put(1f).put(i);
+            corners.put(1f).put(0f).put(i);
+            corners.put(1f).put(1f).put(i);
+        }
+        corners.flip();
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, bufferHandles[BUFFER_QUADS]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, corners.limit() * BYTES_PER_FLOAT,
+                corners, GLES20.GL_STATIC_DRAW);
+        state.getErrorPolicy().checkCall("glBufferData");
+    }
+
+    /**
+     * @param variant 1 for the program with the border, 0 for the one without.
+     * @return the program of the instancing mode, created if it wasn't used on this context.
+     */
+    private int getProgram(int variant)
+    {
+        int handle = programHandles[variant];
+        if(handle == 0)
+        {
+            handle = Util.createQuadBatchProgram(activeMode == MODE_INSTANCED, variant == 1);
+            programHandles[variant] = handle;
+            mvpMatrixHandles[variant] = GLES20.glGetUniformLocation(handle, "u_MVPMatrix");
+            textureHandles[variant] = GLES20.glGetUniformLocation(handle, "u_Texture");
+            modelsHandles[variant] = GLES20.glGetUniformLocation(handle, "u_Models");
+            texRectsHandles[variant] = GLES20.glGetUniformLocation(handle, "u_TexRects");
+            borderHandles[variant] = GLES20.glGetUniformLocation(handle, "u_Border");
+            borderColorHandles[variant] = GLES20.glGetUniformLocation(handle, "u_BorderColor");
+        }
+        return handle;
+    }
+
+    /**
+     * Draws the collected quads, if there are any. Called by views that can't be batched
+     * before they draw themselves, so the drawing order of the depth buffer stays correct.
+     */
+    public void flush()
+    {
+        if(quadCount == 0)
+        {
+            return;
+        }
+        GLState state = context.getGLState();
+        prepare(state);
+
+        if(activeMode == MODE_CPU)
+        {
+            ShaderProgram program = context.getShaderVariants().get(ShaderVariants.TEXTURED);
+            state.useProgram(program.getHandle());
+            setUniforms(state, program.getMVPMatrixHandle(), program.getTextureHandle());
+            // Texture coordinates are already mapped to the atlas regions.
+            state.uniform4f(program.getTexRectHandle(), 0f, 0f, 1f, 1f);
+            drawVertices(state);
+        }else{
+            int variant = currentBorder ? 1 : 0;
+            state.useProgram(getProgram(variant));
+            setUniforms(state, mvpMatrixHandles[variant], textureHandles[variant]);
+            if(currentBorder)
+            {
+                state.uniform2f(borderHandles[variant], borderRadius, borderWidth);
+                state.uniform4f(borderColorHandles[variant], Color.red(borderColor) / 255f,
+                        Color.green(borderColor) / 255f, Color.blue(borderColor) / 255f,
+                        Color.alpha(borderColor) / 255f);
+            }
+            if(activeMode == MODE_INSTANCED)
+            {
+                drawInstanced(state);
+            }else{
+                drawUniformArrays(state, modelsHandles[variant], texRectsHandles[variant]);
+            }
+        }
+
+        quadCount = 0;
+    }
+
+    private void setUniforms(GLState state, int mvpHandle, int samplerHandle)
+    {
+        // Quads are in world space or carry their own model matrix. They are not lit, the
+        // shared quad has black vertex colors.
+        Matrix.multiplyMM(mMVPMatrix, 0, context.getProjectionMatrix(), 0, context.getViewMatrix(), 0);
+        state.uniformMatrix4fv(mvpHandle, mMVPMatrix, 0);
+
+        state.bindTexture(0, currentTexture);
+        state.uniform1i(samplerHandle, 0);
+    }
+
+    private void drawVertices(GLState state)
+    {
+        int floatCount = quadCount * 4 * VERTEX_SIZE;
+        vertexBuffer.clear();
+        vertexBuffer.put(vertices, 0, floatCount).flip();
+
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, bufferHandles[BUFFER_VERTICES]);
+        // Orphan the previous contents, so the driver doesn't wait for the last draw.
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.length * BYTES_PER_FLOAT, null, GLES20.GL_STREAM_DRAW);
+        state.getErrorPolicy().checkCall("glBufferData");
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, floatCount * BYTES_PER_FLOAT, vertexBuffer);
+        state.getErrorPolicy().checkCall("glBufferSubData");
+
+        GLES20.glVertexAttribPointer(Util.ATTRIBUTE_POSITION, POSITION_SIZE, GLES20.GL_FLOAT, false, STRIDE, 0);
+        state.getErrorPolicy().checkCall("glVertexAttribPointer");
+        state.enableVertexAttribArray(Util.ATTRIBUTE_POSITION);
+        GLES20.glVertexAttribPointer(Util.ATTRIBUTE_COLOR, COLOR_SIZE, GLES20.GL_FLOAT, false, STRIDE, COLOR_OFFSET);
+        state.getErrorPolicy().checkCall("glVertexAttribPointer");
+        state.enableVertexAttribArray(Util.ATTRIBUTE_COLOR);
+        GLES20.glVertexAttribPointer(Util.ATTRIBUTE_NORMAL, NORMAL_SIZE, GLES20.GL_FLOAT, false, STRIDE, NORMAL_OFFSET);
+        state.getErrorPolicy().checkCall("glVertexAttribPointer");
+        state.enableVertexAttribArray(Util.ATTRIBUTE_NORMAL);
+        GLES20.glVertexAttribPointer(Util.ATTRIBUTE_TEXTURE, TEXTURE_SIZE, GLES20.GL_FLOAT, false, STRIDE, TEXTURE_OFFSET);
+        state.getErrorPolicy().checkCall("glVertexAttribPointer");
+        state.enableVertexAttribArray(Util.ATTRIBUTE_TEXTURE);
+
+        state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, bufferHandles[BUFFER_INDICES]);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, quadCount * 6, GLES20.GL_UNSIGNED_SHORT, 0);
+        state.getErrorPolicy().checkCall("glDrawElements");
+        batchCount++;
+    }
+
+    private void bindCorners(GLState state)
+    {
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, bufferHandles[BUFFER_QUADS]);
+        GLES20.glVertexAttribPointer(Util.ATTRIBUTE_POSITION, POSITION_SIZE, GLES20.GL_FLOAT, false, 0, 0);
+        state.getErrorPolicy().checkCall("glVertexAttribPointer");
+        state.enableVertexAttribArray(Util.ATTRIBUTE_POSITION);
+        state.disableVertexAttribArray(Util.ATTRIBUTE_COLOR);
+        state.disableVertexAttribArray(Util.ATTRIBUTE_NORMAL);
+        state.disableVertexAttribArray(Util.ATTRIBUTE_TEXTURE);
+        state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, bufferHandles[BUFFER_INDICES]);
+    }
+
+    /**
+     * Instancing needs a GLES 3.0 context and the GLES30 bindings of API 18.
+     */
+    private static boolean canInstance(GLState state)
+    {
+        return state.getMajorVersion() >= 3 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void drawInstanced(GLState state)
+    {
+        int modelBytes = quadCount * MATRIX_SIZE * BYTES_PER_FLOAT;
+        int rectBytes = quadCount * RECT_SIZE * BYTES_PER_FLOAT;
+
+        // Matrices first, then the rectangles, in one streamed buffer.
+        vertexBuffer.clear();
+        vertexBuffer.put(models, 0, quadCount * MATRIX_SIZE);
+        vertexBuffer.put(rects, 0, quadCount * RECT_SIZE).flip();
+
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, bufferHandles[BUFFER_INSTANCES]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, (models.length + rects.length) * BYTES_PER_FLOAT,
+                null, GLES20.GL_STREAM_DRAW);
+        state.getErrorPolicy().checkCall("glBufferData");
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, modelBytes + rectBytes, vertexBuffer);
+        state.getErrorPolicy().checkCall("glBufferSubData");
+
+        // A mat4 attribute takes four locations, one per column.
+        for(int i = 0; i < 4; i++)
+        {
+            int attribute = Util.ATTRIBUTE_MODEL + i;
+            GLES20.glVertexAttribPointer(attribute, 4, GLES20.GL_FLOAT, false,
+                    MATRIX_SIZE * BYTES_PER_FLOAT, i * 4 * BYTES_PER_FLOAT);
+            state.getErrorPolicy().checkCall("glVertexAttribPointer");
+            GLES30.glVertexAttribDivisor(attribute, 1);
+            state.getErrorPolicy().checkCall("glVertexAttribDivisor");
+            state.enableVertexAttribArray(attribute);
+        }
+        GLES20.glVertexAttribPointer(Util.ATTRIBUTE_TEX_RECT, RECT_SIZE, GLES20.GL_FLOAT, false, 0, modelBytes);
+        state.getErrorPolicy().checkCall("glVertexAttribPointer");
+        GLES30.glVertexAttribDivisor(Util.ATTRIBUTE_TEX_RECT, 1);
+        state.getErrorPolicy().checkCall("glVertexAttribDivisor");
+        state.enableVertexAttribArray(Util.ATTRIBUTE_TEX_RECT);
+
+        bindCorners(state);
+        GLES30.glDrawElementsInstanced(GLES20.GL_TRIANGLES, 6, GLES20.GL_UNSIGNED_SHORT, 0, quadCount);
+        state.getErrorPolicy().checkCall("glDrawElementsInstanced");
+        batchCount++;
+
+        // The other programs don't read these, they must not stay enabled. The divisor is part
+        // of the attribute state too, a later program binding these locations would step them
+        // once per instance.
+        for(int i = Util.ATTRIBUTE_MODEL; i <= Util.ATTRIBUTE_TEX_RECT; i++)
+        {
+            GLES30.glVertexAttribDivisor(i, 0);
+            state.getErrorPolicy().checkCall("glVertexAttribDivisor");
+            state.disableVertexAttribArray(i);
+        }
+    }
+
+    private void drawUniformArrays(GLState state, int modelsHandle, int texRectsHandle)
+    {
+        bindCorners(state);
+        int perCall = Util.UNIFORM_ARRAY_INSTANCES;
+        for(int first = 0; first < quadCount; first += perCall)
+        {
+            int count = Math.min(perCall, quadCount - first);
+            state.uniformMatrix4fv(modelsHandle, count, models, first * MATRIX_SIZE);
+            state.uniform4fv(texRectsHandle, count, rects, first * RECT_SIZE);
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, count * 6, GLES20.GL_UNSIGNED_SHORT, 0);
+            state.getErrorPolicy().checkCall("glDrawElements");
+            batchCount++;
+        }
+    }
+
+    /**
+     * Draws the remaining quads and stops batching.
+     */
+    public void end()
+    {
+        flush();
+        active = false;
+        if(eyeType >= 0 && eyeType < batchCounts.length)
+        {
+            batchCounts[eyeType] = batchCount;
+        }
+    }
+
+    /**
+     * Deletes the GL buffers and the program. They will be created again if the batch is used
+     * after this. Must be called on the GL thread.
+     */
+    public void release()
+    {
+        GLState state = context.getGLState();
+        if(contextGeneration == state.getContextGeneration())
+        {
+            if(bufferHandles[BUFFER_VERTICES] != 0)
+            {
+                state.deleteBuffers(BUFFER_COUNT, bufferHandles, 0);
+            }
+            for(int programHandle : programHandles)
+            {
+                if(programHandle != 0)
+                {
+                    GLES20.glDeleteProgram(programHandle);
+                    state.getErrorPolicy().checkCall("glDeleteProgram");
+                    state.invalidateProgram(programHandle);
+                }
+            }
+        }
+        for(int i = 0; i < BUFFER_COUNT; i++)
+        {
+            bufferHandles[i] = 0;
+        }
+        programHandles[0] = 0;
+        programHandles[1] = 0;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables batching. When disabled, every view is drawn with its own draw call.
+     *
+     * @param enabled true to batch flat views.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the mode used for drawing. Only meaningful once the batch has been used.
+     */
+    public int getActiveMode() {
+        return activeMode;
+    }
+
+    /**
+     * Chooses how the quads are drawn. {@link #MODE_INSTANCED} falls back to
+     * {@link #MODE_UNIFORM_ARRAY} on GLES 2.0 contexts and before API 18. Must be called on the
+     * GL thread.
+     *
+     * @param mode One of the MODE_ constants.
+     */
+    public void setMode(int mode) {
+        if(this.mode == mode)
+        {
+            return;
+        }
+        flush();
+        release();
+        this.mode = mode;
+    }
+
+    /**
+     * @param eyeType One of {@link Eye.Type} values.
+     * @return the number of batches drawn for that eye on the last frame.
+     */
+    public int getBatchCount(int eyeType) {
+        return batchCounts[eyeType];
+    }
+}
@@ -0,0 +1,231 @@
+package com.karacasoft.cardboardui.render;
+
+import java.util.Arrays;
+
+/**
+ * Finds the nearest item a ray hits.
+ *
+ * <p>Items are boxes in their own space, placed in the world by an affine matrix. Their world
+ * bounds are kept in a {@link BoundsTree}, and the items whose bounds the ray crosses are
+ * tested exactly, with the ray moved into their own space. Rotated and scaled items are hit
+ * where they are, not where their bounds are.</p>
+ *
+ * <p>Items are added in layers. The nearest item of {@link #LAYER_VIEW} is hit first, items of
+ * {@link #LAYER_CONTAINER} are only hit where no view is, so a container doesn't hide the
+ * views it holds. The math is plain Java, matrices are column-major like
+ * {@link android.opengl.Matrix}.</p>
+ */
+public class RayPicker {
+
+    /** Never hit. */
+    public static final int LAYER_NONE = -1;
+    public static final int LAYER_VIEW = 0;
+    public static final int LAYER_CONTAINER = 1;
+
+    private static final int LAYER_COUNT = 2;
+
+    private final BoundsTree tree = new BoundsTree();
+
+    private float[] bounds = new float[64 * 6];
+    private float[] matrices = new float[64 * 16];
+    private float[] localBounds = new float[64 * 6];
+    private int[] layers = new int[64];
+    private int count = 0;
+    private int treeCount = 0;
+    private int buildCount = 0;
+
+    private final float[] inverseView = new float[16];
+    private final float[] inverseModel = new float[16];
+    private final float[] rayOrigin = new float[3];
+    private final float[] rayDirection = new float[3];
+    private final float[] localOrigin = new float[3];
+    private final float[] localDirection = new float[3];
+    private int pickLayer = LAYER_VIEW;
+
+    private float hitDistance = Float.NaN;
+    private final float[] hitPoint = new float[3];
+
+    private final BoundsTree.Intersector exactTest = new BoundsTree.Intersector() {
+        @Override
+        public float intersect(int item) {
+            if(layers[item] != pickLayer || !invertAffine(matrices, item * 16, inverseModel))
+            {
+                return Float.NaN;
+            }
+            // The distance along the ray is the same in the space of the item.
+            transform(inverseModel, rayOrigin, 1f, localOrigin);
+            transform(inverseModel, rayDirection, 0f, localDirection);
+            return BoundsTree.intersectBox(localOrigin, localDirection, localBounds, item * 6,
+                    0f, Float.POSITIVE_INFINITY);
+        }
+    };
+
+    /**
+     * Starts adding the items of a frame.
+     */
+    public void begin()
+    {
+        count = 0;
+    }
+
+    /**
+     * Adds an item. The arrays are copied.
+     *
+     * @param worldBounds Box around the item in world space, minX, minY, minZ, maxX, maxY, maxZ.
+     * @param matrix      Affine matrix from the space of the item to world space.
+     * @param box         Box of the item in its own space, the exact test uses it.
+     * @param layer       One of LAYER_VIEW, LAYER_CONTAINER and LAYER_NONE.
+     * @return index of the item, the one {@link #pick(float[])} returns.
+     */
+    public int add(float[] worldBounds, float[] matrix, float[] box, int layer)
+    {
+        int index = count;
+        if(index == layers.length)
+        {
+            layers = Arrays.copyOf(layers, index * 2);
+            bounds = Arrays.copyOf(bounds, index * 2 * 6);
+            matrices = Arrays.copyOf(matrices, index * 2 * 16);
+            localBounds = Arrays.copyOf(localBounds, index * 2 * 6);
+        }
+        System.arraycopy(worldBounds, 0, bounds, index * 6, 6);
+        System.arraycopy(matrix, 0, matrices, index * 16, 16);
+        System.arraycopy(box, 0, localBounds, index * 6, 6);
+        layers[index] = layer;
+        count++;
+        return index;
+    }
+
+    /**
+     * Updates the tree with the items added since {@link #begin()}.
+     *
+     * @param rebuild true if items came, went or changed order since the last call. The tree
+     *                is built again then, otherwise it is only refitted to the new bounds.
+     */
+    public void finish(boolean rebuild)
+    {
+        if(rebuild || count != treeCount)
+        {
+            treeCount = count;
+            tree.build(bounds, treeCount);
+            buildCount++;
+            return;
+        }
+        tree.refit(bounds);
+        if(tree.needsRebuild())
+        {
+            tree.build(bounds, treeCount);
+            buildCount++;
+        }
+    }
+
+    /**
+     * Casts the gaze ray, which starts at the eye and goes down the -z axis of the view matrix.
+     *
+     * @param viewMatrix Affine matrix from world space to eye space.
+     * @return index of the nearest item hit, -1 if there is none.
+     */
+    public int pick(float[] viewMatrix)
+    {
+        hitDistance = Float.NaN;
+        if(!invertAffine(viewMatrix, 0, inverseView))
+        {
+            return -1;
+        }
+        for(int axis = 0; axis < 3; axis++)
+        {
+            rayOrigin[axis] = inverseView[12 + axis];
+            rayDirection[axis] = -inverseView[8 + axis];
+        }
+        for(int layer = 0; layer < LAYER_COUNT; layer++)
+        {
+            pickLayer = layer;
+            int item = tree.raycast(rayOrigin[0], rayOrigin[1], rayOrigin[2],
+                    rayDirection[0], rayDirection[1], rayDirection[2], Float.POSITIVE_INFINITY, exactTest);
+            if(item != -1)
+            {
+                hitDistance = tree.getDistance();
+                for(int axis = 0; axis < 3; axis++)
+                {
+                    hitPoint[axis] = rayOrigin[axis] + rayDirection[axis] * hitDistance;
+                }
+                return item;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inverts the affine matrix at the offset.
+     *
+     * @return false if it can't be inverted, out is left as it is then.
+     */
+    public static boolean invertAffine(float[] m, int offset, float[] out)
+    {
+        float a = m[offset], b = m[offset + 4], c = m[offset + 8];
+        float d = m[offset + 1], e = m[offset + 5], f = m[offset + 9];
+        float g = m[offset + 2], h = m[offset + 6], i = m[offset + 10];
+        float ei = e * i - f * h;
+        float fg = f * g - d * i;
+        float dh = d * h - e * g;
+        float det = a * ei + b * fg + c * dh;
+        if(det == 0f || Float.isNaN(det))
+        {
+            return false;
+        }
+        float s = 1f / det;
+        out[0] = ei * s;
+        out[1] = fg * s;
+        out[2] = dh * s;
+        out[3] = 0f;
+        out[4] = (c * h - b * i) * s;
+        out[5] = (a * i - c * g) * s;
+        out[6] = (b * g - a * h) * s;
+        out[7] = 0f;
+        out[8] = (b * f - c * e) * s;
+        out[9] = (c * d - a * f) * s;
+        out[10] = (a * e - b * d) * s;
+        out[11] = 0f;
+        float tx = m[offset + 12], ty = m[offset + 13], tz = m[offset + 14];
+        out[12] = -(out[0] * tx + out[4] * ty + out[8] * tz);
+        out[13] = -(out[1] * tx + out[5] * ty + out[9] * tz);
+        out[14] = -(out[2] * tx + out[6] * ty + out[10] * tz);
+        out[15] = 1f;
+        return true;
+    }
+
+    private static void transform(float[] m, float[] v, float w, float[] out)
+    {
+        for(int row = 0; row < 3; row++)
+        {
+            out[row] = m[row] * v[0] + m[4 + row] * v[1] + m[8 + row] * v[2] + m[12 + row] * w;
+        }
+    }
+
+    /**
+     * @return distance of the last hit from the eye, NaN if the last pick hit nothing.
+     */
+    public float getHitDistance() {
+        return hitDistance;
+    }
+
+    /**
+     * @return the world position of the last hit. Do not modify the array.
+     */
+    public float[] getHitPoint() {
+        return hitPoint;
+    }
+
+    /**
+     * @return the number of items in the tree.
+     */
+    public int getItemCount() {
+        return treeCount;
+    }
+
+    /**
+     * @return how many times the tree was built from scratch, refits don't count.
+     */
+    public int getBuildCount() {
+        return buildCount;
+    }
+}
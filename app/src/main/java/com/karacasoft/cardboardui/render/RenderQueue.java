@@ -0,0 +1,380 @@
+package com.karacasoft.cardboardui.render;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import com.google.vrtoolkit.cardboard.Eye;
+import com.karacasoft.cardboardui.CardboardUIActivity;
+import com.karacasoft.cardboardui.Util;
+import com.karacasoft.cardboardui.gl.GLState;
+import com.karacasoft.cardboardui.gl.ShaderVariants;
+import com.karacasoft.cardboardui.view.View3D;
+
+import java.util.Arrays;
+
+/**
+ * Collects the views to draw for a frame and draws them in a good order.
+ *
+ * <p>The queue is recorded once per frame, in
+ * {@link CardboardUIActivity#onNewFrame(com.google.vrtoolkit.cardboard.HeadTransform)}. Recording
+ * walks the views, copies their draw matrices and computes the sort keys with the view matrix
+ * of the frame, which doesn't depend on the eye. {@link #draw(Eye)} then only replays the
+ * sorted list with the view and projection matrices of each eye.</p>
+ *
+ * <p>Views are put into one of three passes, see {@link View3D#getRenderPass()}:</p>
+ * <ul>
+ *     <li>{@link #PASS_OPAQUE}: sorted by shader variant, then texture, then front to back,
+ *     drawn with depth writes and without blending. Views sharing a program and an atlas page
+ *     end up next to each other, so the {@link QuadBatch} can merge them, and near views fill
+ *     the depth buffer first.</li>
+ *     <li>{@link #PASS_TRANSPARENT}: sorted back to front, drawn with premultiplied alpha
+ *     blending and without depth writes.</li>
+ *     <li>{@link #PASS_OVERLAY}: drawn last in the order they were added, without depth test.
+ *     The targeting point of the activity is drawn after this pass.</li>
+ * </ul>
+ *
+ * <p>Every entry keeps the world bounds of its view. Before drawing, each eye tests them
+ * against its view frustum and skips the views that are outside. Containers put their
+ * children into a group with {@link #beginGroup()} and {@link #endGroup()}. The bounds of a
+ * group cover all of its entries, so a whole group outside the frustum costs one test.
+ * Groups can be nested.</p>
+ *
+ * <p>Each entry is sorted by a single long key, so sorting doesn't allocate. The key holds the
+ * sort fields of the pass in its high bits and the index of the view in its low 16 bits.</p>
+ */
+public class RenderQueue {
+
+    public static final int PASS_OPAQUE = 0;
+    public static final int PASS_TRANSPARENT = 1;
+    public static final int PASS_OVERLAY = 2;
+
+    private static final int PASS_COUNT = 3;
+
+    private static final int INDEX_BITS = 16;
+    private static final int MAX_ENTRIES = 1 << INDEX_BITS;
+    private static final long INDEX_MASK = MAX_ENTRIES - 1;
+
+    private static final int DEPTH_BITS = 24;
+    private static final long DEPTH_MAX = (1 << DEPTH_BITS) - 1;
+    // The texture gets the bits left by the index, the depth and the shader variant, the
+    // sign bit stays clear.
+    private static final int TEXTURE_BITS = 63 - INDEX_BITS - DEPTH_BITS - ShaderVariants.FLAG_BITS;
+    private static final long TEXTURE_MASK = (1 << TEXTURE_BITS) - 1;
+
+    private final CardboardUIActivity context;
+
+    private final View3D[][] views = new View3D[PASS_COUNT][];
+    private final long[][] keys = new long[PASS_COUNT][];
+    private final float[][] matrices = new float[PASS_COUNT][];
+    private final float[][] bounds = new float[PASS_COUNT][];
+    private final int[][] groups = new int[PASS_COUNT][];
+    private final int[] counts = new int[PASS_COUNT];
+
+    private float[] groupBounds = new float[16 * 6];
+    private int[] groupParents = new int[16];
+    private boolean[] groupCulled = new boolean[16];
+    private int groupCount = 0;
+    private int currentGroup = -1;
+
+    private final Frustum frustum = new Frustum();
+    private final float[] viewProjection = new float[16];
+    private boolean cullingEnabled = true;
+
+    private int drawnCount = 0;
+    private int culledCount = 0;
+    private final int[] culledCounts = new int[3];
+
+    public RenderQueue(CardboardUIActivity context)
+    {
+        this.context = context;
+        for(int i = 0; i < PASS_COUNT; i++)
+        {
+            views[i] = new View3D[64];
+            keys[i] = new long[64];
+            matrices[i] = new float[64 * 16];
+            bounds[i] = new float[64 * 6];
+            groups[i] = new int[64];
+        }
+    }
+
+    /**
+     * Removes all the views from the queue.
+     */
+    public void clear()
+    {
+        for(int i = 0; i < PASS_COUNT; i++)
+        {
+            Arrays.fill(views[i], 0, counts[i], null);
+            counts[i] = 0;
+        }
+        groupCount = 0;
+        currentGroup = -1;
+    }
+
+    /**
+     * Starts a group inside the current group. Views added until the matching
+     * {@link #endGroup()} belong to it.
+     */
+    public void beginGroup()
+    {
+        if(groupCount == groupParents.length)
+        {
+            groupParents = Arrays.copyOf(groupParents, groupCount * 2);
+            groupCulled = Arrays.copyOf(groupCulled, groupCount * 2);
+            groupBounds = Arrays.copyOf(groupBounds, groupCount * 2 * 6);
+        }
+        int g = groupCount++;
+        groupParents[g] = currentGroup;
+        setEmpty(groupBounds, g * 6);
+        currentGroup = g;
+    }
+
+    /**
+     * Ends the current group and adds its bounds to the bounds of its parent.
+     */
+    public void endGroup()
+    {
+        if(currentGroup == -1)
+        {
+            return;
+        }
+        int g = currentGroup;
+        currentGroup = groupParents[g];
+        if(currentGroup != -1)
+        {
+            include(groupBounds, currentGroup * 6, groupBounds, g * 6);
+        }
+    }
+
+    private static void setEmpty(float[] box, int offset)
+    {
+        for(int i = 0; i < 3; i++)
+        {
+            box[offset + i] = Float.POSITIVE_INFINITY;
+            box[offset + i + 3] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void include(float[] box, int offset, float[] other, int otherOffset)
+    {
+        for(int i = 0; i < 3; i++)
+        {
+            box[offset + i] = Math.min(box[offset + i], other[otherOffset + i]);
+            box[offset + i + 3] = Math.max(box[offset + i + 3], other[otherOffset + i + 3]);
+        }
+    }
+
+    /**
+     * Adds a view to the pass it asks for. The draw matrix of the view is copied, so the view
+     * is drawn where it was when it was added. The frame view matrix of the activity must be
+     * set up already, it is used to find the depth of the view.
+     *
+     * @param v The view. It will be drawn with {@link View3D#draw(Eye, float[], int)}.
+     */
+    public void add(View3D v)
+    {
+        int pass = v.getRenderPass();
+        int index = counts[pass];
+        if(index == MAX_ENTRIES)
+        {
+            return;
+        }
+        if(index == views[pass].length)
+        {
+            views[pass] = Arrays.copyOf(views[pass], Math.min(index * 2, MAX_ENTRIES));
+            keys[pass] = Arrays.copyOf(keys[pass], views[pass].length);
+            matrices[pass] = Arrays.copyOf(matrices[pass], views[pass].length * 16);
+            bounds[pass] = Arrays.copyOf(bounds[pass], views[pass].length * 6);
+            groups[pass] = Arrays.copyOf(groups[pass], views[pass].length);
+        }
+        float[] m = matrices[pass];
+        System.arraycopy(v.getDrawMatrix(), 0, m, index * 16, 16);
+        System.arraycopy(v.getWorldBounds(), 0, bounds[pass], index * 6, 6);
+        groups[pass][index] = currentGroup;
+        if(currentGroup != -1)
+        {
+            include(groupBounds, currentGroup * 6, bounds[pass], index * 6);
+        }
+
+        long key;
+        if(pass == PASS_OPAQUE)
+        {
+            int texture = v.getTextureHandle() != -1 ? v.getTextureHandle() : Util.getEmptyTexture();
+            long program = ShaderVariants.normalize(v.getShaderFlags());
+            key = (program << (TEXTURE_BITS + DEPTH_BITS))
+                    | ((texture & TEXTURE_MASK) << DEPTH_BITS) | quantizeDepth(v, m, index * 16);
+        }else if(pass == PASS_TRANSPARENT)
+        {
+            key = DEPTH_MAX - quantizeDepth(v, m, index * 16);
+        }else{
+            key = 0;
+        }
+        views[pass][index] = v;
+        keys[pass][index] = (key << INDEX_BITS) | index;
+        counts[pass]++;
+    }
+
+    /**
+     * @return the distance of the view center along the viewing direction, mapped to
+     * [0, DEPTH_MAX] between the near and far planes.
+     */
+    private long quantizeDepth(View3D v, float[] m, int offset)
+    {
+        float cx = m[offset + 12];
+        float cy = m[offset + 13];
+        float cz = m[offset + 14];
+        if(v.isUnitQuad())
+        {
+            cx += (m[offset] + m[offset + 4]) * 0.5f;
+            cy += (m[offset + 1] + m[offset + 5]) * 0.5f;
+            cz += (m[offset + 2] + m[offset + 6]) * 0.5f;
+        }
+        float[] view = context.getFrameViewMatrix();
+        float depth = -(view[2] * cx + view[6] * cy + view[10] * cz + view[14]);
+
+        float t = (depth - CardboardUIActivity.Z_NEAR) / (CardboardUIActivity.Z_FAR - CardboardUIActivity.Z_NEAR);
+        if(t <= 0f)
+        {
+            return 0;
+        }
+        if(t >= 1f)
+        {
+            return DEPTH_MAX;
+        }
+        return (long) (t * DEPTH_MAX);
+    }
+
+    /**
+     * Sorts the passes. Call once after recording, before the first {@link #draw(Eye)}.
+     */
+    public void sort()
+    {
+        for(int i = 0; i < PASS_COUNT; i++)
+        {
+            Arrays.sort(keys[i], 0, counts[i]);
+        }
+    }
+
+    /**
+     * Draws the three sorted passes, skipping the views outside the frustum of the eye.
+     * Leaves the GL state of the overlay pass behind (blending on, depth test off).
+     *
+     * @param eye The eye being drawn. The view and projection matrices of the activity must
+     *            be set up for it.
+     */
+    public void draw(Eye eye)
+    {
+        GLState state = context.getGLState();
+        QuadBatch batch = context.getQuadBatch();
+        drawnCount = 0;
+        culledCount = 0;
+
+        Matrix.multiplyMM(viewProjection, 0, context.getProjectionMatrix(), 0, context.getViewMatrix(), 0);
+        frustum.set(viewProjection, 0);
+        for(int g = 0; g < groupCount; g++)
+        {
+            // Parents are always created before their children.
+            int parent = groupParents[g];
+            groupCulled[g] = cullingEnabled && ((parent != -1 && groupCulled[parent])
+                    || !frustum.intersects(groupBounds, g * 6));
+        }
+
+        batch.begin(eye);
+
+        state.setDepthTest(true);
+        state.setDepthMask(true);
+        state.setBlend(false);
+        drawPass(PASS_OPAQUE, eye);
+        batch.flush();
+        context.getGLErrorPolicy().check("opaque pass");
+
+        state.setDepthMask(false);
+        state.setBlend(true);
+        state.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        drawPass(PASS_TRANSPARENT, eye);
+        batch.flush();
+        context.getGLErrorPolicy().check("transparent pass");
+
+        state.setDepthTest(false);
+        drawPass(PASS_OVERLAY, eye);
+
+        batch.end();
+        context.getGLErrorPolicy().check("overlay pass");
+        state.setDepthMask(true);
+
+        int eyeType = eye.getType();
+        if(eyeType >= 0 && eyeType < culledCounts.length)
+        {
+            culledCounts[eyeType] = culledCount;
+        }
+    }
+
+    private void drawPass(int pass, Eye eye)
+    {
+        View3D[] passViews = views[pass];
+        long[] passKeys = keys[pass];
+        float[] passMatrices = matrices[pass];
+        float[] passBounds = bounds[pass];
+        int[] passGroups = groups[pass];
+        for(int i = 0; i < counts[pass]; i++)
+        {
+            int index = (int) (passKeys[i] & INDEX_MASK);
+            if(cullingEnabled)
+            {
+                int group = passGroups[index];
+                if((group != -1 && groupCulled[group]) || !frustum.intersects(passBounds, index * 6))
+                {
+                    culledCount++;
+                    continue;
+                }
+            }
+            passViews[index].draw(eye, passMatrices, index * 16);
+            drawnCount++;
+        }
+    }
+
+    /**
+     * @param pass One of the PASS_ constants.
+     * @return the number of views in the pass.
+     */
+    public int getCount(int pass) {
+        return counts[pass];
+    }
+
+    /**
+     * @param pass  One of the PASS_ constants.
+     * @param order Position in the sorted pass.
+     * @return the view drawn at that position. Only valid after {@link #sort()}.
+     */
+    public View3D get(int pass, int order) {
+        return views[pass][(int) (keys[pass][order] & INDEX_MASK)];
+    }
+
+    /**
+     * @return the number of views drawn by the last {@link #draw(Eye)}.
+     */
+    public int getDrawnCount() {
+        return drawnCount;
+    }
+
+    /**
+     * @param eyeType One of {@link Eye.Type} values.
+     * @return the number of views skipped by frustum culling on the last frame for that eye.
+     */
+    public int getCulledCount(int eyeType) {
+        return culledCounts[eyeType];
+    }
+
+    public boolean isCullingEnabled() {
+        return cullingEnabled;
+    }
+
+    /**
+     * Enables or disables frustum culling. Enabled by default.
+     *
+     * @param cullingEnabled false to draw every view in the queue.
+     */
+    public void setCullingEnabled(boolean cullingEnabled) {
+        this.cullingEnabled = cullingEnabled;
+    }
+}
@@ -0,0 +1,337 @@
+package com.karacasoft.cardboardui.text;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.opengl.GLES20;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.karacasoft.cardboardui.gl.GLState;
+import com.karacasoft.cardboardui.texture.ShelfPacker;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A typeface rendered into a glyph atlas of signed distance fields, see {@link DistanceField}.
+ *
+ * <p>The printable ASCII glyphs are rendered when the font is created, other characters the
+ * first time they are asked for. The atlas is one {@link #PAGE_SIZE} alpha texture, kept on
+ * the CPU too, so it can be uploaded again after the GL context is lost. Text is drawn as one
+ * quad per glyph with the {@link com.karacasoft.cardboardui.gl.ShaderVariants#DISTANCE_FIELD}
+ * program, see {@link com.karacasoft.cardboardui.view.TextView3D}.</p>
+ *
+ * <p>A font can be created on any thread. {@link #getGlyph(char)} and
+ * {@link #upload(GLState)} must be called on the GL thread.</p>
+ */
+public class SdfFont {
+
+    /** Text size the glyphs are rendered at, in pixels of the atlas. */
+    public static final float GLYPH_SIZE = 40f;
+
+    /** Distance from the outline, in pixels of the atlas, covered by the field. */
+    public static final int SPREAD = 5;
+
+    public static final int PAGE_SIZE = 512;
+
+    private static final int SOLID_SIZE = 4;
+    private static final int PADDING = 1;
+
+    /**
+     * Placement of a glyph in the atlas. Sizes are in pixels of the atlas, relative to the pen
+     * position on the baseline, y growing downwards.
+     */
+    public static class Glyph {
+
+        private float advance;
+        private boolean drawable;
+        private int left;
+        private int top;
+        private int width;
+        private int height;
+        private float u0;
+        private float v0;
+        private float u1;
+        private float v1;
+
+        /**
+         * @return false for glyphs without pixels, like spaces, and for glyphs that didn't fit
+         * into the atlas.
+         */
+        public boolean isDrawable() {
+            return drawable;
+        }
+
+        public float getAdvance() {
+            return advance;
+        }
+
+        public int getLeft() {
+            return left;
+        }
+
+        public int getTop() {
+            return top;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public float getU0() {
+            return u0;
+        }
+
+        public float getV0() {
+            return v0;
+        }
+
+        public float getU1() {
+            return u1;
+        }
+
+        public float getV1() {
+            return v1;
+        }
+    }
+
+    private final Typeface typeface;
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float ascent;
+    private final float descent;
+
+    private final ShelfPacker packer = new ShelfPacker(PAGE_SIZE, PAGE_SIZE);
+    private final ByteBuffer pixels;
+    private final SparseArray<Glyph> glyphs = new SparseArray<>();
+
+    private final int[] position = new int[2];
+    private final Rect bounds = new Rect();
+    private final char[] chars = new char[1];
+
+    private final float solidU;
+    private final float solidV;
+
+    private final int[] textureHandle = new int[1];
+    private int contextGeneration = -1;
+    private int dirtyTop = PAGE_SIZE;
+    private int dirtyBottom = 0;
+
+    /**
+     * Renders the printable ASCII glyphs of the typeface. Takes some time, fonts should be
+     * shared, see {@link com.karacasoft.cardboardui.CardboardUIActivity#getDefaultFont()}.
+     *
+     * @param typeface Typeface of the glyphs.
+     */
+    public SdfFont(Typeface typeface)
+    {
+        this.typeface = typeface;
+        paint.setTypeface(typeface);
+        paint.setTextSize(GLYPH_SIZE);
+        paint.setColor(Color.WHITE);
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        ascent = metrics.ascent;
+        descent = metrics.descent;
+
+        pixels = ByteBuffer.allocateDirect(PAGE_SIZE * PAGE_SIZE).order(ByteOrder.nativeOrder());
+
+        // A block that is inside everywhere, for backgrounds.
+        packer.insert(SOLID_SIZE, SOLID_SIZE, position);
+        for(int y = 0; y < SOLID_SIZE; y++)
+        {
+            for(int x = 0; x < SOLID_SIZE; x++)
+            {
+                pixels.put((position[1] + y) * PAGE_SIZE + position[0] + x, (byte) 255);
+            }
+        }
+        solidU = (position[0] + SOLID_SIZE / 2f) / PAGE_SIZE;
+        solidV = (position[1] + SOLID_SIZE / 2f) / PAGE_SIZE;
+
+        for(char c = ' '; c <= '~'; c++)
+        {
+            getGlyph(c);
+        }
+    }
+
+    /**
+     * @param c A character.
+     * @return the glyph of the character, rendered into the atlas if it wasn't yet.
+     */
+    public Glyph getGlyph(char c)
+    {
+        Glyph glyph = glyphs.get(c);
+        if(glyph == null)
+        {
+            glyph = createGlyph(c);
+            glyphs.put(c, glyph);
+        }
+        return glyph;
+    }
+
+    private Glyph createGlyph(char c)
+    {
+        Glyph glyph = new Glyph();
+        chars[0] = c;
+        glyph.advance = paint.measureText(chars, 0, 1);
+        paint.getTextBounds(chars, 0, 1, bounds);
+        if(bounds.width() <= 0 || bounds.height() <= 0)
+        {
+            return glyph;
+        }
+
+        int w = bounds.width() + 2 * SPREAD;
+        int h = bounds.height() + 2 * SPREAD;
+        if(!packer.insert(w + PADDING, h + PADDING, position))
+        {
+            Log.w("SdfFont", "Glyph atlas is full, '" + c + "' is not drawn");
+            return glyph;
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ALPHA_8);
+        new Canvas(bitmap).drawText(chars, 0, 1, SPREAD - bounds.left, SPREAD - bounds.top, paint);
+        int[] argb = new int[w * h];
+        bitmap.getPixels(argb, 0, w, 0, 0, w, h);
+        bitmap.recycle();
+
+        byte[] field = DistanceField.generate(argb, w, h, SPREAD);
+        for(int y = 0; y < h; y++)
+        {
+            pixels.position((position[1] + y) * PAGE_SIZE + position[0]);
+            pixels.put(field, y * w, w);
+        }
+        pixels.position(0);
+        dirtyTop = Math.min(dirtyTop, position[1]);
+        dirtyBottom = Math.max(dirtyBottom, position[1] + h);
+
+        glyph.drawable = true;
+        glyph.left = bounds.left - SPREAD;
+        glyph.top = bounds.top - SPREAD;
+        glyph.width = w;
+        glyph.height = h;
+        glyph.u0 = (float) position[0] / PAGE_SIZE;
+        glyph.v0 = (float) position[1] / PAGE_SIZE;
+        glyph.u1 = (float) (position[0] + w) / PAGE_SIZE;
+        glyph.v1 = (float) (position[1] + h) / PAGE_SIZE;
+        return glyph;
+    }
+
+    /**
+     * Creates the atlas texture on this context, or uploads the rows of the glyphs added
+     * since the last call. Binds the texture to unit 0 through the state cache.
+     *
+     * @param state State of the GL context.
+     * @return the atlas texture.
+     */
+    public int upload(GLState state)
+    {
+        if(contextGeneration != state.getContextGeneration())
+        {
+            // The texture died with the old context.
+            textureHandle[0] = 0;
+            contextGeneration = state.getContextGeneration();
+        }
+        if(textureHandle[0] == 0)
+        {
+            GLES20.glGenTextures(1, textureHandle, 0);
+            state.bindTexture(0, textureHandle[0]);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+            pixels.position(0);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_ALPHA, PAGE_SIZE, PAGE_SIZE, 0,
+                    GLES20.GL_ALPHA, GLES20.GL_UNSIGNED_BYTE, pixels);
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        }else if(dirtyTop < dirtyBottom)
+        {
+            state.bindTexture(0, textureHandle[0]);
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+            pixels.position(dirtyTop * PAGE_SIZE);
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, dirtyTop, PAGE_SIZE, dirtyBottom - dirtyTop,
+                    GLES20.GL_ALPHA, GLES20.GL_UNSIGNED_BYTE, pixels);
+            pixels.position(0);
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        }
+        dirtyTop = PAGE_SIZE;
+        dirtyBottom = 0;
+        return textureHandle[0];
+    }
+
+    /**
+     * Deletes the atlas texture of the current context. It is created again by the next
+     * {@link #upload(GLState)}.
+     */
+    public void release(GLState state)
+    {
+        if(textureHandle[0] != 0 && contextGeneration == state.getContextGeneration())
+        {
+            // Through the state, so it doesn't keep the deleted name as bound.
+            state.deleteTextures(1, textureHandle, 0);
+        }
+        textureHandle[0] = 0;
+    }
+
+    /**
+     * Adds up the advances of the glyphs of the text, the way text is laid out with this font.
+     * Glyphs that are not in the atlas yet are rendered into it.
+     *
+     * @return the width of the text, in pixels of the atlas.
+     */
+    public float measureText(String text)
+    {
+        float advance = 0f;
+        for(int i = 0; i < text.length(); i++)
+        {
+            advance += getGlyph(text.charAt(i)).getAdvance();
+        }
+        return advance;
+    }
+
+    public Typeface getTypeface() {
+        return typeface;
+    }
+
+    /**
+     * @return the distance from the baseline to the top of the line, in pixels of the atlas.
+     * Negative, like {@link Paint.FontMetrics#ascent}.
+     */
+    public float getAscent() {
+        return ascent;
+    }
+
+    /**
+     * @return the distance from the baseline to the bottom of the line, in pixels of the atlas.
+     */
+    public float getDescent() {
+        return descent;
+    }
+
+    /**
+     * @return U coordinate of a texel that is inside everywhere around it.
+     */
+    public float getSolidU() {
+        return solidU;
+    }
+
+    /**
+     * @return V coordinate of a texel that is inside everywhere around it.
+     */
+    public float getSolidV() {
+        return solidV;
+    }
+
+    /**
+     * @return the number of glyphs rendered so far.
+     */
+    public int getGlyphCount() {
+        return glyphs.size();
+    }
+}
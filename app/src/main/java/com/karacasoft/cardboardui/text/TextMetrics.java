@@ -0,0 +1,170 @@
+package com.karacasoft.cardboardui.text;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+/**
+ * Measures text and remembers the results.
+ *
+ * <p>Views measure their text when they are created and when it changes, and adapters create
+ * views for every item they show. Measuring shapes the text, so results are kept in an LRU
+ * cache keyed by the text, the text size and the typeface. Each thread measures with a
+ * {@link Paint} of its own, so worker threads can lay out items without waiting for the GL
+ * thread. All methods are thread-safe.</p>
+ */
+public class TextMetrics {
+
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+
+    private static final class Key {
+
+        String text;
+        float size;
+        Typeface typeface;
+
+        Key() {}
+
+        Key(Key other)
+        {
+            text = other.text;
+            size = other.size;
+            typeface = other.typeface;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key))
+            {
+                return false;
+            }
+            Key key = (Key) o;
+            return size == key.size && text.equals(key.text)
+                    && (typeface == null ? key.typeface == null : typeface.equals(key.typeface));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = text.hashCode();
+            hash = 31 * hash + Float.floatToIntBits(size);
+            return 31 * hash + (typeface != null ? typeface.hashCode() : 0);
+        }
+    }
+
+    private static final class Entry {
+
+        final float advance;
+        final int left;
+        final int top;
+        final int right;
+        final int bottom;
+
+        Entry(float advance, Rect bounds)
+        {
+            this.advance = advance;
+            this.left = bounds.left;
+            this.top = bounds.top;
+            this.right = bounds.right;
+            this.bottom = bounds.bottom;
+        }
+    }
+
+    private static final class Measurer {
+
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        final Rect bounds = new Rect();
+        final Key key = new Key();
+    }
+
+    private final LruCache<Key, Entry> cache;
+
+    private final ThreadLocal<Measurer> measurers = new ThreadLocal<Measurer>() {
+        @Override
+        protected Measurer initialValue() {
+            return new Measurer();
+        }
+    };
+
+    public TextMetrics()
+    {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries Number of measured texts to keep.
+     */
+    public TextMetrics(int maxEntries)
+    {
+        cache = new LruCache<>(maxEntries);
+    }
+
+    /**
+     * @param text     The text.
+     * @param size     Text size in pixels.
+     * @param typeface Typeface, null for the default one.
+     * @return the advance of the text, like {@link Paint#measureText(String)}.
+     */
+    public float measureText(String text, float size, Typeface typeface)
+    {
+        return get(text, size, typeface).advance;
+    }
+
+    /**
+     * Gets the box around the pixels of the text, like
+     * {@link Paint#getTextBounds(String, int, int, Rect)}.
+     *
+     * @param text     The text.
+     * @param size     Text size in pixels.
+     * @param typeface Typeface, null for the default one.
+     * @param out      Receives the bounds, relative to the pen position on the baseline.
+     */
+    public void getTextBounds(String text, float size, Typeface typeface, Rect out)
+    {
+        Entry entry = get(text, size, typeface);
+        out.set(entry.left, entry.top, entry.right, entry.bottom);
+    }
+
+    private Entry get(String text, float size, Typeface typeface)
+    {
+        Measurer measurer = measurers.get();
+        Key key = measurer.key;
+        key.text = text;
+        key.size = size;
+        key.typeface = typeface;
+        Entry entry = cache.get(key);
+        if(entry == null)
+        {
+            Paint paint = measurer.paint;
+            paint.setTextSize(size);
+            paint.setTypeface(typeface);
+            paint.getTextBounds(text, 0, text.length(), measurer.bounds);
+            entry = new Entry(paint.measureText(text), measurer.bounds);
+            // Another thread may have measured the same text meanwhile, the results are equal.
+            cache.put(new Key(key), entry);
+        }
+        key.text = null;
+        key.typeface = null;
+        return entry;
+    }
+
+    /**
+     * Forgets all the measured texts.
+     */
+    public void clear()
+    {
+        cache.evictAll();
+    }
+
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getMissCount() {
+        return cache.missCount();
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
+}
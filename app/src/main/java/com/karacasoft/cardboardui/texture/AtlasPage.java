@@ -0,0 +1,107 @@
+package com.karacasoft.cardboardui.texture;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import com.karacasoft.cardboardui.Util;
+
+/**
+ * One texture of a {@link TextureAtlas}. Keeps a copy of its pixels on the CPU side, so the
+ * page can be repacked and uploaded again after the GL context is lost.
+ */
+class AtlasPage {
+
+    static final Bitmap.Config CONFIG = Bitmap.Config.ARGB_4444;
+
+    private final int size;
+    private final ShelfPacker packer;
+
+    private Bitmap bitmap;
+    private Canvas canvas;
+
+    private int textureHandle = 0;
+
+    int liveRegions = 0;
+
+    AtlasPage(int size)
+    {
+        this.size = size;
+        this.packer = new ShelfPacker(size, size);
+        this.bitmap = Bitmap.createBitmap(size, size, CONFIG);
+        this.canvas = new Canvas(bitmap);
+    }
+
+    /**
+     * Creates the GL texture and uploads the whole page.
+     */
+    void upload()
+    {
+        if(textureHandle == 0)
+        {
+            textureHandle = Util.loadTexture(bitmap);
+        }else{
+            Util.loadTexture(textureHandle, bitmap);
+        }
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+    }
+
+    /**
+     * Uploads a part of the page. The bitmap must use {@link #CONFIG}.
+     */
+    void uploadRegion(Bitmap part, int x, int y)
+    {
+        if(textureHandle == 0)
+        {
+            upload();
+            return;
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y, part);
+    }
+
+    /**
+     * Forgets the GL texture without deleting it. Used after the GL context is lost.
+     */
+    void invalidateTexture()
+    {
+        textureHandle = 0;
+    }
+
+    /**
+     * @param registry Deletes the texture, through the GL state cache.
+     */
+    void release(TextureRegistry registry)
+    {
+        if(textureHandle != 0)
+        {
+            registry.deleteHandle(textureHandle);
+            textureHandle = 0;
+        }
+        bitmap.recycle();
+        bitmap = null;
+        canvas = null;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    ShelfPacker getPacker() {
+        return packer;
+    }
+
+    Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    Canvas getCanvas() {
+        return canvas;
+    }
+
+    int getTextureHandle() {
+        return textureHandle;
+    }
+}
@@ -0,0 +1,234 @@
+package com.karacasoft.cardboardui.texture;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayList;
+
+/**
+ * Reuses the bitmaps views rasterize their textures into.
+ *
+ * <p>Texture bitmaps only live until they are uploaded, allocating a new one for every button
+ * state or text change churns the heap. Bitmaps given back with {@link #release(Bitmap)} are
+ * kept in buckets by the power of two of their size. {@link #acquire(int, int, Bitmap.Config)}
+ * reuses one that is big enough with {@link Bitmap#reconfigure(int, int, Bitmap.Config)} on
+ * API 19 and newer, older versions can only reuse a bitmap of the same size and config.
+ * Reused bitmaps are cleared to transparent.</p>
+ *
+ * <p>The pool keeps at most {@link #getMaxBytes()}, released bitmaps that don't fit are
+ * recycled. All methods are thread-safe.</p>
+ */
+public class BitmapPool {
+
+    public static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    /** A bitmap is reused for requests down to a quarter of its size. */
+    private static final int MAX_BUCKET_DISTANCE = 2;
+
+    private final ArrayList<ArrayList<Bitmap>> buckets = new ArrayList<>();
+    private final int maxBytes;
+    private int bytes = 0;
+
+    private int hitCount = 0;
+    private int missCount = 0;
+    private int dropCount = 0;
+
+    private final ThreadLocal<Canvas> canvases = new ThreadLocal<Canvas>() {
+        @Override
+        protected Canvas initialValue() {
+            return new Canvas();
+        }
+    };
+
+    public BitmapPool()
+    {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes Memory the pooled bitmaps may use.
+     */
+    public BitmapPool(int maxBytes)
+    {
+        this.maxBytes = maxBytes;
+        for(int i = 0; i < 32; i++)
+        {
+            buckets.add(new ArrayList<Bitmap>());
+        }
+    }
+
+    private static int bucketOf(int byteCount)
+    {
+        // Bucket i holds sizes from 2^i up to 2^(i+1) - 1.
+        return 31 - Integer.numberOfLeadingZeros(Math.max(1, byteCount));
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config)
+    {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case ARGB_8888:
+                return 4;
+            case ARGB_4444:
+                // Allocated as ARGB_8888 since API 19, reconfigure promotes it the same way.
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? 4 : 2;
+            default:
+                return 2;
+        }
+    }
+
+    private static int getAllocationBytes(Bitmap bitmap)
+    {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+        {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    /**
+     * @param width  Width of the bitmap.
+     * @param height Height of the bitmap.
+     * @param config Config of the bitmap.
+     * @return a mutable, transparent bitmap. Give it back with {@link #release(Bitmap)} when
+     * it is not needed anymore.
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config)
+    {
+        Bitmap bitmap = take(width, height, config);
+        if(bitmap == null)
+        {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    private synchronized Bitmap take(int width, int height, Bitmap.Config config)
+    {
+        int needed = width * height * bytesPerPixel(config);
+        boolean reconfigure = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        int first = bucketOf(needed);
+        int last = reconfigure ? Math.min(buckets.size() - 1, first + MAX_BUCKET_DISTANCE) : first;
+        for(int i = first; i <= last; i++)
+        {
+            ArrayList<Bitmap> bucket = buckets.get(i);
+            for(int j = bucket.size() - 1; j >= 0; j--)
+            {
+                Bitmap bitmap = bucket.get(j);
+                boolean fits;
+                if(reconfigure)
+                {
+                    fits = getAllocationBytes(bitmap) >= needed;
+                }else{
+                    fits = bitmap.getWidth() == width && bitmap.getHeight() == height
+                            && bitmap.getConfig() == config;
+                }
+                if(fits)
+                {
+                    bucket.remove(j);
+                    bytes -= getAllocationBytes(bitmap);
+                    if(reconfigure)
+                    {
+                        try {
+                            bitmap.reconfigure(width, height, config);
+                        } catch (IllegalArgumentException e) {
+                            // Out of the pool already, a new bitmap is created instead.
+                            bitmap.recycle();
+                            missCount++;
+                            return null;
+                        }
+                    }
+                    hitCount++;
+                    return bitmap;
+                }
+            }
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Gives a bitmap to the pool. It must not be used after this call.
+     *
+     * @param bitmap A mutable bitmap. Null is ignored.
+     */
+    public void release(Bitmap bitmap)
+    {
+        if(bitmap == null || bitmap.isRecycled())
+        {
+            return;
+        }
+        if(!bitmap.isMutable() || !put(bitmap))
+        {
+            bitmap.recycle();
+        }
+    }
+
+    private synchronized boolean put(Bitmap bitmap)
+    {
+        int size = getAllocationBytes(bitmap);
+        if(bytes + size > maxBytes)
+        {
+            dropCount++;
+            return false;
+        }
+        buckets.get(bucketOf(size)).add(bitmap);
+        bytes += size;
+        return true;
+    }
+
+    /**
+     * @param bitmap Bitmap to draw into.
+     * @return a canvas of the calling thread, drawing into the bitmap. Valid until the next
+     * call on the same thread.
+     */
+    public Canvas getCanvas(Bitmap bitmap)
+    {
+        Canvas canvas = canvases.get();
+        canvas.setBitmap(bitmap);
+        return canvas;
+    }
+
+    /**
+     * Recycles all the pooled bitmaps.
+     */
+    public synchronized void clear()
+    {
+        for(ArrayList<Bitmap> bucket : buckets)
+        {
+            for(Bitmap bitmap : bucket)
+            {
+                bitmap.recycle();
+            }
+            bucket.clear();
+        }
+        bytes = 0;
+    }
+
+    public synchronized int getBytes() {
+        return bytes;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of released bitmaps that were recycled because the pool was full.
+     */
+    public synchronized int getDropCount() {
+        return dropCount;
+    }
+}
@@ -0,0 +1,313 @@
+package com.karacasoft.cardboardui.texture;
+
+import android.opengl.ETC1;
+import android.opengl.ETC1Util;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.karacasoft.cardboardui.gl.GLErrorPolicy;
+import com.karacasoft.cardboardui.gl.GLState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A pre-compressed texture read from a PKM or KTX file, uploaded without decoding.
+ *
+ * <p>ETC1 uses 4 bits per pixel, a quarter of ARGB_4444, and the GPU reads it compressed.
+ * Supported formats:</p>
+ * <ul>
+ *     <li>PKM version 10 and 20 files, as written by etc1tool and etcpack: ETC1, ETC2 RGB and
+ *     ETC2 RGBA. One level.</li>
+ *     <li>KTX files with an ETC1 or ETC2 internal format, with all their mipmap levels.</li>
+ * </ul>
+ *
+ * <p>ETC1 is supported by every GLES 2.0 device Cardboard runs on. If it isn't, the levels
+ * are decoded to RGB 565 by {@link ETC1Util}. ETC2 needs a GLES 3.0 context.</p>
+ *
+ * <p>Files can be read on any thread, {@link #upload(TextureParams, GLState)} must be called on
+ * the GL thread.</p>
+ */
+public class CompressedTexture {
+
+    private static final byte[] KTX_IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int KTX_HEADER_SIZE = 64;
+    private static final int KTX_ENDIANNESS = 0x04030201;
+
+    private static final int PKM_ETC1 = 0;
+    private static final int PKM_ETC2_RGB = 1;
+    private static final int PKM_ETC2_RGBA = 3;
+
+    private final int internalFormat;
+    private final int width;
+    private final int height;
+    private final ByteBuffer[] levels;
+
+    private CompressedTexture(int internalFormat, int width, int height, ByteBuffer[] levels)
+    {
+        this.internalFormat = internalFormat;
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+    }
+
+    /**
+     * Reads a PKM or KTX file. The stream is read to its end, but not closed.
+     *
+     * @param in Contents of the file, for example from
+     *           {@link android.content.res.AssetManager#open(String)}.
+     * @return the texture.
+     * @throws IOException if the stream can't be read or the format is not supported.
+     */
+    public static CompressedTexture read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[16 * 1024];
+        int read;
+        while((read = in.read(chunk)) != -1)
+        {
+            out.write(chunk, 0, read);
+        }
+        ByteBuffer data = ByteBuffer.wrap(out.toByteArray());
+
+        if(data.remaining() >= KTX_HEADER_SIZE && startsWith(data, KTX_IDENTIFIER))
+        {
+            return readKtx(data);
+        }
+        if(data.remaining() >= ETC1.ETC_PKM_HEADER_SIZE && data.get(0) == 'P' && data.get(1) == 'K'
+                && data.get(2) == 'M' && data.get(3) == ' ')
+        {
+            return readPkm(data);
+        }
+        throw new IOException("Not a PKM or KTX file");
+    }
+
+    private static boolean startsWith(ByteBuffer data, byte[] prefix)
+    {
+        for(int i = 0; i < prefix.length; i++)
+        {
+            if(data.get(i) != prefix[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static CompressedTexture readPkm(ByteBuffer data) throws IOException
+    {
+        // The header is big endian: magic, version, type, padded size, original size.
+        data.order(ByteOrder.BIG_ENDIAN);
+        int type = data.getShort(6) & 0xFFFF;
+        int paddedWidth = data.getShort(8) & 0xFFFF;
+        int paddedHeight = data.getShort(10) & 0xFFFF;
+        int width = data.getShort(12) & 0xFFFF;
+        int height = data.getShort(14) & 0xFFFF;
+
+        int internalFormat;
+        int blockSize = 8;
+        switch (type) {
+            case PKM_ETC1:
+                internalFormat = ETC1.ETC1_RGB8_OES;
+                break;
+            case PKM_ETC2_RGB:
+                internalFormat = GLES30.GL_COMPRESSED_RGB8_ETC2;
+                break;
+            case PKM_ETC2_RGBA:
+                internalFormat = GLES30.GL_COMPRESSED_RGBA8_ETC2_EAC;
+                blockSize = 16;
+                break;
+            default:
+                throw new IOException("Unsupported PKM type " + type);
+        }
+
+        int size = (paddedWidth / 4) * (paddedHeight / 4) * blockSize;
+        if(data.capacity() < ETC1.ETC_PKM_HEADER_SIZE + size)
+        {
+            throw new IOException("PKM file is truncated");
+        }
+        ByteBuffer level = directCopy(data, ETC1.ETC_PKM_HEADER_SIZE, size);
+        return new CompressedTexture(internalFormat, width, height, new ByteBuffer[]{level});
+    }
+
+    private static CompressedTexture readKtx(ByteBuffer data) throws IOException
+    {
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        if(data.getInt(12) != KTX_ENDIANNESS)
+        {
+            data.order(ByteOrder.BIG_ENDIAN);
+        }
+        int glType = data.getInt(16);
+        int internalFormat = data.getInt(28);
+        int width = data.getInt(36);
+        int height = data.getInt(40);
+        int faces = data.getInt(52);
+        int levelCount = Math.max(1, data.getInt(56));
+        int keyValueBytes = data.getInt(60);
+
+        if(glType != 0 || !isEtc(internalFormat))
+        {
+            throw new IOException("Unsupported KTX format 0x" + Integer.toHexString(internalFormat));
+        }
+        if(faces != 1)
+        {
+            throw new IOException("KTX cube maps are not supported");
+        }
+
+        ByteBuffer[] levels = new ByteBuffer[levelCount];
+        int offset = KTX_HEADER_SIZE + keyValueBytes;
+        for(int i = 0; i < levelCount; i++)
+        {
+            if(offset + 4 > data.capacity())
+            {
+                throw new IOException("KTX file is truncated");
+            }
+            int size = data.getInt(offset);
+            offset += 4;
+            if(offset + size > data.capacity())
+            {
+                throw new IOException("KTX file is truncated");
+            }
+            levels[i] = directCopy(data, offset, size);
+            // Levels are padded to 4 bytes.
+            offset += (size + 3) & ~3;
+        }
+        return new CompressedTexture(internalFormat, width, height, levels);
+    }
+
+    private static ByteBuffer directCopy(ByteBuffer data, int offset, int size)
+    {
+        ByteBuffer copy = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        ByteBuffer source = data.duplicate();
+        source.position(offset);
+        source.limit(offset + size);
+        copy.put(source).flip();
+        return copy;
+    }
+
+    private static boolean isEtc(int internalFormat)
+    {
+        return internalFormat == ETC1.ETC1_RGB8_OES || isEtc2(internalFormat);
+    }
+
+    private static boolean isEtc2(int internalFormat)
+    {
+        return internalFormat == GLES30.GL_COMPRESSED_RGB8_ETC2
+                || internalFormat == GLES30.GL_COMPRESSED_RGBA8_ETC2_EAC;
+    }
+
+    /**
+     * Creates a GL texture with the levels of the file. Mipmaps can't be generated for
+     * compressed textures, mipmap filters are only used if the file has its levels.
+     *
+     * <p>GLES 2.0 can't sample mipmaps of textures whose sides are not powers of two, nor
+     * repeat them. Such textures get their first level only, a non-mipmap filter and clamped
+     * edges.</p>
+     *
+     * @param params Filtering of the texture.
+     * @param state  State of the GL context, the texture is bound through it.
+     * @return the texture handle.
+     */
+    public int upload(TextureParams params, GLState state)
+    {
+        boolean gles2 = state.getMajorVersion() < 3;
+        if(isEtc2(internalFormat) && gles2)
+        {
+            throw new RuntimeException("ETC2 textures need GLES 3.0");
+        }
+        GLErrorPolicy errorPolicy = state.getErrorPolicy();
+        int[] textureHandle = new int[1];
+        GLES20.glGenTextures(1, textureHandle, 0);
+        errorPolicy.checkCall("glGenTextures");
+        if(textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error loading texture");
+        }
+        state.bindTexture(0, textureHandle[0]);
+
+        boolean etc1Fallback = internalFormat == ETC1.ETC1_RGB8_OES && !ETC1Util.isETC1Supported();
+        boolean npot = !isPowerOfTwo(width) || !isPowerOfTwo(height);
+        int uploaded = params.hasMipmaps() && !(gles2 && npot) ? levels.length : 1;
+        for(int i = 0; i < uploaded; i++)
+        {
+            int w = Math.max(1, width >> i);
+            int h = Math.max(1, height >> i);
+            ByteBuffer level = levels[i];
+            level.position(0);
+            if(etc1Fallback)
+            {
+                ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D, i, 0, GLES20.GL_RGB, GLES20.GL_UNSIGNED_SHORT_5_6_5,
+                        new ETC1Util.ETC1Texture(w, h, level));
+            }else{
+                GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, i, internalFormat, w, h, 0,
+                        level.remaining(), level);
+                errorPolicy.checkCall("glCompressedTexImage2D");
+            }
+        }
+        // A partial chain would leave the texture incomplete with a mipmap filter.
+        params.apply(uploaded > 1 && uploaded >= fullLevelCount(width, height));
+        errorPolicy.checkCall("glTexParameteri");
+        if(gles2 && npot)
+        {
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            errorPolicy.checkCall("glTexParameteri");
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            errorPolicy.checkCall("glTexParameteri");
+        }
+        return textureHandle[0];
+    }
+
+    private static boolean isPowerOfTwo(int value)
+    {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+
+    /**
+     * @return the number of levels down to 1x1.
+     */
+    static int fullLevelCount(int width, int height)
+    {
+        int size = Math.max(width, height);
+        int count = 1;
+        while(size > 1)
+        {
+            size >>= 1;
+            count++;
+        }
+        return count;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getInternalFormat() {
+        return internalFormat;
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * @return the size of all the levels, the GPU memory the texture will use.
+     */
+    public int getByteCount()
+    {
+        int bytes = 0;
+        for(ByteBuffer level : levels)
+        {
+            bytes += level.capacity();
+        }
+        return bytes;
+    }
+}
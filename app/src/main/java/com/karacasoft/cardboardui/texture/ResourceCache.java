@@ -0,0 +1,255 @@
+package com.karacasoft.cardboardui.texture;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
+import android.support.v4.content.ContextCompat;
+import android.util.LruCache;
+
+/**
+ * Keeps the drawables and bitmaps views draw their textures from.
+ *
+ * <p>Buttons draw the same background and icons over and over, and every container decodes
+ * the same arrows. Inflating a drawable or decoding a resource every time a texture is
+ * rasterized costs more than drawing it. Drawables are kept as their
+ * {@link Drawable.ConstantState}, {@link #getDrawable(int)} returns a new drawable sharing the
+ * decoded image, so callers can set its bounds freely. Bitmaps are kept per resource id and
+ * target size.</p>
+ *
+ * <p>Entries are evicted least recently used first when the cache gets over
+ * {@link #getMaxBytes()}, and all of them on {@link #trimMemory(int)} when the system runs low
+ * on memory. All methods are thread-safe.</p>
+ */
+public class ResourceCache {
+
+    /** Upper bound of the default size, a small part of the heap is used on smaller devices. */
+    public static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private static final class Key {
+
+        final int resourceId;
+        final int width;
+        final int height;
+        final boolean drawable;
+
+        Key(int resourceId, int width, int height, boolean drawable)
+        {
+            this.resourceId = resourceId;
+            this.width = width;
+            this.height = height;
+            this.drawable = drawable;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key))
+            {
+                return false;
+            }
+            Key key = (Key) o;
+            return resourceId == key.resourceId && width == key.width && height == key.height
+                    && drawable == key.drawable;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = resourceId;
+            hash = 31 * hash + width;
+            hash = 31 * hash + height;
+            return 31 * hash + (drawable ? 1 : 0);
+        }
+    }
+
+    private static final class Entry {
+
+        final Drawable.ConstantState state;
+        final Bitmap bitmap;
+        final int byteCount;
+
+        Entry(Drawable.ConstantState state, int byteCount)
+        {
+            this.state = state;
+            this.bitmap = null;
+            this.byteCount = byteCount;
+        }
+
+        Entry(Bitmap bitmap)
+        {
+            this.state = null;
+            this.bitmap = bitmap;
+            this.byteCount = bitmap.getByteCount();
+        }
+    }
+
+    private final Context context;
+    private final LruCache<Key, Entry> cache;
+
+    public ResourceCache(Context context)
+    {
+        this(context, (int) Math.min(DEFAULT_MAX_BYTES, Runtime.getRuntime().maxMemory() / 16));
+    }
+
+    /**
+     * @param context  Context to load the resources with.
+     * @param maxBytes Memory the decoded images may use.
+     */
+    public ResourceCache(Context context, int maxBytes)
+    {
+        this.context = context;
+        this.cache = new LruCache<Key, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Entry value) {
+                return value.byteCount;
+            }
+        };
+    }
+
+    /**
+     * @param resourceId Id of a drawable resource.
+     * @return a new drawable of the resource, null if it can't be loaded. Its image is shared
+     * with the other drawables of the resource, call {@link Drawable#mutate()} before changing
+     * anything but its bounds.
+     */
+    public Drawable getDrawable(int resourceId)
+    {
+        Key key = new Key(resourceId, 0, 0, true);
+        Entry entry = cache.get(key);
+        if(entry == null)
+        {
+            Drawable drawable = ContextCompat.getDrawable(context, resourceId);
+            if(drawable == null)
+            {
+                return null;
+            }
+            Drawable.ConstantState state = drawable.getConstantState();
+            if(state == null)
+            {
+                // Can't be shared, every caller gets its own.
+                return drawable;
+            }
+            // Another thread may have loaded the same drawable meanwhile, they are equal.
+            cache.put(key, new Entry(state, estimateBytes(drawable)));
+            return drawable;
+        }
+        return entry.state.newDrawable(context.getResources());
+    }
+
+    private static int estimateBytes(Drawable drawable)
+    {
+        // Shapes and colors report no size, they are still worth an entry.
+        int width = Math.max(1, drawable.getIntrinsicWidth());
+        int height = Math.max(1, drawable.getIntrinsicHeight());
+        return Math.max(1, width * height * 4);
+    }
+
+    /**
+     * @param resourceId Id of an image resource.
+     * @return the decoded image at its own size, null if it can't be decoded.
+     * @see #getBitmap(int, int, int)
+     */
+    public Bitmap getBitmap(int resourceId)
+    {
+        return getBitmap(resourceId, 0, 0);
+    }
+
+    /**
+     * @param resourceId Id of an image resource.
+     * @param width      Width to scale the image to, 0 to keep the width of the image.
+     * @param height     Height to scale the image to, 0 to keep the height of the image.
+     * @return the decoded image, null if it can't be decoded. It is shared, it must not be
+     * changed or recycled.
+     */
+    public Bitmap getBitmap(int resourceId, int width, int height)
+    {
+        Key key = new Key(resourceId, width, height, false);
+        Entry entry = cache.get(key);
+        if(entry != null)
+        {
+            return entry.bitmap;
+        }
+        Bitmap bitmap = decode(resourceId, width, height);
+        if(bitmap != null)
+        {
+            cache.put(key, new Entry(bitmap));
+        }
+        return bitmap;
+    }
+
+    private Bitmap decode(int resourceId, int width, int height)
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if(width > 0 || height > 0)
+        {
+            // Decodes at the smallest power of two reduction that is still big enough.
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+            int sampleSize = 1;
+            while((width <= 0 || options.outWidth / (sampleSize * 2) >= width)
+                    && (height <= 0 || options.outHeight / (sampleSize * 2) >= height))
+            {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+        }
+        Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+        if(bitmap == null || (width <= 0 && height <= 0))
+        {
+            return bitmap;
+        }
+        int targetWidth = width > 0 ? width : bitmap.getWidth();
+        int targetHeight = height > 0 ? height : bitmap.getHeight();
+        if(targetWidth == bitmap.getWidth() && targetHeight == bitmap.getHeight())
+        {
+            return bitmap;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
+        if(scaled != bitmap)
+        {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Drops the cached images when the system is running low on memory. Bitmaps that are
+     * still in use are not recycled, they are freed when their users let them go.
+     *
+     * @param level Level passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void trimMemory(int level)
+    {
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+        {
+            cache.evictAll();
+        }
+    }
+
+    /**
+     * Forgets all the cached drawables and bitmaps.
+     */
+    public void clear()
+    {
+        cache.evictAll();
+    }
+
+    public int getBytes() {
+        return cache.size();
+    }
+
+    public int getMaxBytes() {
+        return cache.maxSize();
+    }
+
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getMissCount() {
+        return cache.missCount();
+    }
+}
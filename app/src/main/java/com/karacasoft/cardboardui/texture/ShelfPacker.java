@@ -0,0 +1,215 @@
+package com.karacasoft.cardboardui.texture;
+
+import java.util.ArrayList;
+
+/**
+ * Packs rectangles into a fixed size area using shelves.
+ *
+ * <p>Rectangles are placed next to each other on horizontal shelves. A new shelf is opened
+ * below the last one when no existing shelf has room. Removed rectangles give their space
+ * back only when they are at the end of their shelf, or when their shelf becomes empty.</p>
+ *
+ * <p>An empty shelf anywhere in the area is merged with the empty shelves next to it, and
+ * the band is reused by the next rectangle that doesn't fit on a shelf in use: it is cut to the
+ * height of the rectangle and the rest stays free. Empty shelves at the bottom go back to the
+ * open space. Use a fresh packer to get rid of the holes inside shelves (see
+ * {@link TextureAtlas#defragment()}).</p>
+ *
+ * <p>This class has no GL or Android dependencies.</p>
+ */
+public class ShelfPacker {
+
+    private static class Shelf
+    {
+        int y;
+        int height;
+        int cursorX = 0;
+        int liveCount = 0;
+
+        Shelf(int y, int height)
+        {
+            this.y = y;
+            this.height = height;
+        }
+    }
+
+    private final int width;
+    private final int height;
+
+    private final ArrayList<Shelf> shelves = new ArrayList<>();
+
+    private int usedArea = 0;
+
+    public ShelfPacker(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Finds room for a rectangle.
+     *
+     * @param w   Width of the rectangle.
+     * @param h   Height of the rectangle.
+     * @param out Receives the x and y position of the rectangle.
+     * @return false if the rectangle does not fit.
+     */
+    public boolean insert(int w, int h, int[] out)
+    {
+        if(w > width || h > height)
+        {
+            return false;
+        }
+        Shelf best = null;
+        for(Shelf s : shelves)
+        {
+            // Don't waste a tall shelf on a short rectangle. Empty ones are cut to size below.
+            if(s.liveCount > 0 && s.height >= h && s.height <= h * 3 / 2 + 1 && width - s.cursorX >= w)
+            {
+                if(best == null || s.height < best.height)
+                {
+                    best = s;
+                }
+            }
+        }
+        if(best == null)
+        {
+            best = takeEmptyShelf(h);
+        }
+        if(best == null)
+        {
+            int top = 0;
+            if(!shelves.isEmpty())
+            {
+                Shelf last = shelves.get(shelves.size() - 1);
+                top = last.y + last.height;
+            }
+            if(top + h <= height)
+            {
+                best = new Shelf(top, h);
+                shelves.add(best);
+            }else{
+                // Last resort, any shelf that is tall enough.
+                for(Shelf s : shelves)
+                {
+                    if(s.height >= h && width - s.cursorX >= w)
+                    {
+                        best = s;
+                        break;
+                    }
+                }
+                if(best == null)
+                {
+                    return false;
+                }
+            }
+        }
+        out[0] = best.cursorX;
+        out[1] = best.y;
+        best.cursorX += w;
+        best.liveCount++;
+        usedArea += w * h;
+        return true;
+    }
+
+    /**
+     * Cuts the smallest empty shelf that is tall enough to the given height.
+     *
+     * @return the shelf, null if there is none.
+     */
+    private Shelf takeEmptyShelf(int h)
+    {
+        int best = -1;
+        for(int i = 0; i < shelves.size(); i++)
+        {
+            Shelf s = shelves.get(i);
+            if(s.liveCount == 0 && s.height >= h
+                    && (best == -1 || s.height < shelves.get(best).height))
+            {
+                best = i;
+            }
+        }
+        if(best == -1)
+        {
+            return null;
+        }
+        Shelf s = shelves.get(best);
+        if(s.height > h)
+        {
+            // The rest stays free, below the shelf.
+            shelves.add(best + 1, new Shelf(s.y + h, s.height - h));
+            s.height = h;
+        }
+        return s;
+    }
+
+    /**
+     * Gives back the space of a rectangle returned by {@link #insert(int, int, int[])}.
+     */
+    public void remove(int x, int y, int w, int h)
+    {
+        for(int i = 0; i < shelves.size(); i++)
+        {
+            Shelf s = shelves.get(i);
+            if(s.y != y)
+            {
+                continue;
+            }
+            s.liveCount--;
+            usedArea -= w * h;
+            if(s.liveCount <= 0)
+            {
+                s.liveCount = 0;
+                s.cursorX = 0;
+                mergeEmptyShelf(i);
+            }else if(x + w == s.cursorX)
+            {
+                s.cursorX = x;
+            }
+            return;
+        }
+    }
+
+    /**
+     * Joins the empty shelf at the index with the empty shelves around it. Empty shelves at the
+     * bottom are dropped, their space is open again.
+     */
+    private void mergeEmptyShelf(int i)
+    {
+        Shelf s = shelves.get(i);
+        if(i + 1 < shelves.size() && shelves.get(i + 1).liveCount == 0)
+        {
+            s.height += shelves.remove(i + 1).height;
+        }
+        if(i > 0 && shelves.get(i - 1).liveCount == 0)
+        {
+            shelves.get(i - 1).height += shelves.remove(i).height;
+        }
+        while(!shelves.isEmpty() && shelves.get(shelves.size() - 1).liveCount == 0)
+        {
+            shelves.remove(shelves.size() - 1);
+        }
+    }
+
+    public void reset()
+    {
+        shelves.clear();
+        usedArea = 0;
+    }
+
+    public int getUsedArea() {
+        return usedArea;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isEmpty() {
+        return usedArea == 0;
+    }
+}
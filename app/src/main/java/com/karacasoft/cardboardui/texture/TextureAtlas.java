@@ -0,0 +1,296 @@
+package com.karacasoft.cardboardui.texture;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import com.karacasoft.cardboardui.Util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Packs small UI bitmaps into a few large textures.
+ *
+ * <p>Views don't get their own GL texture from the atlas, they get a {@link TextureRegion}:
+ * a page texture and a UV rectangle on it. Views sharing a page can be drawn without binding
+ * another texture, which lets {@link com.karacasoft.cardboardui.render.QuadBatch} put them
+ * into the same draw call.</p>
+ *
+ * <p>Bitmaps bigger than {@link #getMaxRegionSize()} are not packed. They get a region that
+ * covers a texture of their own, owned by the {@link TextureRegistry}, so callers don't need
+ * to handle that case. The memory of the pages is counted by the registry too.</p>
+ *
+ * <p>Freed space is reused when possible. When a new page would be needed while the existing
+ * pages are mostly empty, the atlas is defragmented first. All methods must be called on the
+ * GL thread.</p>
+ */
+public class TextureAtlas {
+
+    public static final int DEFAULT_PAGE_SIZE = 1024;
+
+    private static final int PADDING = 2;
+
+    private final TextureRegistry registry;
+    private final int pageSize;
+    private final int maxRegionSize;
+
+    private final ArrayList<AtlasPage> pages = new ArrayList<>();
+    private final ArrayList<TextureRegion> regions = new ArrayList<>();
+
+    private final int[] position = new int[2];
+    private final Rect srcRect = new Rect();
+    private final Rect dstRect = new Rect();
+    private final Paint clearPaint = new Paint();
+
+    public TextureAtlas()
+    {
+        this(new TextureRegistry(), DEFAULT_PAGE_SIZE);
+    }
+
+    public TextureAtlas(TextureRegistry registry)
+    {
+        this(registry, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param registry Owner of the textures that are too big for the pages.
+     * @param pageSize Width and height of the page textures. Should be a power of two.
+     */
+    public TextureAtlas(TextureRegistry registry, int pageSize)
+    {
+        this.registry = registry;
+        this.pageSize = pageSize;
+        this.maxRegionSize = pageSize / 2;
+        clearPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+    }
+
+    /**
+     * Copies the bitmap into the atlas. The bitmap is not recycled, it can be recycled by the
+     * caller right after this call.
+     *
+     * <p>Bitmaps bigger than half a page get a texture of their own in the registry. The atlas
+     * can't restore it after the GL context is lost, owners should give it a
+     * {@link TextureRegistry.Reloader}.</p>
+     *
+     * @param bitmap Pixels of the region.
+     * @return the region the bitmap was copied to.
+     */
+    public TextureRegion add(Bitmap bitmap)
+    {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        if(w > maxRegionSize || h > maxRegionSize)
+        {
+            return registry.register(Util.loadTexture(bitmap), bitmap.getByteCount());
+        }
+
+        AtlasPage page = findRoom(w, h);
+        if(page == null)
+        {
+            if(shouldDefragment())
+            {
+                defragment();
+                page = findRoom(w, h);
+            }
+            if(page == null)
+            {
+                page = newPage();
+                page.getPacker().insert(w + PADDING, h + PADDING, position);
+            }
+        }
+
+        TextureRegion region = new TextureRegion(page, position[0], position[1], w, h);
+        page.liveRegions++;
+        regions.add(region);
+
+        clear(page, region);
+        page.getCanvas().drawBitmap(bitmap, region.x, region.y, null);
+
+        if(bitmap.getConfig() == AtlasPage.CONFIG)
+        {
+            page.uploadRegion(bitmap, region.x, region.y);
+        }else{
+            Bitmap converted = bitmap.copy(AtlasPage.CONFIG, false);
+            page.uploadRegion(converted, region.x, region.y);
+            converted.recycle();
+        }
+        return region;
+    }
+
+    private AtlasPage newPage()
+    {
+        AtlasPage page = new AtlasPage(pageSize);
+        pages.add(page);
+        registry.addAtlasBytes(getPageBytes());
+        return page;
+    }
+
+    private void releasePage(AtlasPage page)
+    {
+        page.release(registry);
+        registry.addAtlasBytes(-getPageBytes());
+    }
+
+    private long getPageBytes()
+    {
+        // ARGB_4444 uses 2 bytes per pixel.
+        return (long) pageSize * pageSize * 2;
+    }
+
+    private AtlasPage findRoom(int w, int h)
+    {
+        for(AtlasPage page : pages)
+        {
+            if(page.getPacker().insert(w + PADDING, h + PADDING, position))
+            {
+                return page;
+            }
+        }
+        return null;
+    }
+
+    private void clear(AtlasPage page, TextureRegion region)
+    {
+        page.getCanvas().drawRect(region.x, region.y, region.x + region.width + PADDING,
+                region.y + region.height + PADDING, clearPaint);
+    }
+
+    /**
+     * Gives the space of a region back to the atlas. Regions that are not in the atlas are
+     * released from the {@link TextureRegistry}, their texture is deleted with the last
+     * reference.
+     *
+     * @param region A region returned by {@link #add(Bitmap)}. Null is ignored.
+     */
+    public void free(TextureRegion region)
+    {
+        if(region == null)
+        {
+            return;
+        }
+        if(!region.isInAtlas())
+        {
+            registry.release(region);
+            return;
+        }
+        if(!regions.remove(region))
+        {
+            return;
+        }
+        AtlasPage page = region.page;
+        page.getPacker().remove(region.x, region.y, region.width + PADDING, region.height + PADDING);
+        page.liveRegions--;
+        if(page.liveRegions == 0 && pages.size() > 1)
+        {
+            pages.remove(page);
+            releasePage(page);
+        }
+    }
+
+    private boolean shouldDefragment()
+    {
+        if(pages.isEmpty())
+        {
+            return false;
+        }
+        long used = 0;
+        for(AtlasPage page : pages)
+        {
+            used += page.getPacker().getUsedArea();
+        }
+        long total = (long) pages.size() * pageSize * pageSize;
+        return used * 2 < total;
+    }
+
+    /**
+     * Packs all the live regions again into as few pages as possible. Regions keep their
+     * identity, only their page and UVs change.
+     */
+    public void defragment()
+    {
+        ArrayList<AtlasPage> oldPages = new ArrayList<>(pages);
+        pages.clear();
+
+        ArrayList<TextureRegion> sorted = new ArrayList<>(regions);
+        Collections.sort(sorted, new Comparator<TextureRegion>() {
+            @Override
+            public int compare(TextureRegion lhs, TextureRegion rhs) {
+                return rhs.height - lhs.height;
+            }
+        });
+
+        for(TextureRegion region : sorted)
+        {
+            AtlasPage page = findRoom(region.width, region.height);
+            if(page == null)
+            {
+                page = newPage();
+                page.getPacker().insert(region.width + PADDING, region.height + PADDING, position);
+            }
+            srcRect.set(region.x, region.y, region.x + region.width, region.y + region.height);
+            dstRect.set(position[0], position[1], position[0] + region.width, position[1] + region.height);
+            page.getCanvas().drawBitmap(region.page.getBitmap(), srcRect, dstRect, null);
+            page.liveRegions++;
+            region.moveTo(page, position[0], position[1]);
+        }
+
+        for(AtlasPage page : pages)
+        {
+            page.upload();
+        }
+        for(AtlasPage page : oldPages)
+        {
+            releasePage(page);
+        }
+    }
+
+    /**
+     * Uploads all the pages again. Call this after the GL context was recreated, the old
+     * textures are gone with the old context.
+     */
+    public void restore()
+    {
+        for(AtlasPage page : pages)
+        {
+            page.invalidateTexture();
+            page.upload();
+        }
+    }
+
+    /**
+     * Deletes all the pages. Regions handed out before this call become invalid.
+     */
+    public void release()
+    {
+        for(AtlasPage page : pages)
+        {
+            releasePage(page);
+        }
+        pages.clear();
+        regions.clear();
+    }
+
+    public TextureRegistry getRegistry() {
+        return registry;
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    public int getRegionCount() {
+        return regions.size();
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getMaxRegionSize() {
+        return maxRegionSize;
+    }
+}
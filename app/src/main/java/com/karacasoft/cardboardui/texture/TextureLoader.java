@@ -0,0 +1,310 @@
+package com.karacasoft.cardboardui.texture;
+
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+
+import com.karacasoft.cardboardui.Util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Rasterizes view textures on worker threads and uploads them on the GL thread.
+ *
+ * <p>Drawing text and drawables into bitmaps takes milliseconds per view. Doing it on the GL
+ * thread makes the frame where a list of views appears take hundreds of milliseconds. Views
+ * {@link #submit(Request)} a request instead. Its {@link Request#rasterize()} runs on a worker
+ * thread, and the finished bitmaps wait in a queue.</p>
+ *
+ * <p>{@link com.karacasoft.cardboardui.CardboardUIActivity} calls {@link #uploadPending()} once
+ * per frame. It copies finished bitmaps into the {@link TextureAtlas} until the time or byte
+ * budget of the frame is used, see {@link #setUploadBudget(long, int)}. At least one request
+ * is uploaded per frame, so a big bitmap can't block the queue. Results of requests that are
+ * not {@link Request#isCurrent() current} anymore are given back to the pool without an
+ * upload.</p>
+ *
+ * <p>Requests submitted with {@link TextureParams} get textures of their own instead of atlas
+ * regions, for example to have mipmaps. They are registered in the {@link TextureRegistry} of
+ * the atlas.</p>
+ */
+public class TextureLoader {
+
+    /**
+     * Work for the loader. Read everything the rasterization needs from the view before
+     * submitting, the view may change on the GL thread while the worker draws.
+     */
+    public interface Request {
+
+        /**
+         * Called on a worker thread.
+         *
+         * @return the bitmaps to upload, best taken from {@link #getBitmapPool()}. The loader
+         * gives them back to the pool after the upload.
+         */
+        Bitmap[] rasterize();
+
+        /**
+         * Called on the GL thread before the upload.
+         *
+         * @return false if a newer request replaced this one. Its bitmaps are not uploaded then.
+         */
+        boolean isCurrent();
+
+        /**
+         * Called on the GL thread.
+         *
+         * @param regions Atlas regions of the bitmaps, in the same order.
+         */
+        void onUploaded(TextureRegion[] regions);
+
+        /**
+         * Called on the GL thread if {@link #rasterize()} threw, so the view can submit a new
+         * request.
+         */
+        void onFailed();
+    }
+
+    public static final long DEFAULT_TIME_BUDGET_NANOS = 2000000L;
+    public static final int DEFAULT_BYTE_BUDGET = 512 * 1024;
+
+    private static final String TAG = "TextureLoader";
+    private static final int THREAD_COUNT = 2;
+
+    private final TextureAtlas atlas;
+    private final BitmapPool bitmapPool;
+    private final ExecutorService executor;
+
+    private final ConcurrentLinkedQueue<Result> finished = new ConcurrentLinkedQueue<>();
+
+    private long timeBudgetNanos = DEFAULT_TIME_BUDGET_NANOS;
+    private int byteBudget = DEFAULT_BYTE_BUDGET;
+
+    private int lastFrameUploads = 0;
+    private int lastFrameBytes = 0;
+
+    public TextureLoader(TextureAtlas atlas)
+    {
+        this(atlas, new BitmapPool());
+    }
+
+    /**
+     * @param atlas      Atlas the bitmaps are put into.
+     * @param bitmapPool Pool the uploaded bitmaps are given back to.
+     */
+    public TextureLoader(TextureAtlas atlas, BitmapPool bitmapPool)
+    {
+        this.atlas = atlas;
+        this.bitmapPool = bitmapPool;
+        this.executor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+
+            private int count = 0;
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Keep the workers from competing with the GL thread.
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, TAG + "-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a request. Can be called from any thread.
+     *
+     * @param request The request.
+     */
+    public void submit(Request request)
+    {
+        submit(request, null);
+    }
+
+    /**
+     * Queues a request whose bitmaps get their own textures. Can be called from any thread.
+     *
+     * @param request The request.
+     * @param params  Filtering of the textures, null to put the bitmaps into the atlas.
+     */
+    public void submit(final Request request, final TextureParams params)
+    {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Bitmap[] bitmaps = request.rasterize();
+                    if(bitmaps != null)
+                    {
+                        finished.add(new Result(request, bitmaps, params));
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Texture rasterization failed", e);
+                    finished.add(new Result(request, null, params));
+                }
+            }
+        });
+    }
+
+    /**
+     * Uploads finished requests until the budget of the frame is used. Must be called on the
+     * GL thread.
+     */
+    public void uploadPending()
+    {
+        long start = System.nanoTime();
+        int uploads = 0;
+        int bytes = 0;
+        Result result;
+        while((result = finished.peek()) != null)
+        {
+            if(result.bitmaps == null)
+            {
+                finished.poll();
+                result.request.onFailed();
+                continue;
+            }
+            if(!result.request.isCurrent())
+            {
+                // Replaced while it was rasterized, it would only be freed after the upload.
+                finished.poll();
+                releaseBitmaps(result);
+                continue;
+            }
+            int size = result.getByteCount();
+            if(uploads > 0 && (bytes + size > byteBudget || System.nanoTime() - start > timeBudgetNanos))
+            {
+                break;
+            }
+            finished.poll();
+
+            Bitmap[] bitmaps = result.bitmaps;
+            TextureRegion[] regions = new TextureRegion[bitmaps.length];
+            for(int i = 0; i < bitmaps.length; i++)
+            {
+                if(result.params == null)
+                {
+                    regions[i] = atlas.add(bitmaps[i]);
+                }else{
+                    // The mipmap levels add about a third.
+                    int textureBytes = bitmaps[i].getByteCount();
+                    if(result.params.hasMipmaps())
+                    {
+                        textureBytes += textureBytes / 3;
+                    }
+                    regions[i] = atlas.getRegistry().register(
+                            Util.loadTexture(bitmaps[i], result.params), textureBytes);
+                }
+                bitmapPool.release(bitmaps[i]);
+            }
+            result.request.onUploaded(regions);
+
+            uploads++;
+            bytes += size;
+        }
+        lastFrameUploads = uploads;
+        lastFrameBytes = bytes;
+    }
+
+    /**
+     * Sets how much uploading a frame may do. The first finished request of a frame is always
+     * uploaded.
+     *
+     * @param timeBudgetNanos Time after which no more requests are uploaded.
+     * @param byteBudget      Bitmap bytes after which no more requests are uploaded.
+     */
+    public void setUploadBudget(long timeBudgetNanos, int byteBudget) {
+        this.timeBudgetNanos = timeBudgetNanos;
+        this.byteBudget = byteBudget;
+    }
+
+    public long getTimeBudgetNanos() {
+        return timeBudgetNanos;
+    }
+
+    public int getByteBudget() {
+        return byteBudget;
+    }
+
+    /**
+     * @return the number of requests uploaded on the last frame.
+     */
+    public int getLastFrameUploads() {
+        return lastFrameUploads;
+    }
+
+    public int getLastFrameBytes() {
+        return lastFrameBytes;
+    }
+
+    /**
+     * @return the pool requests should rasterize into. Can be used on any thread.
+     */
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * @return the number of requests rasterized and waiting for upload.
+     */
+    public int getPendingUploads() {
+        return finished.size();
+    }
+
+    /**
+     * Stops the workers and drops the requests that were not uploaded yet.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+        Result result;
+        while((result = finished.poll()) != null)
+        {
+            releaseBitmaps(result);
+        }
+    }
+
+    private void releaseBitmaps(Result result)
+    {
+        if(result.bitmaps == null)
+        {
+            return;
+        }
+        for(Bitmap bitmap : result.bitmaps)
+        {
+            bitmapPool.release(bitmap);
+        }
+    }
+
+    private static class Result {
+
+        final Request request;
+        /** Null if the rasterization failed. */
+        final Bitmap[] bitmaps;
+        final TextureParams params;
+
+        Result(Request request, Bitmap[] bitmaps, TextureParams params)
+        {
+            this.request = request;
+            this.bitmaps = bitmaps;
+            this.params = params;
+        }
+
+        int getByteCount()
+        {
+            int bytes = 0;
+            for(Bitmap bitmap : bitmaps)
+            {
+                bytes += bitmap.getByteCount();
+            }
+            return bytes;
+        }
+    }
+}
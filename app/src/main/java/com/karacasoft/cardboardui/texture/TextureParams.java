@@ -0,0 +1,64 @@
+package com.karacasoft.cardboardui.texture;
+
+import android.opengl.GLES20;
+
+/**
+ * Filtering of a texture that has its own GL texture, outside of the {@link TextureAtlas}.
+ *
+ * <p>UI text is drawn at about its size, so {@link #NEAREST} keeps it sharp and is the
+ * default. Photos are often seen from far away, where they alias without mipmaps. Mipmaps
+ * also make the GPU read less memory for small images. Use {@link #MIPMAPPED} for them.</p>
+ */
+public class TextureParams {
+
+    public static final TextureParams NEAREST = new TextureParams(GLES20.GL_NEAREST, GLES20.GL_NEAREST, false);
+
+    public static final TextureParams LINEAR = new TextureParams(GLES20.GL_LINEAR, GLES20.GL_LINEAR, false);
+
+    public static final TextureParams MIPMAPPED = new TextureParams(GLES20.GL_LINEAR_MIPMAP_LINEAR, GLES20.GL_LINEAR, true);
+
+    private final int minFilter;
+    private final int magFilter;
+    private final boolean mipmaps;
+
+    /**
+     * @param minFilter GL minification filter.
+     * @param magFilter GL magnification filter, GL_NEAREST or GL_LINEAR.
+     * @param mipmaps   true to create or upload the smaller levels. Mipmap min filters need it.
+     */
+    public TextureParams(int minFilter, int magFilter, boolean mipmaps)
+    {
+        if(!mipmaps && minFilter != GLES20.GL_NEAREST && minFilter != GLES20.GL_LINEAR)
+        {
+            throw new IllegalArgumentException("Mipmap filters need mipmaps, the texture would be incomplete");
+        }
+        this.minFilter = minFilter;
+        this.magFilter = magFilter;
+        this.mipmaps = mipmaps;
+    }
+
+    /**
+     * Sets the filters on the texture bound to GL_TEXTURE_2D.
+     *
+     * @param hasMipmaps false if the texture only has its first level. Mipmap filters are
+     *                   replaced with GL_LINEAR then.
+     */
+    public void apply(boolean hasMipmaps)
+    {
+        int min = mipmaps && !hasMipmaps ? GLES20.GL_LINEAR : minFilter;
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, min);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, magFilter);
+    }
+
+    public int getMinFilter() {
+        return minFilter;
+    }
+
+    public int getMagFilter() {
+        return magFilter;
+    }
+
+    public boolean hasMipmaps() {
+        return mipmaps;
+    }
+}
@@ -0,0 +1,119 @@
+package com.karacasoft.cardboardui.texture;
+
+/**
+ * A rectangle on a GL texture, described by its texture handle and UV coordinates.
+ *
+ * <p>Regions handed out by a {@link TextureAtlas} point into one of its pages. The atlas may
+ * move a region to another page or position (see {@link TextureAtlas#defragment()}), so the
+ * texture handle and UVs should be read when drawing, not cached.</p>
+ *
+ * <p>V coordinates grow downwards, like the rows of a bitmap. {@link #getV0()} is the top.</p>
+ */
+public class TextureRegion {
+
+    private int textureHandle;
+
+    AtlasPage page;
+
+    int x;
+    int y;
+    int width;
+    int height;
+
+    private float u0 = 0f;
+    private float v0 = 0f;
+    private float u1 = 1f;
+    private float v1 = 1f;
+
+    // Bookkeeping of the TextureRegistry, for regions that are not in the atlas.
+    int refCount;
+    int byteCount;
+    long lastUsedFrame;
+    TextureRegistry.Reloader reloader;
+    boolean reloadRequested;
+
+    /**
+     * Creates a region covering a whole texture.
+     *
+     * @param textureHandle GL texture handle.
+     */
+    public TextureRegion(int textureHandle)
+    {
+        this.textureHandle = textureHandle;
+    }
+
+    TextureRegion(AtlasPage page, int x, int y, int width, int height)
+    {
+        this.textureHandle = -1;
+        this.width = width;
+        this.height = height;
+        moveTo(page, x, y);
+    }
+
+    void moveTo(AtlasPage page, int x, int y)
+    {
+        this.page = page;
+        this.x = x;
+        this.y = y;
+        float size = page.getSize();
+        u0 = x / size;
+        v0 = y / size;
+        u1 = (x + width) / size;
+        v1 = (y + height) / size;
+    }
+
+    /**
+     * @return the GL texture to bind for this region.
+     */
+    public int getTextureHandle() {
+        if(page != null)
+        {
+            return page.getTextureHandle();
+        }
+        return textureHandle;
+    }
+
+    void setTextureHandle(int textureHandle)
+    {
+        this.textureHandle = textureHandle;
+    }
+
+    /**
+     * @return true if the texture was evicted by the {@link TextureRegistry} and wasn't
+     * loaded again yet.
+     */
+    public boolean isEvicted() {
+        return page == null && textureHandle == 0;
+    }
+
+    /**
+     * @return true if the region is a part of an atlas page.
+     */
+    public boolean isInAtlas() {
+        return page != null;
+    }
+
+    public float getU0() {
+        return u0;
+    }
+
+    public float getV0() {
+        return v0;
+    }
+
+    public float getU1() {
+        return u1;
+    }
+
+    public float getV1() {
+        return v1;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,274 @@
+package com.karacasoft.cardboardui.texture;
+
+import android.opengl.GLES20;
+
+import com.karacasoft.cardboardui.gl.GLState;
+
+import java.util.ArrayList;
+
+/**
+ * Owns the GL textures of the views and keeps their memory under a budget.
+ *
+ * <p>Textures that are not in an atlas page are registered here with their size. They are
+ * reference counted: {@link #register(int, int)} gives the first reference, owners sharing a
+ * texture call {@link #acquire(TextureRegion)}, and the texture is deleted when the last
+ * owner calls {@link #release(TextureRegion)}. Atlas pages are counted too, but they are
+ * owned by the {@link TextureAtlas}.</p>
+ *
+ * <p>Drawing a region marks it as used on the current frame. When the textures take more
+ * than the budget, {@link #beginFrame()} deletes the ones that were drawn the longest time ago,
+ * as long as they have a {@link Reloader}. An evicted region has no texture until it is
+ * drawn again, which asks its reloader for a new one. The same happens to all of them after
+ * the GL context is lost, see {@link #invalidate()}.</p>
+ *
+ * <p>All methods must be called on the GL thread.</p>
+ */
+public class TextureRegistry {
+
+    /**
+     * Creates the texture of an evicted region again.
+     */
+    public interface Reloader {
+
+        /**
+         * Called on the GL thread when an evicted region is drawn. The owner should load the
+         * texture again, either into the region with {@link #restore(TextureRegion, int)} or
+         * by replacing the region.
+         *
+         * @param region The evicted region.
+         */
+        void reload(TextureRegion region);
+    }
+
+    public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    private final ArrayList<TextureRegion> textures = new ArrayList<>();
+    private final int[] handles = new int[1];
+    private final GLState state;
+
+    private long budget = DEFAULT_BUDGET;
+    private long textureBytes = 0;
+    private long atlasBytes = 0;
+
+    private long frame = 0;
+    private int evictionCount = 0;
+
+    public TextureRegistry()
+    {
+        this(null);
+    }
+
+    /**
+     * @param state State cache textures are deleted through, so it doesn't keep a deleted
+     *              texture as bound. Null to delete them directly.
+     */
+    public TextureRegistry(GLState state)
+    {
+        this.state = state;
+    }
+
+    /**
+     * Takes ownership of a texture.
+     *
+     * @param textureHandle GL texture handle.
+     * @param byteCount     Memory used by the texture, for the budget.
+     * @return a region covering the texture, with one reference.
+     */
+    public TextureRegion register(int textureHandle, int byteCount)
+    {
+        TextureRegion region = new TextureRegion(textureHandle);
+        region.byteCount = byteCount;
+        region.refCount = 1;
+        region.lastUsedFrame = frame;
+        textures.add(region);
+        textureBytes += byteCount;
+        return region;
+    }
+
+    /**
+     * Lets the registry evict the texture of the region when it is over the budget.
+     *
+     * @param region   A registered region.
+     * @param reloader Called when the region is drawn after being evicted, null to never
+     *                 evict it.
+     */
+    public void setReloader(TextureRegion region, Reloader reloader)
+    {
+        region.reloader = reloader;
+    }
+
+    /**
+     * Adds a reference to a registered region.
+     */
+    public void acquire(TextureRegion region)
+    {
+        region.refCount++;
+    }
+
+    /**
+     * Removes a reference. The texture is deleted with the last one.
+     *
+     * @param region A registered region. Null is ignored.
+     */
+    public void release(TextureRegion region)
+    {
+        if(region == null || region.refCount <= 0)
+        {
+            return;
+        }
+        region.refCount--;
+        if(region.refCount > 0)
+        {
+            return;
+        }
+        deleteTexture(region);
+        region.reloader = null;
+        textures.remove(region);
+    }
+
+    /**
+     * Gives an evicted region a new texture.
+     *
+     * @param region        The region.
+     * @param textureHandle GL texture handle.
+     */
+    public void restore(TextureRegion region, int textureHandle)
+    {
+        deleteTexture(region);
+        region.setTextureHandle(textureHandle);
+        region.reloadRequested = false;
+        textureBytes += region.byteCount;
+    }
+
+    /**
+     * Deletes a GL texture through the state cache, atlas pages delete theirs here too.
+     */
+    void deleteHandle(int textureHandle)
+    {
+        handles[0] = textureHandle;
+        if(state != null)
+        {
+            state.deleteTextures(1, handles, 0);
+        }else{
+            GLES20.glDeleteTextures(1, handles, 0);
+        }
+    }
+
+    private void deleteTexture(TextureRegion region)
+    {
+        if(region.getTextureHandle() > 0)
+        {
+            deleteHandle(region.getTextureHandle());
+            region.setTextureHandle(0);
+            textureBytes -= region.byteCount;
+        }
+    }
+
+    /**
+     * Marks a region as drawn on this frame. Evicted regions ask their reloader for a new
+     * texture. Regions that are not registered are ignored.
+     *
+     * @return false while the region has no texture, until the reloader restored it. Skip
+     * drawing it then, texture 0 would show a black quad.
+     */
+    public boolean markUsed(TextureRegion region)
+    {
+        if(region.refCount <= 0)
+        {
+            return true;
+        }
+        region.lastUsedFrame = frame;
+        if(region.getTextureHandle() == 0 && region.reloader != null && !region.reloadRequested)
+        {
+            region.reloadRequested = true;
+            region.reloader.reload(region);
+        }
+        // The reloader may have restored it right away.
+        return region.getTextureHandle() != 0;
+    }
+
+    /**
+     * Starts a new frame and evicts textures while the registry is over the budget.
+     */
+    public void beginFrame()
+    {
+        frame++;
+        while(getTotalBytes() > budget)
+        {
+            TextureRegion oldest = null;
+            for(int i = 0; i < textures.size(); i++)
+            {
+                TextureRegion region = textures.get(i);
+                // Textures drawn on the last frame will likely be drawn again.
+                if(region.reloader != null && region.getTextureHandle() > 0
+                        && region.lastUsedFrame < frame - 1
+                        && (oldest == null || region.lastUsedFrame < oldest.lastUsedFrame))
+                {
+                    oldest = region;
+                }
+            }
+            if(oldest == null)
+            {
+                return;
+            }
+            deleteTexture(oldest);
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Forgets all the texture handles without deleting them. Call this after the GL context
+     * was recreated, regions with a reloader get new textures when they are drawn.
+     */
+    public void invalidate()
+    {
+        for(int i = 0; i < textures.size(); i++)
+        {
+            TextureRegion region = textures.get(i);
+            region.setTextureHandle(0);
+            region.reloadRequested = false;
+        }
+        textureBytes = 0;
+    }
+
+    /**
+     * Called by the atlas when it creates or deletes a page.
+     */
+    void addAtlasBytes(long bytes)
+    {
+        atlasBytes += bytes;
+    }
+
+    /**
+     * @return the memory used by the registered textures and the atlas pages.
+     */
+    public long getTotalBytes() {
+        return textureBytes + atlasBytes;
+    }
+
+    public long getAtlasBytes() {
+        return atlasBytes;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @param budget Bytes of texture memory after which textures are evicted.
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return the number of registered textures, evicted ones included.
+     */
+    public int getTextureCount() {
+        return textures.size();
+    }
+
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+}
@@ -1,10 +1,8 @@
 package com.karacasoft.cardboardui.view;
 
-import android.graphics.BitmapFactory;
-
-import com.google.vrtoolkit.cardboard.Eye;
 import com.karacasoft.cardboardui.CardboardUIActivity;
 import com.karacasoft.cardboardui.R;
+import com.karacasoft.cardboardui.render.RenderQueue;
 import com.karacasoft.cardboardui.view.adapter.BaseAdapter3D;
 
 /**
@@ -15,6 +13,11 @@ import com.karacasoft.cardboardui.view.adapter.BaseAdapter3D;
  * <p>List display size can be increased/decreased by using
  * {@link AdapterView3D#setMaxItemsShown(int)}.</p>
  *
+ * <p>Items are children of the list, their sizes and positions are in the units of the list
+ * and its scale applies to all of them. Scaling a list by 2 makes the items twice as big and
+ * twice as far apart. Before items had a parent, the distance between them ignored the scale,
+ * so the items of a scaled list overlapped or left gaps.</p>
+ *
  * <p>Here's a simple AdapterView3D usage:</p>
  * <code>
  *      adView = new AdapterView3D(this);<br  />
@@ -69,7 +72,8 @@ public class AdapterView3D extends View3D {
         if(views[position] == null)
         {
             views[position] = adapter.getView(position);
-            views[position].scale(this.getScaleX(), this.getScaleY(), this.getScaleZ());
+            // Items are placed in the space of the list, they get its scale from it.
+            views[position].setParent(this);
             if(views[position].getWidth() != this.getWidth())
             {
                 views[position].setWidth(this.getWidth());
@@ -90,10 +94,10 @@ public class AdapterView3D extends View3D {
         if(position >= views.length) return false;
         if((v = views[position]) != null)
         {
-            float bottom = (this.getY() + this.getHeight()) * this.getScaleY() - ((position - 1) * itemHeight) - verticalSlideOffset;
+            float bottom = getItemY(position);
             float top = bottom + v.getHeight() * v.getScaleY();
 
-            if(top > (this.getY() + itemHeight) * this.getScaleY() && bottom < (this.getY() + this.getHeight() - itemHeight) * this.getScaleY())
+            if(top > itemHeight && bottom < this.getHeight() - itemHeight)
             {
                 return true;
             }
@@ -107,31 +111,38 @@ public class AdapterView3D extends View3D {
         if(position >= views.length) return;
         if((v = views[position]) != null)
         {
-            float actualX = v.getX() * v.getScaleX();
-            float actualY = v.getY() * v.getScaleY();
+            v.setPosition(0.0f, getItemY(position), 0.0f);
+        }
+    }
 
-            float viewX = this.getX() * this.getScaleX();
-            float viewY = (this.getY() + this.getHeight()) * this.getScaleY() - ((position - 1) * itemHeight) - verticalSlideOffset;
+    /**
+     * @return the bottom of an item in the space of the list.
+     */
+    private float getItemY(int position)
+    {
+        return this.getHeight() - ((position - 1) * itemHeight) - verticalSlideOffset;
+    }
 
-            if(Math.abs(actualX - viewX) > 0.001f || Math.abs(actualY - viewY) > 0.001f)
-            {
-                v.translate(viewX - actualX, viewY - actualY, 0.0f);
-            }
-        }
+    /**
+     * Converts a distance on the screen into the space of the list.
+     */
+    private float toLocalScroll(float worldDistance)
+    {
+        return worldDistance / getWorldMatrix()[5];
     }
 
-    protected void drawUp(Eye eye)
+    protected void submitUp(RenderQueue queue)
     {
         if(upButton == null)
         {
-            upButton = new ImageButton3D(getContext(), BitmapFactory.decodeResource(getContext().getResources(), R.drawable.ic_up));
+            upButton = new ImageButton3D(getContext(), getContext().getResourceCache().getBitmap(R.drawable.ic_up));
             upButton.setWidth(this.getWidth());
-            upButton.scale(this.getScaleX(), this.getScaleY(), this.getScaleZ());
-            upButton.translate(this.getX() * this.getScaleX(), (this.getY() + this.getHeight() - itemHeight) * this.getScaleY(), 0.1f);
+            upButton.setParent(this);
+            upButton.translate(0.0f, this.getHeight() - itemHeight, 0.1f);
             upButton.setOnLookAtListener(new OnLookAtListener() {
                 @Override
                 public void onLookAt(View3D v, float x, float y) {
-                    verticalSlideOffset += (y - (v.getY() * v.getScaleY())) / 10f;
+                    verticalSlideOffset += toLocalScroll(y - v.getWorldBounds()[1]) / 10f;
 
                 }
 
@@ -140,21 +151,21 @@ public class AdapterView3D extends View3D {
             });
             upButton.setFocusModeFocusable(false);
         }
-        upButton.draw(eye);
+        upButton.submit(queue);
     }
 
-    protected void drawDown(Eye eye)
+    protected void submitDown(RenderQueue queue)
     {
         if(downButton == null)
         {
-            downButton = new ImageButton3D(getContext(), BitmapFactory.decodeResource(getContext().getResources(), R.drawable.ic_down));
+            downButton = new ImageButton3D(getContext(), getContext().getResourceCache().getBitmap(R.drawable.ic_down));
             downButton.setWidth(this.getWidth());
-            downButton.scale(this.getScaleX(), this.getScaleY(), this.getScaleZ());
-            downButton.translate(this.getX() * this.getScaleX(), this.getY() * this.getScaleY(), 0.1f);
+            downButton.setParent(this);
+            downButton.translate(0.0f, 0.0f, 0.1f);
             downButton.setOnLookAtListener(new OnLookAtListener() {
                 @Override
                 public void onLookAt(View3D v, float x, float y) {
-                    verticalSlideOffset -= ((v.getHeight() + v.getY()) * v.getScaleY() - y) / 10f;
+                    verticalSlideOffset -= toLocalScroll(v.getWorldBounds()[4] - y) / 10f;
                 }
 
                 @Override
@@ -163,14 +174,17 @@ public class AdapterView3D extends View3D {
             });
             downButton.setFocusModeFocusable(false);
         }
-        downButton.draw(eye);
+        downButton.submit(queue);
     }
 
     @Override
-    public void draw(Eye eye) {
+    public void submit(RenderQueue queue) {
+        // The container itself can be looked at, it is not drawn.
+        getContext().getGazeIndex().addContainer(this);
+        queue.beginGroup();
 
         if(showUpButton) {
-            drawUp(eye);
+            submitUp(queue);
         }
 
         for (int i = 0; i < adapter.getCount(); i++) {
@@ -179,17 +193,20 @@ public class AdapterView3D extends View3D {
                 updateViewPosition(i);
                 View3D v = requestView(i);
                 if(v != null) {
-                    v.draw(eye);
+                    v.submit(queue);
                 }
             }
         }
 
         if(showDownButton) {
-            drawDown(eye);
+            submitDown(queue);
         }
 
+        queue.endGroup();
+
         if(invalidateFlag)
         {
+            releaseItemBuffers();
             this.views = null;
             invalidateFlag = false;
         }
@@ -213,6 +230,25 @@ public class AdapterView3D extends View3D {
         }
     }
 
+    @Override
+    public void releaseBuffers() {
+        super.releaseBuffers();
+        releaseItemBuffers();
+        if(upButton != null) upButton.releaseBuffers();
+        if(downButton != null) downButton.releaseBuffers();
+    }
+
+    protected void releaseItemBuffers()
+    {
+        if(views != null) {
+            for (View3D v : views) {
+                if (v != null) {
+                    v.releaseBuffers();
+                }
+            }
+        }
+    }
+
     @Override
     public void measure() {
         setWidth(itemWidth);
@@ -250,6 +286,10 @@ public class AdapterView3D extends View3D {
         adapter.setViewContext(this);
     }
 
+    /**
+     * @param itemHeight Height of the items and of the up and down buttons, in the units of
+     *                   the list, before its scale.
+     */
     public void setItemHeight(float itemHeight) {
         this.itemHeight = itemHeight;
     }
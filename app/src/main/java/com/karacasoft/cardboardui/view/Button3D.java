@@ -6,18 +6,29 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.support.v4.content.ContextCompat;
 
 import com.karacasoft.cardboardui.CardboardUIActivity;
-import com.karacasoft.cardboardui.R;
-import com.karacasoft.cardboardui.Util;
+import com.karacasoft.cardboardui.gl.GLState;
+import com.karacasoft.cardboardui.gl.ShaderProgram;
+import com.karacasoft.cardboardui.gl.ShaderVariants;
+import com.karacasoft.cardboardui.render.RenderQueue;
+import com.karacasoft.cardboardui.texture.BitmapPool;
+import com.karacasoft.cardboardui.texture.ResourceCache;
+import com.karacasoft.cardboardui.texture.TextureAtlas;
+import com.karacasoft.cardboardui.texture.TextureLoader;
+import com.karacasoft.cardboardui.texture.TextureRegion;
+import com.karacasoft.cardboardui.texture.TextureRegistry;
 
 /**
  * A button implementation. Displays text and highlights when user moves over it.
  *
- * Can display drawables next to the text. Normal and highlighted versions of the drawable must
- * be used in {@link Button3D#setDrawableLeft(int, int)} or {@link Button3D#setDrawableRight(int, int)}.
- * (I wasn't aware of color filters before. So the implementation may look bad, but it works.)
+ * Can display drawables next to the text, see {@link Button3D#setDrawableLeft(int)} and
+ * {@link Button3D#setDrawableRight(int)}.
+ *
+ * The button has a single texture holding the text and the drawables. The background outline
+ * is drawn by the {@link ShaderVariants#BORDER} shader under it, and the hover state and the
+ * focus mode progress by the {@link ShaderVariants#HIGHLIGHT} shader over it, so they animate
+ * without uploads.
  *
  * Created by Karaca on 5/23/2015.
  */
@@ -28,139 +39,234 @@ public class Button3D extends View3D {
     private int textColor = Color.LTGRAY;
     private float textSize = 60f;
 
-    protected int textureHandleNormal = -1;
-    protected int textureHandleHover = -1;
+    /** Corner radius of the background, 10 of the 100 pixels of the height. */
+    private static final float CORNER_RADIUS = 0.1f;
+    /** Stroke width of the background, 4 of the 100 pixels of the height. */
+    private static final float BORDER_WIDTH = 0.04f;
+
+    private int highlightColor = Color.WHITE;
+
+    private final Rect textBounds = new Rect();
 
     protected boolean textureReady = false;
 
+    /** Rasterizes the texture again when a region outside of the atlas lost its texture. */
+    private final TextureRegistry.Reloader reloader = new TextureRegistry.Reloader() {
+        @Override
+        public void reload(TextureRegion region) {
+            if(region == getTextureRegion())
+            {
+                textureReady = false;
+            }
+        }
+    };
+
     private int drawableLeft = -1;
-    private int drawableLeftHover = -1;
     private boolean hasDrawableLeft = false;
     private int drawableRight = -1;
-    private int drawableRightHover = -1;
     private boolean hasDrawableRight = false;
 
     public Button3D(CardboardUIActivity context) {
         super(context);
+        useUnitQuad();
+        // The backgrounds have rounded, see-through corners.
+        setRenderPass(RenderQueue.PASS_TRANSPARENT);
+        setBorder(Color.WHITE, CORNER_RADIUS, BORDER_WIDTH);
     }
 
     public Button3D(CardboardUIActivity context, String text) {
         super(context);
         this.text = text;
+        useUnitQuad();
+        setRenderPass(RenderQueue.PASS_TRANSPARENT);
+        setBorder(Color.WHITE, CORNER_RADIUS, BORDER_WIDTH);
         measure();
-        this.valid = false;
     }
 
     protected void createTexture()
     {
-        Bitmap b = Bitmap.createBitmap((int) (getWidth() * 100), 100, Bitmap.Config.ARGB_4444);
+        // Everything the worker needs is read here, the view may change while it draws.
+        final String text = this.text;
+        final int textColor = this.textColor;
+        final float textSize = this.textSize;
+        final float width = getWidth();
+        final boolean hasDrawableLeft = this.hasDrawableLeft;
+        final int drawableLeft = this.drawableLeft;
+        final boolean hasDrawableRight = this.hasDrawableRight;
+        final int drawableRight = this.drawableRight;
+        final BitmapPool pool = getContext().getTextureLoader().getBitmapPool();
+        final ResourceCache resources = getContext().getResourceCache();
+        final int request = newTextureRequest();
+        textureReady = true;
 
-        Canvas c = new Canvas(b);
+        getContext().getTextureLoader().submit(new TextureLoader.Request() {
+            @Override
+            public Bitmap[] rasterize() {
+                Bitmap b = pool.acquire((int) (width * 100), 100, Bitmap.Config.ARGB_4444);
 
-        Drawable drawable = ContextCompat.getDrawable(getContext(), R.drawable.button3d_bg);
-        if(drawable != null) {
-            drawable.setBounds(0, 0, b.getWidth(), b.getHeight());
-            drawable.draw(c);
-        }
+                Canvas c = pool.getCanvas(b);
+
+                Paint p = new Paint();
+                p.setColor(textColor);
+                p.setTextSize(textSize);
+                p.setTextAlign(Paint.Align.CENTER);
 
-        Paint p = new Paint();
-        p.setColor(textColor);
-        p.setTextSize(textSize);
-        p.setTextAlign(Paint.Align.CENTER);
+                c.drawText(text, (width * 50), textSize, p);
 
-        c.drawText(text, (getWidth() * 50), textSize, p);
+                if(hasDrawableLeft)
+                {
+                    Drawable leftDrawable = resources.getDrawable(drawableLeft);
 
-        Bitmap cpy = b.copy(b.getConfig(), true);
-        Canvas cpyCanvas = new Canvas(cpy);
-        Drawable drawableHover;
+                    if(leftDrawable != null) {
 
-        drawableHover = ContextCompat.getDrawable(getContext(), R.drawable.button3d_bg_hover);
+                        int realWidth = leftDrawable.getIntrinsicWidth();
+                        int realHeight = leftDrawable.getIntrinsicHeight();
 
-        if(drawableHover != null) {
-            if(getContext().isFocusModeOn() && isFocusModeFocusable()) {
-                drawableHover.setBounds(0, (int) (b.getHeight() - (b.getHeight() * ((float) getFocusAnimTime() / 1500f))), b.getWidth(), b.getHeight());
-                setFocusModeTextureUsed(true);
-            } else {
-                drawableHover.setBounds(0, 0, b.getWidth(), b.getHeight());
-            }
-            drawableHover.draw(cpyCanvas);
-        }
+                        float ratio = realWidth / (10f * width);
+                        float lastHeight = realHeight / ratio;
 
-        if(hasDrawableLeft)
-        {
-            Drawable leftDrawable = ContextCompat.getDrawable(getContext(), drawableLeft);
-            Drawable leftDrawableHover = ContextCompat.getDrawable(getContext(), drawableLeftHover);
+                        leftDrawable.setBounds((int) (10 * width),
+                                (int) (50 - lastHeight / 2),
+                                (int) (20 * width),
+                                (int) (50 + lastHeight / 2));
+                        leftDrawable.draw(c);
+                    }
+                }
+                if(hasDrawableRight)
+                {
+                    Drawable rightDrawable = resources.getDrawable(drawableRight);
+
+                    if(rightDrawable != null) {
 
-            if(leftDrawable != null) {
+                        int realWidth = rightDrawable.getIntrinsicWidth();
+                        int realHeight = rightDrawable.getIntrinsicHeight();
 
-                int realWidth = leftDrawable.getIntrinsicWidth();
-                int realHeight = leftDrawable.getIntrinsicHeight();
+                        float ratio = realWidth / (10f * width);
+                        float lastHeight = realHeight / ratio;
+
+                        rightDrawable.setBounds((int) (10 * width),
+                                (int) (50 - lastHeight / 2),
+                                (int) (20 * width),
+                                (int) (50 + lastHeight / 2));
+                        rightDrawable.draw(c);
+                    }
+                }
+                return new Bitmap[]{b};
+            }
 
-                float ratio = realWidth / (10f * getWidth());
-                float lastHeight = realHeight / ratio;
+            @Override
+            public void onUploaded(TextureRegion[] regions) {
+                setTexture(request, regions[0]);
+            }
 
-                leftDrawable.setBounds((int) (10 * getWidth()),
-                        (int) (50 - lastHeight / 2),
-                        (int) (20 * getWidth()),
-                        (int) (50 + lastHeight / 2));
-                leftDrawable.draw(c);
+            @Override
+            public boolean isCurrent() {
+                return isCurrentTextureRequest(request);
             }
-            if(leftDrawableHover != null) {
-                int realWidth = leftDrawableHover.getIntrinsicWidth();
-                int realHeight = leftDrawableHover.getIntrinsicHeight();
-
-                float ratio = realWidth / (10f * getWidth());
-                float lastHeight = realHeight / ratio;
-
-                leftDrawableHover.setBounds((int) (10 * getWidth()),
-                        (int) (50 - lastHeight / 2),
-                        (int) (20 * getWidth()),
-                        (int) (50 + lastHeight / 2));
-                leftDrawableHover.draw(cpyCanvas);
+
+            @Override
+            public void onFailed() {
+                if(isCurrentTextureRequest(request))
+                {
+                    textureReady = false;
+                }
             }
+        });
+    }
+
+    /**
+     * Replaces the texture with the result of a texture request. Results of old requests are
+     * freed. Called on the GL thread.
+     */
+    protected void setTexture(int request, TextureRegion region)
+    {
+        TextureAtlas atlas = getContext().getTextureAtlas();
+        if(!isCurrentTextureRequest(request))
+        {
+            atlas.free(region);
+            return;
         }
-        if(hasDrawableRight)
+        if(!region.isInAtlas())
         {
-            Drawable rightDrawable = ContextCompat.getDrawable(getContext(), drawableRight);
-            Drawable rightDrawableHover = ContextCompat.getDrawable(getContext(), drawableRightHover);
+            // Too wide for the atlas, the bitmap is gone after the upload.
+            atlas.getRegistry().setReloader(region, reloader);
+        }
+        // The old texture stays on screen until the new one is uploaded.
+        atlas.free(getTextureRegion());
+        setTextureRegion(region);
+    }
 
-            if(rightDrawable != null) {
+    /**
+     * Gives the texture back to the atlas.
+     */
+    protected void freeTextures()
+    {
+        getContext().getTextureAtlas().free(getTextureRegion());
+        setTextureRegion(null);
+    }
 
-                int realWidth = rightDrawable.getIntrinsicWidth();
-                int realHeight = rightDrawable.getIntrinsicHeight();
+    @Override
+    protected void releaseTextures() {
+        super.releaseTextures();
+        freeTextures();
+        textureReady = false;
+    }
 
-                float ratio = realWidth / (10f * getWidth());
-                float lastHeight = realHeight / ratio;
+    /**
+     * @return how much of the button is highlighted, from the bottom up: 1 while the user looks
+     * at it, the progress of the focus timer in focus mode, 0 otherwise.
+     */
+    protected float getHighlightProgress()
+    {
+        if(!isLookingAt)
+        {
+            return 0f;
+        }
+        if(getContext().isFocusModeOn() && isFocusModeFocusable())
+        {
+            return getFocusAnimTime() / 1500f;
+        }
+        return 1f;
+    }
 
-                rightDrawable.setBounds((int) (10 * getWidth()),
-                        (int) (50 - lastHeight / 2),
-                        (int) (20 * getWidth()),
-                        (int) (50 + lastHeight / 2));
-                rightDrawable.draw(c);
-            }
-            if(rightDrawableHover != null) {
-                int realWidth = rightDrawableHover.getIntrinsicWidth();
-                int realHeight = rightDrawableHover.getIntrinsicHeight();
-
-                float ratio = realWidth / (10f * getWidth());
-                float lastHeight = realHeight / ratio;
-
-                rightDrawableHover.setBounds((int) (10 * getWidth()),
-                        (int) (50 - lastHeight / 2),
-                        (int) (20 * getWidth()),
-                        (int) (50 + lastHeight / 2));
-                rightDrawableHover.draw(cpyCanvas);
-            }
+    @Override
+    public int getShaderFlags() {
+        int flags = super.getShaderFlags();
+        if(getHighlightProgress() > 0f)
+        {
+            flags |= ShaderVariants.HIGHLIGHT;
         }
-        setTextureHandle(Util.loadTexture(b));
-        textureHandleNormal = getTextureHandle();
+        return flags;
+    }
 
-        p.setColor(invertColor(textColor));
-        cpyCanvas.drawText(text, (getWidth() * 50), textSize, p);
+    @Override
+    protected void applyUniforms(GLState state, ShaderProgram program) {
+        // The background is filled and the text and drawables are inverted, like the old
+        // hover texture.
+        setHighlightUniforms(state, program, 1f, getWidth() / getHeight(), CORNER_RADIUS, true);
+    }
 
-        textureHandleHover = Util.loadTexture(cpy);
-        b.recycle();
-        textureReady = true;
+    /**
+     * Sets the uniforms of {@link ShaderVariants#HIGHLIGHT} with the highlight color and the
+     * progress of the button.
+     *
+     * @param strength     Opacity of the highlight.
+     * @param aspect       Width of the texture divided by its height.
+     * @param cornerRadius Radius of the corners of the background, relative to its height.
+     * @param invert       true to draw the texture with inverted colors on the highlight, false
+     *                     to cover it.
+     */
+    protected void setHighlightUniforms(GLState state, ShaderProgram program, float strength,
+                                        float aspect, float cornerRadius, boolean invert)
+    {
+        if(!program.has(ShaderVariants.HIGHLIGHT))
+        {
+            return;
+        }
+        state.uniform4f(program.getHighlightHandle(), Color.red(highlightColor) / 255f,
+                Color.green(highlightColor) / 255f, Color.blue(highlightColor) / 255f, strength);
+        state.uniform4f(program.getHighlightShapeHandle(), aspect, cornerRadius,
+                getHighlightProgress(), invert ? 1f : 0f);
     }
 
     public static int invertColor(int color)
@@ -170,84 +276,16 @@ public class Button3D extends View3D {
                 255 - Color.blue(color));
     }
 
-    private int textureUpdateCounter = 0;
-
     @Override
     public void update() {
         if(!textureReady) createTexture();
         super.update();
-        if(isLookingAt)
-        {
-            if(getContext().isFocusModeOn() && isFocusModeFocusable()) {
-                if(textureUpdateCounter > 6) {
-                    createTexture();
-                    textureUpdateCounter = 0;
-                } else {
-                    textureUpdateCounter++;
-                }
-            } else {
-                if(isFocusModeTextureUsed())
-                {
-                    createTexture();
-                }
-            }
-            setTextureHandle(textureHandleHover);
-        }else{
-            setTextureHandle(textureHandleNormal);
-        }
-        if(!valid)
-        {
-            float[] vertices = {
-                    0.0f, 0.0f ,0.0f,
-                    0.0f, getHeight(), 0.0f,
-                    getWidth(), 0.0f, 0.0f,
-                    getWidth(), getHeight(), 0.0f
-            };
-            getViewData().setVerticesData(vertices);
-
-            short[] verticesDrawOrder = {
-                    0, 1, 2, 2, 1, 3
-            };
-
-            getViewData().setVerticesDrawOrder(verticesDrawOrder);
-
-            float[] colors = {
-                    0.0f, 0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 0.0f, 1.0f
-            };
-
-            float[] normals = {
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 1.0f
-            };
-
-            float[] textures = {
-                    0.0f, 1.0f,
-                    0.0f, 0.0f,
-                    1.0f, 1.0f,
-                    1.0f, 0.0f
-            };
-
-            getViewData().setTextureData(textures);
-            getViewData().setColorData(colors);
-            getViewData().setNormalData(normals);
-
-            initializeBuffers();
-
-            valid = true;
-        }
     }
 
     @Override
     public void measure() {
-        Paint p = new Paint();
-        p.setTextSize(90f);
-        Rect bounds = new Rect();
-        p.getTextBounds(this.text, 0, this.text.length(), bounds);
+        Rect bounds = textBounds;
+        getContext().getTextMetrics().getTextBounds(this.text, 90f, null, bounds);
         setWidth((float) bounds.width() / bounds.height());
         setHeight(1.0f);
     }
@@ -270,20 +308,54 @@ public class Button3D extends View3D {
         this.textColor = textColor;
     }
 
-    public void setDrawableLeft(int drawableLeft, int drawableLeftHover) {
+    /**
+     * Shows a drawable on the left. Its colors are inverted while the button is highlighted.
+     */
+    public void setDrawableLeft(int drawableLeft) {
         this.drawableLeft = drawableLeft;
-        this.drawableLeftHover = drawableLeftHover;
         this.hasDrawableLeft = true;
         textureReady = false;
     }
 
-    public void setDrawableRight(int drawableRight, int drawableRightHover) {
+    /**
+     * @deprecated The hover drawable is not used anymore, the highlight inverts the colors of
+     * the drawable. Use {@link #setDrawableLeft(int)}.
+     */
+    @Deprecated
+    public void setDrawableLeft(int drawableLeft, int drawableLeftHover) {
+        setDrawableLeft(drawableLeft);
+    }
+
+    /**
+     * Shows a drawable on the right. Its colors are inverted while the button is highlighted.
+     */
+    public void setDrawableRight(int drawableRight) {
         this.drawableRight = drawableRight;
-        this.drawableRightHover = drawableRightHover;
         this.hasDrawableRight = true;
         textureReady = false;
     }
 
+    /**
+     * @deprecated The hover drawable is not used anymore, the highlight inverts the colors of
+     * the drawable. Use {@link #setDrawableRight(int)}.
+     */
+    @Deprecated
+    public void setDrawableRight(int drawableRight, int drawableRightHover) {
+        setDrawableRight(drawableRight);
+    }
+
+    public int getHighlightColor() {
+        return highlightColor;
+    }
+
+    /**
+     * @param highlightColor Color the background is filled with while the button is
+     *                       highlighted. White by default.
+     */
+    public void setHighlightColor(int highlightColor) {
+        this.highlightColor = highlightColor;
+    }
+
     public void setTextSize(float textSize) {
         this.textSize = textSize;
     }
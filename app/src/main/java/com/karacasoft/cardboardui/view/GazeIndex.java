@@ -0,0 +1,144 @@
+package com.karacasoft.cardboardui.view;
+
+import com.karacasoft.cardboardui.render.RayPicker;
+
+import java.util.Arrays;
+
+/**
+ * Finds the view the user is looking at, once per frame.
+ *
+ * <p>Views are added with {@link #add(View3D)} while they are submitted, containers with
+ * {@link #addContainer(View3D)}. {@link #finish()} hands them to a {@link RayPicker}. While the
+ * same views are submitted in the same order, its tree is only refitted to their new bounds.
+ * It is built again when views come or go, or when refitting made it too loose.</p>
+ *
+ * <p>At the start of the next frame, {@link #pick(float[])} casts the gaze ray. The nearest
+ * view hit is the hovered one, and {@link View3D#isLookingAt()} reads it from
+ * {@link #getHitView()}. Rotated and scaled views are hit where they are drawn, and a
+ * container is only hit where none of the views added with {@link #add(View3D)} is. Must be
+ * used on the GL thread.</p>
+ */
+public class GazeIndex {
+
+    private final RayPicker picker = new RayPicker();
+
+    private View3D[] views = new View3D[64];
+    private View3D[] submitted = new View3D[64];
+    private int viewCount = 0;
+    private int submittedCount = 0;
+    private boolean changed = true;
+
+    private View3D hitView = null;
+
+    /**
+     * Starts collecting the views of a frame.
+     */
+    public void begin()
+    {
+        submittedCount = 0;
+        changed = false;
+        picker.begin();
+    }
+
+    /**
+     * Adds a view with its current transform and bounds.
+     */
+    public void add(View3D v)
+    {
+        add(v, RayPicker.LAYER_VIEW);
+    }
+
+    /**
+     * Adds a view holding other views. It is hit only where its children are not.
+     */
+    public void addContainer(View3D v)
+    {
+        add(v, RayPicker.LAYER_CONTAINER);
+    }
+
+    private void add(View3D v, int layer)
+    {
+        int index = submittedCount;
+        if(index == submitted.length)
+        {
+            submitted = Arrays.copyOf(submitted, index * 2);
+        }
+        picker.add(v.getWorldBounds(), v.getDrawMatrix(), v.getLocalBounds(),
+                v.isVisible() ? layer : RayPicker.LAYER_NONE);
+        if(index >= viewCount || views[index] != v)
+        {
+            changed = true;
+        }
+        submitted[index] = v;
+        submittedCount++;
+    }
+
+    /**
+     * Updates the picker with the views added since {@link #begin()}.
+     */
+    public void finish()
+    {
+        boolean rebuild = changed || submittedCount != viewCount;
+        if(rebuild)
+        {
+            View3D[] swap = views;
+            views = submitted;
+            submitted = swap;
+            // The old list must not keep removed views alive.
+            Arrays.fill(submitted, null);
+            viewCount = submittedCount;
+        }else{
+            Arrays.fill(submitted, 0, submittedCount, null);
+        }
+        picker.finish(rebuild);
+    }
+
+    /**
+     * Finds the nearest view on the gaze ray, which starts at the eye and goes down the -z axis
+     * of the view matrix.
+     *
+     * @param viewMatrix View matrix of the frame, the head view and the camera.
+     * @return the view hit, null if there is none. Also kept in {@link #getHitView()}.
+     */
+    public View3D pick(float[] viewMatrix)
+    {
+        int item = picker.pick(viewMatrix);
+        hitView = item == -1 ? null : views[item];
+        return hitView;
+    }
+
+    /**
+     * @return the view found by the last {@link #pick(float[])}, null if the gaze hit nothing.
+     */
+    public View3D getHitView() {
+        return hitView;
+    }
+
+    /**
+     * @return distance of the hit from the eye, NaN if the gaze hit nothing.
+     */
+    public float getHitDistance() {
+        return picker.getHitDistance();
+    }
+
+    /**
+     * @return the world position of the hit. Do not modify the array.
+     */
+    public float[] getHitPoint() {
+        return picker.getHitPoint();
+    }
+
+    /**
+     * @return the number of views in the tree.
+     */
+    public int getViewCount() {
+        return viewCount;
+    }
+
+    /**
+     * @return how many times the tree was built from scratch, refits don't count.
+     */
+    public int getBuildCount() {
+        return picker.getBuildCount();
+    }
+}
@@ -1,12 +1,14 @@
 package com.karacasoft.cardboardui.view;
 
-import com.google.vrtoolkit.cardboard.Eye;
 import com.karacasoft.cardboardui.CardboardUIActivity;
+import com.karacasoft.cardboardui.render.RenderQueue;
 import com.karacasoft.cardboardui.view.adapter.BaseAdapter3D;
 
 /**
  * A subclass of AdapterView3D that shows View3D items in a grid.
  *
+ * Item sizes are in the units of the grid, before its scale, see {@link AdapterView3D}.
+ *
  * Created by Karaca on 6/8/2015.
  */
 public class GridView3D extends AdapterView3D {
@@ -34,7 +36,7 @@ public class GridView3D extends AdapterView3D {
         measure();
     }
 
-    private void drawLeft(Eye eye)
+    private void submitLeft(RenderQueue queue)
     {
         if(leftButton == null)
         {
@@ -44,8 +46,8 @@ public class GridView3D extends AdapterView3D {
             leftButton.setHeight(itemHeight * verticalTiles);
             leftButton.invalidate();
 
-            leftButton.scale(this.getScaleX(), this.getScaleY(), this.getScaleZ());
-            leftButton.translate(this.getX() * this.getScaleX() - leftButton.getWidth() * leftButton.getScaleX(), -itemHeight * (verticalTiles - 1), 0.1f);
+            leftButton.setParent(this);
+            leftButton.translate(-leftButton.getWidth(), -itemHeight * (verticalTiles - 1), 0.1f);
             leftButton.setOnLookAtListener(new View3D.OnLookAtListener() {
                 @Override
                 public void onLookAt(View3D v, float x, float y) {
@@ -57,10 +59,10 @@ public class GridView3D extends AdapterView3D {
             });
             leftButton.setFocusModeFocusable(false);
         }
-        leftButton.draw(eye);
+        leftButton.submit(queue);
     }
 
-    private void drawRight(Eye eye)
+    private void submitRight(RenderQueue queue)
     {
         if(rightButton == null)
         {
@@ -70,8 +72,8 @@ public class GridView3D extends AdapterView3D {
             rightButton.setHeight(itemHeight * verticalTiles);
             rightButton.invalidate();
 
-            rightButton.scale(this.getScaleX(), this.getScaleY(), this.getScaleZ());
-            rightButton.translate(this.getX() * this.getScaleX() + this.getWidth() * this.getScaleX(), -itemHeight * (verticalTiles - 1), 0.1f);
+            rightButton.setParent(this);
+            rightButton.translate(this.getWidth(), -itemHeight * (verticalTiles - 1), 0.1f);
             rightButton.setOnLookAtListener(new View3D.OnLookAtListener() {
                 @Override
                 public void onLookAt(View3D v, float x, float y) {
@@ -84,7 +86,7 @@ public class GridView3D extends AdapterView3D {
             });
             rightButton.setFocusModeFocusable(false);
         }
-        rightButton.draw(eye);
+        rightButton.submit(queue);
     }
 
     @Override
@@ -95,6 +97,7 @@ public class GridView3D extends AdapterView3D {
             return views[position];
         }
         View3D v = adapter.getView(position);
+        v.setParent(this);
 
         if(fitMethod == FIT_METHOD_CHANGE_WIDTH_HEIGHT)
         {
@@ -121,11 +124,10 @@ public class GridView3D extends AdapterView3D {
     @Override
     protected boolean isViewVisible(int position)
     {
-        float viewLeftPos = (this.getX() - horizontalSlideOffset) * this.getScaleX() + (position / verticalTiles) * itemWidth;
+        float viewLeftPos = getItemX(position);
         float viewRightPos = viewLeftPos + requestView(position).getWidth() * requestView(position).getScaleX();
 
-        if(viewLeftPos < (this.getX() + this.getWidth()) * this.getScaleX() &&
-                viewRightPos > (this.getX()) * this.getScaleX())
+        if(viewLeftPos < this.getWidth() && viewRightPos > 0)
         {
             return true;
         }
@@ -135,18 +137,15 @@ public class GridView3D extends AdapterView3D {
     @Override
     protected void updateViewPosition(int position)
     {
-        View3D v = requestView(position);
-
-        float actualX = v.getX() * v.getScaleX();
-        float actualY = v.getY() * v.getScaleY();
-
-        float viewX = (this.getX() - horizontalSlideOffset) * this.getScaleX() + (position / verticalTiles) * itemWidth;
-        float viewY = this.getY() * this.getScaleY() - (position % verticalTiles) * itemHeight;
+        requestView(position).setPosition(getItemX(position), -(position % verticalTiles) * itemHeight, 0);
+    }
 
-        if(Math.abs(viewX - actualX) > 0.001f || Math.abs(viewY - actualY) > 0.001f)
-        {
-            v.translate(viewX - actualX, viewY - actualY, 0);
-        }
+    /**
+     * @return the left side of an item in the space of the grid.
+     */
+    private float getItemX(int position)
+    {
+        return -horizontalSlideOffset + (position / verticalTiles) * itemWidth;
     }
 
     @Override
@@ -161,16 +160,19 @@ public class GridView3D extends AdapterView3D {
     }
 
     @Override
-    public void draw(Eye eye) {
-        drawLeft(eye);
-        drawRight(eye);
+    public void submit(RenderQueue queue) {
+        getContext().getGazeIndex().addContainer(this);
+        queue.beginGroup();
+        submitLeft(queue);
+        submitRight(queue);
         for(int i = 0; i < adapter.getCount(); i++)
         {
             if(isViewVisible(i)) {
                 updateViewPosition(i);
-                requestView(i).draw(eye);
+                requestView(i).submit(queue);
             }
         }
+        queue.endGroup();
     }
 
     @Override
@@ -180,6 +182,13 @@ public class GridView3D extends AdapterView3D {
 //        itemHeight *= y;
     }
 
+    @Override
+    public void releaseBuffers() {
+        super.releaseBuffers();
+        if(leftButton != null) leftButton.releaseBuffers();
+        if(rightButton != null) rightButton.releaseBuffers();
+    }
+
     @Override
     public void measure() {
         setWidth(itemWidth * horizontalTiles);
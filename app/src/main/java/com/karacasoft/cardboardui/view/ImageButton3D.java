@@ -8,18 +8,19 @@ import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.drawable.Drawable;
-import android.support.v4.content.ContextCompat;
 
 import com.karacasoft.cardboardui.CardboardUIActivity;
-import com.karacasoft.cardboardui.R;
-import com.karacasoft.cardboardui.Util;
+import com.karacasoft.cardboardui.gl.GLState;
+import com.karacasoft.cardboardui.gl.ShaderProgram;
+import com.karacasoft.cardboardui.texture.BitmapPool;
+import com.karacasoft.cardboardui.texture.TextureLoader;
+import com.karacasoft.cardboardui.texture.TextureRegion;
 
 /**
  * A subclass of Button3D that is used to show a custom image on a normal Button3D.
  *
  * If you want to display an image right next to the Button. You might want to check
- * {@link Button3D#setDrawableLeft(int, int)} and {@link Button3D#setDrawableRight(int, int)}.
+ * {@link Button3D#setDrawableLeft(int)} and {@link Button3D#setDrawableRight(int)}.
  *
  * Created by Karaca on 6/3/2015.
  */
@@ -27,51 +28,65 @@ public class ImageButton3D extends Button3D {
 
     private Bitmap bitmap;
 
+    /** Radius of the rounded corners cut into the bitmap, in its pixels. */
+    private static final float CORNER_RADIUS = 10f;
+
+    /** Stroke width of the outline around the bitmap, in its pixels. */
+    private static final float BORDER_WIDTH = 4f;
+
+    /** Opacity of the highlight while the user looks at the button outside of focus mode. */
+    private static final float HOVER_STRENGTH = 0.3f;
+
     @Override
     protected void createTexture() {
-        Bitmap b = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_4444);
-
-        Canvas c = new Canvas(b);
-
-        c.drawBitmap(this.bitmap, 0, 0, null);
-
-        Drawable drawable = ContextCompat.getDrawable(getContext(), R.drawable.button3d_bg);
-        if(drawable != null) {
-            drawable.setBounds(0, 0, b.getWidth(), b.getHeight());
-            drawable.draw(c);
-        }
-
-        setTextureHandle(Util.loadTexture(b));
-        textureHandleNormal = getTextureHandle();
-
-        Drawable drawableHover;
-
-        if(getContext().isFocusModeOn() && isFocusModeFocusable())
-        {
-            drawableHover = ContextCompat.getDrawable(getContext(), R.drawable.button3d_bg_hover);
-        } else {
-            drawableHover = ContextCompat.getDrawable(getContext(), R.drawable.imagebutton3d_hover);
-        }
-        if(drawableHover != null) {
-            if(getContext(). isFocusModeOn() && isFocusModeFocusable()) {
-                drawableHover.setBounds(0, (int) (b.getHeight() - (b.getHeight() * ((float) getFocusAnimTime() / 1500f))), b.getWidth(), b.getHeight());
-                setFocusModeTextureUsed(true);
-            } else {
-                drawableHover.setBounds(0, 0, b.getWidth(), b.getHeight());
+        final Bitmap bitmap = this.bitmap;
+        final BitmapPool pool = getContext().getTextureLoader().getBitmapPool();
+        final int request = newTextureRequest();
+        textureReady = true;
+
+        getContext().getTextureLoader().submit(new TextureLoader.Request() {
+            @Override
+            public Bitmap[] rasterize() {
+                Bitmap b = pool.acquire(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_4444);
+
+                Canvas c = pool.getCanvas(b);
+
+                c.drawBitmap(bitmap, 0, 0, null);
+                return new Bitmap[]{b};
             }
-            drawableHover.draw(c);
-        }
 
-        textureHandleHover = Util.loadTexture(b);
-        b.recycle();
-        textureReady = true;
+            @Override
+            public void onUploaded(TextureRegion[] regions) {
+                setTexture(request, regions[0]);
+            }
+
+            @Override
+            public boolean isCurrent() {
+                return isCurrentTextureRequest(request);
+            }
+
+            @Override
+            public void onFailed() {
+                if(isCurrentTextureRequest(request))
+                {
+                    textureReady = false;
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void applyUniforms(GLState state, ShaderProgram program) {
+        // Focus mode covers the image as it fills, hovering only lightens it.
+        float strength = getContext().isFocusModeOn() && isFocusModeFocusable() ? 1f : HOVER_STRENGTH;
+        setHighlightUniforms(state, program, strength, (float) bitmap.getWidth() / bitmap.getHeight(),
+                CORNER_RADIUS / bitmap.getHeight(), false);
     }
 
     public ImageButton3D(CardboardUIActivity context, Bitmap bitmap) {
         super(context);
         this.setBitmap(bitmap);
         measure();
-        this.valid = false;
     }
 
     @Override
@@ -98,6 +113,8 @@ public class ImageButton3D extends Button3D {
         c.drawBitmap(bitmap, r, r, p);
 
         this.bitmap = output;
+        // The outline of the button background, in pixels of the bitmap.
+        setBorder(Color.WHITE, CORNER_RADIUS / output.getHeight(), BORDER_WIDTH / output.getHeight());
         textureReady = false;
     }
 }
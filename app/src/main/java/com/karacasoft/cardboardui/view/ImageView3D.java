@@ -4,93 +4,167 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 
 import com.karacasoft.cardboardui.CardboardUIActivity;
-import com.karacasoft.cardboardui.Util;
+import com.karacasoft.cardboardui.texture.BitmapPool;
+import com.karacasoft.cardboardui.texture.CompressedTexture;
+import com.karacasoft.cardboardui.texture.TextureAtlas;
+import com.karacasoft.cardboardui.texture.TextureLoader;
+import com.karacasoft.cardboardui.texture.TextureParams;
+import com.karacasoft.cardboardui.texture.TextureRegion;
+import com.karacasoft.cardboardui.texture.TextureRegistry;
 
 /**
  * Simple View implementation to show images on 3D UI.
  *
+ * By default the image is put into the texture atlas. Big photos should get a texture of
+ * their own with mipmaps, see {@link #setTextureParams(TextureParams)}, or be loaded
+ * pre-compressed with {@link #ImageView3D(CardboardUIActivity, CompressedTexture)}.
+ *
+ * Textures of their own may be evicted by the {@link TextureRegistry} when the view is not
+ * seen for a while. They are loaded again when the view is drawn.
+ *
  * Created by Karaca on 6/11/2015.
  */
 public class ImageView3D extends View3D {
 
     private Bitmap bitmap;
+    private CompressedTexture compressedTexture;
+    private TextureParams textureParams;
     private boolean textureReady = false;
-    private void createTexture() {
-        Bitmap b = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_4444);
 
-        Canvas c = new Canvas(b);
-
-        c.drawBitmap(this.bitmap, 0, 0, null);
+    private final TextureRegistry.Reloader reloader = new TextureRegistry.Reloader() {
+        @Override
+        public void reload(TextureRegion region) {
+            if(region == getTextureRegion())
+            {
+                textureReady = false;
+            }
+        }
+    };
 
-        setTextureHandle(Util.loadTexture(b));
+    private void createTexture() {
+        if(compressedTexture != null)
+        {
+            // Compressed data is uploaded as it is, there is nothing to rasterize.
+            TextureParams params = textureParams != null ? textureParams : TextureParams.LINEAR;
+            int handle = compressedTexture.upload(params, getContext().getGLState());
+            TextureRegistry registry = getContext().getTextureRegistry();
+            TextureRegion region = registry.register(handle, compressedTexture.getByteCount());
+            registry.setReloader(region, reloader);
+            getContext().getTextureAtlas().free(getTextureRegion());
+            setTextureRegion(region);
+            textureReady = true;
+            return;
+        }
 
-        b.recycle();
+        final Bitmap bitmap = this.bitmap;
+        // Photos with a texture of their own don't need the alpha channel of the atlas.
+        final Bitmap.Config config = textureParams != null && !bitmap.hasAlpha()
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_4444;
+        final BitmapPool pool = getContext().getTextureLoader().getBitmapPool();
+        final int request = newTextureRequest();
         textureReady = true;
+
+        getContext().getTextureLoader().submit(new TextureLoader.Request() {
+            @Override
+            public Bitmap[] rasterize() {
+                Bitmap b = pool.acquire(bitmap.getWidth(), bitmap.getHeight(), config);
+
+                Canvas c = pool.getCanvas(b);
+
+                c.drawBitmap(bitmap, 0, 0, null);
+                return new Bitmap[]{b};
+            }
+
+            @Override
+            public void onUploaded(TextureRegion[] regions) {
+                TextureAtlas atlas = getContext().getTextureAtlas();
+                if(!isCurrentTextureRequest(request))
+                {
+                    atlas.free(regions[0]);
+                    return;
+                }
+                if(!regions[0].isInAtlas())
+                {
+                    atlas.getRegistry().setReloader(regions[0], reloader);
+                }
+                atlas.free(getTextureRegion());
+                setTextureRegion(regions[0]);
+            }
+
+            @Override
+            public boolean isCurrent() {
+                return isCurrentTextureRequest(request);
+            }
+
+            @Override
+            public void onFailed() {
+                if(isCurrentTextureRequest(request))
+                {
+                    textureReady = false;
+                }
+            }
+        }, textureParams);
     }
 
     public ImageView3D(CardboardUIActivity context, Bitmap bitmap) {
         super(context);
         this.bitmap = bitmap;
-        createTexture();
+        useUnitQuad();
+        measure();
+    }
+
+    /**
+     * Shows a pre-compressed ETC1 or ETC2 texture. It gets a texture of its own, filtered
+     * linearly unless {@link #setTextureParams(TextureParams)} says otherwise.
+     *
+     * @param context The activity.
+     * @param texture Texture read with {@link CompressedTexture#read(java.io.InputStream)}.
+     */
+    public ImageView3D(CardboardUIActivity context, CompressedTexture texture) {
+        super(context);
+        this.compressedTexture = texture;
+        useUnitQuad();
         measure();
-        valid = false;
     }
 
     @Override
     public void update() {
         if(!textureReady) createTexture();
         super.update();
-        if(!valid)
-        {
-            float[] vertices = {
-                    0.0f, 0.0f ,0.0f,
-                    0.0f, getHeight(), 0.0f,
-                    getWidth(), 0.0f, 0.0f,
-                    getWidth(), getHeight(), 0.0f
-            };
-            getViewData().setVerticesData(vertices);
-
-            short[] verticesDrawOrder = {
-                    0, 1, 2, 2, 1, 3
-            };
-
-            getViewData().setVerticesDrawOrder(verticesDrawOrder);
-
-            float[] colors = {
-                    0.0f, 0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 0.0f, 1.0f
-            };
-
-            float[] normals = {
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 1.0f
-            };
-
-            float[] textures = {
-                    0.0f, 1.0f,
-                    0.0f, 0.0f,
-                    1.0f, 1.0f,
-                    1.0f, 0.0f
-            };
-
-            getViewData().setTextureData(textures);
-            getViewData().setColorData(colors);
-            getViewData().setNormalData(normals);
-
-            initializeBuffers();
-
-            valid = true;
-        }
     }
 
     @Override
     public void measure() {
-        setWidth((float) bitmap.getWidth() / bitmap.getHeight());
+        if(compressedTexture != null)
+        {
+            setWidth((float) compressedTexture.getWidth() / compressedTexture.getHeight());
+        }else{
+            setWidth((float) bitmap.getWidth() / bitmap.getHeight());
+        }
         setHeight(1.0f);
     }
 
+    @Override
+    protected void releaseTextures() {
+        super.releaseTextures();
+        getContext().getTextureAtlas().free(getTextureRegion());
+        setTextureRegion(null);
+        textureReady = false;
+    }
+
+    public TextureParams getTextureParams() {
+        return textureParams;
+    }
+
+    /**
+     * Gives the image a texture of its own, outside of the atlas, with the given filtering.
+     * Use {@link TextureParams#MIPMAPPED} for photos that are seen from far away.
+     *
+     * @param textureParams Filtering of the texture, null to put the image into the atlas.
+     */
+    public void setTextureParams(TextureParams textureParams) {
+        this.textureParams = textureParams;
+        textureReady = false;
+    }
+
 }
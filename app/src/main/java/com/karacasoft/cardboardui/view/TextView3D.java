@@ -1,53 +1,148 @@
 package com.karacasoft.cardboardui.view;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
 
 import com.karacasoft.cardboardui.CardboardUIActivity;
-import com.karacasoft.cardboardui.Util;
+import com.karacasoft.cardboardui.gl.ShaderVariants;
+import com.karacasoft.cardboardui.render.RenderQueue;
+import com.karacasoft.cardboardui.text.SdfFont;
 
 /**
  * Simple View implementation that shows text on it.
  *
+ * The text is laid out as one quad per glyph of a {@link SdfFont}, over a quad for the
+ * background. Changing the text only rewrites the vertex buffer of the view, there is no
+ * texture upload, so labels like counters and clocks can change every frame. The glyphs are
+ * distance fields and stay sharp at any distance.
+ *
+ * The view is 1 unit high, the line of the font fits into it.
+ *
  * Created by Karaca on 5/23/2015.
  */
 public class TextView3D extends View3D {
 
+    /** Glyphs are slightly in front of the background, so the depth test keeps them. */
+    private static final float GLYPH_Z = 0.001f;
+
     private String text;
 
     private int backgroundColor = Color.WHITE;
     private int textColor = Color.BLACK;
 
-    private boolean textureReady = false;
+    private final SdfFont font;
+    private final ViewData textData = new ViewData();
+    private boolean layoutReady = false;
 
     public TextView3D(CardboardUIActivity context, String text)
     {
         super(context);
         this.text = text;
+        this.font = context.getDefaultFont();
+        setViewData(textData);
+        setShaderFlags(ShaderVariants.TEXTURED | ShaderVariants.VERTEX_COLOR | ShaderVariants.DISTANCE_FIELD);
+        // Glyph edges are blended.
+        setRenderPass(RenderQueue.PASS_TRANSPARENT);
         measure();
-        valid = false;
     }
 
-    private void createTexture()
+    /**
+     * @return the size of an atlas pixel of the font in view units.
+     */
+    private float getFontScale()
     {
-        Bitmap b = Bitmap.createBitmap((int) (getWidth() * 100), 100, Bitmap.Config.ARGB_4444);
+        return 1f / (font.getDescent() - font.getAscent());
+    }
 
-        Canvas c = new Canvas(b);
-        c.drawColor(backgroundColor);
+    /**
+     * Writes the quads of the background and the glyphs into the view data. The arrays are
+     * reused while the number of quads stays the same.
+     */
+    private void layout()
+    {
+        boolean hasBackground = Color.alpha(backgroundColor) != 0;
+        int quads = hasBackground ? 1 : 0;
+        for(int i = 0; i < text.length(); i++)
+        {
+            if(font.getGlyph(text.charAt(i)).isDrawable())
+            {
+                quads++;
+            }
+        }
 
-        Paint p = new Paint();
-        p.setColor(textColor);
-        p.setTextSize(90f);
-        p.setTextAlign(Paint.Align.CENTER);
+        float[] vertices = textData.getVerticesData();
+        if(vertices == null || vertices.length != quads * 12)
+        {
+            textData.setVerticesData(new float[quads * 12]);
+            textData.setColorData(new float[quads * 16]);
+            textData.setTextureData(new float[quads * 8]);
+            short[] drawOrder = new short[quads * 6];
+            for(int i = 0; i < quads; i++)
+            {
+                int v = i * 4;
+                drawOrder[i * 6] = (short) v;
+                drawOrder[i * 6 + 1] = (short) (v + 1);
+                drawOrder[i * 6 + 2] = (short) (v + 2);
+                drawOrder[i * 6 + 3] = (short) (v + 2);
+                drawOrder[i * 6 + 4] = (short) (v + 1);
+                drawOrder[i * 6 + 5] = (short) (v + 3);
+            }
+            textData.setVerticesDrawOrder(drawOrder);
+        }
 
-        c.drawText(text, (getWidth() * 50), 90, p);
+        float scale = getFontScale();
+        float baseline = font.getDescent() * scale;
+        int quad = 0;
+        if(hasBackground)
+        {
+            putQuad(quad++, 0f, 0f, getWidth(), 1f, 0f, font.getSolidU(), font.getSolidV(),
+                    font.getSolidU(), font.getSolidV(), backgroundColor);
+        }
+        float pen = 0f;
+        for(int i = 0; i < text.length(); i++)
+        {
+            SdfFont.Glyph glyph = font.getGlyph(text.charAt(i));
+            if(glyph.isDrawable())
+            {
+                float left = pen + glyph.getLeft() * scale;
+                float top = baseline - glyph.getTop() * scale;
+                putQuad(quad++, left, top - glyph.getHeight() * scale, left + glyph.getWidth() * scale, top,
+                        GLYPH_Z, glyph.getU0(), glyph.getV0(), glyph.getU1(), glyph.getV1(), textColor);
+            }
+            pen += glyph.getAdvance() * scale;
+        }
+        initializeBuffers();
+    }
 
-        setTextureHandle(Util.loadTexture(b));
-        b.recycle();
-        textureReady = true;
+    private void putQuad(int quad, float x0, float y0, float x1, float y1, float z,
+                         float u0, float v0, float u1, float v1, int color)
+    {
+        // Same corners as the shared quad, V grows downwards.
+        float[] vertices = textData.getVerticesData();
+        int i = quad * 12;
+        vertices[i] = x0; vertices[i + 1] = y0; vertices[i + 2] = z;
+        vertices[i + 3] = x0; vertices[i + 4] = y1; vertices[i + 5] = z;
+        vertices[i + 6] = x1; vertices[i + 7] = y0; vertices[i + 8] = z;
+        vertices[i + 9] = x1; vertices[i + 10] = y1; vertices[i + 11] = z;
+
+        float[] textures = textData.getTextureData();
+        i = quad * 8;
+        textures[i] = u0; textures[i + 1] = v1;
+        textures[i + 2] = u0; textures[i + 3] = v0;
+        textures[i + 4] = u1; textures[i + 5] = v1;
+        textures[i + 6] = u1; textures[i + 7] = v0;
+
+        float[] colors = textData.getColorData();
+        float r = Color.red(color) / 255f;
+        float g = Color.green(color) / 255f;
+        float b = Color.blue(color) / 255f;
+        float a = Color.alpha(color) / 255f;
+        for(i = quad * 16; i < quad * 16 + 16; i += 4)
+        {
+            colors[i] = r;
+            colors[i + 1] = g;
+            colors[i + 2] = b;
+            colors[i + 3] = a;
+        }
     }
 
     public void alignToCenter()
@@ -58,61 +153,20 @@ public class TextView3D extends View3D {
     @Override
     public void update() {
         super.update();
-        if(!textureReady) createTexture();
-        if(!valid)
+        if(!layoutReady)
         {
-            float[] vertices = {
-                    0.0f, 0.0f ,0.0f,
-                    0.0f, getHeight(), 0.0f,
-                    getWidth(), 0.0f, 0.0f,
-                    getWidth(), getHeight(), 0.0f
-            };
-            getViewData().setVerticesData(vertices);
-
-            short[] verticesDrawOrder = {
-                    0, 1, 2, 2, 1, 3
-            };
-
-            getViewData().setVerticesDrawOrder(verticesDrawOrder);
-
-            float[] colors = {
-                    0.0f, 0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 0.0f, 1.0f
-            };
-
-            float[] normals = {
-                0.0f, 0.0f, 1.0f,
-                0.0f, 0.0f, 1.0f,
-                0.0f, 0.0f, 1.0f,
-                0.0f, 0.0f, 1.0f
-            };
-
-            float[] textures = {
-                    0.0f, 1.0f,
-                    0.0f, 0.0f,
-                    1.0f, 1.0f,
-                    1.0f, 0.0f
-            };
-
-            getViewData().setTextureData(textures);
-            getViewData().setColorData(colors);
-            getViewData().setNormalData(normals);
-
-            initializeBuffers();
-
-            valid = true;
+            layout();
+            layoutReady = true;
         }
+        // Uploads the glyphs the layout added to the atlas.
+        setTextureHandle(font.upload(getContext().getGLState()));
     }
 
     @Override
     public void measure() {
-        Paint p = new Paint();
-        p.setTextSize(90f);
-        Rect bounds = new Rect();
-        p.getTextBounds(this.text, 0, this.text.length(), bounds);
-        setWidth((float) bounds.width() / bounds.height());
+        // The sum layout() places the glyphs with, so the background fits the glyph run.
+        float advance = font.measureText(text);
+        setWidth(advance * getFontScale());
         setHeight(1.0f);
     }
 
@@ -122,19 +176,20 @@ public class TextView3D extends View3D {
 
     public void setText(String text) {
         this.text = text;
-        textureReady = false;
+        measure();
+        layoutReady = false;
         valid = false;
     }
 
     public void setBackgroundColor(int backgroundColor) {
         this.backgroundColor = backgroundColor;
-        textureReady = false;
+        layoutReady = false;
         invalidate();
     }
 
     public void setTextColor(int textColor) {
         this.textColor = textColor;
-        textureReady = false;
+        layoutReady = false;
         invalidate();
     }
 }
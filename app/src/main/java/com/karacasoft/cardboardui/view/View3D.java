@@ -1,15 +1,21 @@
 package com.karacasoft.cardboardui.view;
 
-import android.opengl.GLES20;
+import android.graphics.Color;
 import android.opengl.Matrix;
 import android.util.Log;
 
 import com.google.vrtoolkit.cardboard.Eye;
 import com.karacasoft.cardboardui.CardboardUIActivity;
 import com.karacasoft.cardboardui.Util;
+import com.karacasoft.cardboardui.gl.GLState;
+import com.karacasoft.cardboardui.gl.Mesh;
+import com.karacasoft.cardboardui.gl.QuadMesh;
+import com.karacasoft.cardboardui.gl.ShaderProgram;
+import com.karacasoft.cardboardui.gl.ShaderVariants;
+import com.karacasoft.cardboardui.render.QuadBatch;
+import com.karacasoft.cardboardui.render.RenderQueue;
+import com.karacasoft.cardboardui.texture.TextureRegion;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 
@@ -29,7 +35,9 @@ import java.nio.ShortBuffer;
  *         <li>It updates the texture for the text</li>
  *     </ul>
  * </div>
- * <p>The other important method is {@link View3D#draw(Eye)}.</p>
+ * <p>The other important method is {@link View3D#draw(Eye)}. Views are not drawn directly,
+ * they are submitted to the {@link RenderQueue} of the activity with
+ * {@link #submit(RenderQueue)} first, which decides the drawing order.</p>
  *
  * <p>View3D has 2 callback methods to check if it is being interacted by the user.</p>
  *
@@ -49,6 +57,22 @@ public abstract class View3D {
 
     private float[] mModelMatrix = new float[16];
     private float[] mMVPMatrix = new float[16];
+    private float[] mDrawMatrix = new float[16];
+    private float[] mWorldMatrix = new float[16];
+
+    private View3D parent;
+
+    private int localVersion = 0;
+    private int worldVersion = 0;
+    private int worldLocalVersion = -1;
+    private int worldParentVersion = -1;
+    private int drawWorldVersion = -1;
+    private int boundsWorldVersion = -1;
+
+    private final float[] localBounds = new float[6];
+    private final float[] worldBounds = new float[6];
+    private boolean localBoundsValid = false;
+    private boolean worldBoundsValid = false;
 
     private float x = 0f;
     private float y = 0f;
@@ -65,12 +89,19 @@ public abstract class View3D {
     private ViewData data;
 
     private int textureHandle = -1;
+    private TextureRegion textureRegion;
+    private int textureRequest = 0;
+
+    private Mesh mesh = new Mesh();
+    private boolean unitQuad = false;
+    private boolean unitQuadAcquired = false;
+    private boolean batchable = true;
+    private int renderPass = RenderQueue.PASS_OPAQUE;
+    private int shaderFlags = -1;
 
-    private FloatBuffer verticesBuffer;
-    private FloatBuffer colorBuffer;
-    private FloatBuffer normalBuffer;
-    private FloatBuffer textureBuffer;
-    private ShortBuffer drawOrderBuffer;
+    private int borderColor = Color.TRANSPARENT;
+    private float borderRadius = 0f;
+    private float borderWidth = 0f;
 
     protected static final int BYTES_PER_FLOAT = 4;
     protected static final int BYTES_PER_SHORT = 2;
@@ -118,53 +149,117 @@ public abstract class View3D {
     /**
      * Converts view data into ByteBuffers which are understandable by OpenGL.
      * It sets the initialized flag of this view true.
+     *
+     * If buffer objects are enabled (see {@link #setBufferObjectsEnabled(boolean)}), the
+     * data is uploaded to the graphics memory on the next draw and stays there until
+     * this method is called again or {@link #releaseBuffers()} is called.
      */
     public void initializeBuffers()
     {
-
-        if(data.getVerticesData() != null)
-        {
-            verticesBuffer = ByteBuffer.allocateDirect(data.getVerticesData().length * BYTES_PER_FLOAT)
-                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
-            verticesBuffer.put(data.getVerticesData()).position(0);
-        }
-        if(data.getColorData() != null)
+        if(unitQuad)
         {
-            colorBuffer = ByteBuffer.allocateDirect(data.getColorData().length * BYTES_PER_FLOAT)
-                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
-            colorBuffer.put(data.getColorData()).position(0);
+            Log.w("View3D", "initializeBuffers() ignored. (View uses the shared quad)");
+            return;
         }
-        if(data.getNormalData() != null)
-            {
-            normalBuffer = ByteBuffer.allocateDirect(data.getNormalData().length * BYTES_PER_FLOAT)
-                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
-            normalBuffer.put(data.getNormalData()).position(0);
-        }
-        if(data.getTextureData() != null)
+        mesh.setData(data);
+        this.initialized = true;
+        localBoundsValid = false;
+        worldBoundsValid = false;
+    }
+
+    /**
+     * Makes this view draw the shared 1x1 quad from {@link QuadMesh} instead of its own
+     * view data. Width and height of the view are applied through the model matrix, so
+     * {@link #setWidth(float)} and {@link #setHeight(float)} don't need new vertex data.
+     *
+     * Flat views (text, buttons, images) call this in their constructors.
+     */
+    protected void useUnitQuad()
+    {
+        if(unitQuad)
         {
-            textureBuffer = ByteBuffer.allocateDirect(data.getTextureData().length * BYTES_PER_FLOAT)
-                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
-            textureBuffer.put(data.getTextureData()).position(0);
+            return;
         }
-        if(data.getVerticesDrawOrder() != null)
+        mesh = QuadMesh.acquire();
+        unitQuad = true;
+        unitQuadAcquired = true;
+        this.initialized = true;
+        localBoundsValid = false;
+        worldBoundsValid = false;
+    }
+
+    /**
+     * Deletes the GL buffer objects of this view and frees its textures, see
+     * {@link #releaseTextures()}.
+     * {@link com.karacasoft.cardboardui.ViewContent} calls this when the view is removed.
+     * Must be called on the GL thread.
+     *
+     * If the view is drawn again, its data will be uploaded again.
+     */
+    public void releaseBuffers()
+    {
+        if(unitQuad)
         {
-            drawOrderBuffer = ByteBuffer.allocateDirect(data.getVerticesDrawOrder().length * BYTES_PER_SHORT)
-                    .order(ByteOrder.nativeOrder()).asShortBuffer();
-            drawOrderBuffer.put(data.getVerticesDrawOrder()).position(0);
+            if(unitQuadAcquired)
+            {
+                QuadMesh.release(getContext().getGLState());
+                unitQuadAcquired = false;
+            }
+        }else{
+            mesh.release(getContext().getGLState());
         }
-        this.initialized = true;
+        releaseTextures();
+    }
+
+    /**
+     * Frees the textures this view created. Views that create their own textures override
+     * this, and create them again if they are updated after it. A region given with
+     * {@link #setTextureRegion(TextureRegion)} belongs to the caller and is not freed.
+     * Must be called on the GL thread.
+     */
+    protected void releaseTextures()
+    {
+        // Textures of requests still in flight are freed when they arrive.
+        newTextureRequest();
+    }
+
+    /**
+     * Sets the uniforms of the features a subclass adds with {@link #getShaderFlags()}, for
+     * example {@link ShaderVariants#HIGHLIGHT}. Called by {@link #draw(Eye, float[], int)} after
+     * the matrices and the texture are set.
+     *
+     * @param state   State cache to set the uniforms through.
+     * @param program The variant in use.
+     */
+    protected void applyUniforms(GLState state, ShaderProgram program)
+    {
     }
 
     /**
-     * Draws the View on GLES context. Called once for each eye.
+     * Adds this view to the render queue and to the {@link GazeIndex} of the activity. Views
+     * that hold other views override this to lay out and submit their children, and add
+     * themselves to the gaze index if they can be looked at.
      *
-     * Draw method, sends the view data to OpenGL program every frame. Theoretically,
-     * there will be significant performance issues if the user tries to draw too many
-     * objects on the screen. It can be solved by using the graphics memory to hold
-     * view data. But drawing different objects will still impact the performance.
+     * @param queue The queue of the frame.
+     */
+    public void submit(RenderQueue queue)
+    {
+        queue.add(this);
+        getContext().getGazeIndex().add(this);
+    }
+
+    /**
+     * Draws the View on GLES context. Called once for each eye, by the {@link RenderQueue}.
+     *
+     * Draw method, binds the view data and sends the matrices to OpenGL program every frame.
+     * The view data is held on the graphics memory unless buffer objects are disabled for
+     * this view. Drawing a lot of different objects will still impact the performance.
      * So the best solution is simply avoiding drawing a lot of objects on screen.
      * I never tested for the limits though.
      *
+     * Views using the shared quad are added to the {@link QuadBatch} of the activity
+     * instead, if it is active. Other views flush the batch before they draw themselves.
+     *
      * The View should be initialized first. Or it will print a warning level log message
      * that says "View draw skipped. (View not ready)"
      *
@@ -172,63 +267,99 @@ public abstract class View3D {
      */
     public void draw(Eye eye)
     {
-        if(initialized) {
-            getVerticesBuffer().position(0);
-            GLES20.glVertexAttribPointer(Util.ATTRIBUTE_POSITION, 3, GLES20.GL_FLOAT, false, 3 * 4, getVerticesBuffer());
-
-            GLES20.glEnableVertexAttribArray(Util.ATTRIBUTE_POSITION);
-
-            getColorBuffer().position(0);
-            GLES20.glVertexAttribPointer(Util.ATTRIBUTE_COLOR, 4, GLES20.GL_FLOAT, false, 4 * 4, getColorBuffer());
-
-            GLES20.glEnableVertexAttribArray(Util.ATTRIBUTE_COLOR);
-
-            getNormalBuffer().position(0);
-            GLES20.glVertexAttribPointer(Util.ATTRIBUTE_NORMAL, 3, GLES20.GL_FLOAT, false, 3 * 4, getNormalBuffer());
-
-            GLES20.glEnableVertexAttribArray(Util.ATTRIBUTE_NORMAL);
-
-            getTextureBuffer().position(0);
-            GLES20.glVertexAttribPointer(Util.ATTRIBUTE_TEXTURE, 2, GLES20.GL_FLOAT, false, 2 * 4, getTextureBuffer());
-
-            GLES20.glEnableVertexAttribArray(Util.ATTRIBUTE_TEXTURE);
-
+        draw(eye, getDrawMatrix(), 0);
+    }
 
-            Matrix.multiplyMM(getMVPMatrix(), 0, getContext().getViewMatrix(), 0, getModelMatrix(), 0);
+    /**
+     * Draws the view with a draw matrix recorded earlier. The {@link RenderQueue} records the
+     * matrices once per frame and draws both eyes with them.
+     *
+     * @param eye        is given by the CardboardActivity context.
+     * @param drawMatrix Draw matrix of the view, see {@link #getDrawMatrix()}.
+     * @param offset     Offset of the matrix in the array.
+     */
+    public void draw(Eye eye, float[] drawMatrix, int offset)
+    {
+        if(textureRegion != null && !getContext().getTextureRegistry().markUsed(textureRegion))
+        {
+            // Evicted and not reloaded yet, it is drawn again once the texture is back.
+            return;
+        }
+        QuadBatch batch = getContext().getQuadBatch();
+        if(batch.isActive())
+        {
+            if(isBatchable() && batch.add(this, drawMatrix, offset))
+            {
+                return;
+            }
+            batch.flush();
+        }
+        if(unitQuad && !unitQuadAcquired)
+        {
+            mesh = QuadMesh.acquire();
+            unitQuadAcquired = true;
+        }
+        GLState state = getContext().getGLState();
+        if(initialized && mesh.bind(state)) {
+            ShaderProgram program = getContext().getShaderVariants().get(getShaderFlags());
+            state.useProgram(program.getHandle());
+            Matrix.multiplyMM(getMVPMatrix(), 0, getContext().getViewMatrix(), 0, drawMatrix, offset);
             //MVP matrix is actually MV matrix at this point.
-            GLES20.glUniformMatrix4fv(getContext().getMVMatrixHandle(), 1, false, getMVPMatrix(), 0);
+            state.uniformMatrix4fv(program.getMVMatrixHandle(), getMVPMatrix(), 0);
 
             Matrix.multiplyMM(getMVPMatrix(), 0, getContext().getProjectionMatrix(), 0, getMVPMatrix(), 0);
 
-            GLES20.glUniformMatrix4fv(getContext().getMVPMatrixHandle(), 1, false, getMVPMatrix(), 0);
-
-            GLES20.glUniform3f(getContext().getLightPosHandle(), getContext().getLightPosInEyeSpace()[0],
-                    getContext().getLightPosInEyeSpace()[1], getContext().getLightPosInEyeSpace()[2]);
+            state.uniformMatrix4fv(program.getMVPMatrixHandle(), getMVPMatrix(), 0);
 
-            if(getTextureHandle() != -1)
+            if(program.has(ShaderVariants.LIT))
             {
-                GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+                state.uniform3f(program.getLightPosHandle(), getContext().getLightPosInEyeSpace()[0],
+                        getContext().getLightPosInEyeSpace()[1], getContext().getLightPosInEyeSpace()[2]);
+            }
 
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, getTextureHandle());
+            if(program.has(ShaderVariants.TEXTURED))
+            {
+                if(textureRegion != null)
+                {
+                    state.uniform4f(program.getTexRectHandle(), textureRegion.getU0(), textureRegion.getV0(),
+                            textureRegion.getU1() - textureRegion.getU0(), textureRegion.getV1() - textureRegion.getV0());
+                }else{
+                    state.uniform4f(program.getTexRectHandle(), 0f, 0f, 1f, 1f);
+                }
 
-                GLES20.glUniform1i(getContext().getTextureHandle(), 0);
-            }else{
-                GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+                if(getTextureHandle() != -1)
+                {
+                    state.bindTexture(0, getTextureHandle());
 
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, Util.getEmptyTexture());
+                    state.uniform1i(program.getTextureHandle(), 0);
+                }else{
+                    state.bindTexture(1, Util.getEmptyTexture());
 
-                GLES20.glUniform1i(getContext().getTextureHandle(), 1);
+                    state.uniform1i(program.getTextureHandle(), 1);
+                }
+            }
+            if(program.has(ShaderVariants.BORDER))
+            {
+                float sizeX = unitQuad ? 1f : getWidth();
+                float sizeY = unitQuad ? 1f : getHeight();
+                state.uniform1f(program.getAspectHandle(), getAspect(drawMatrix, offset, sizeX, sizeY));
+                state.uniform2f(program.getBorderHandle(), borderRadius, borderWidth);
+                state.uniform4f(program.getBorderColorHandle(), Color.red(borderColor) / 255f,
+                        Color.green(borderColor) / 255f, Color.blue(borderColor) / 255f,
+                        Color.alpha(borderColor) / 255f);
             }
+            applyUniforms(state, program);
 
-            GLES20.glDrawElements(GLES20.GL_TRIANGLES, getViewData().getVerticesDrawOrder().length, GLES20.GL_UNSIGNED_SHORT, getDrawOrderBuffer());
+            mesh.draw(state);
         }else{
             Log.w("View3D", "View draw skipped. (View not ready)");
         }
     }
 
     /**
-     * Checks if the User is looking at an object. Doesn't work very well when the user looks
-     * tilted on left or right. It is checked on every frame to make trigger callbacks work.
+     * Checks if the User is looking at an object. The gaze is picked once per frame by the
+     * {@link GazeIndex} of the activity, and only the nearest view hit is looked at. It is
+     * checked on every frame to make trigger callbacks work.
      *
      * Warning: do not call this method to check if the user is looking at the view or
      * not. There's a field {@link View3D#isLookingAt} on View3D marks the result of this
@@ -241,22 +372,14 @@ public abstract class View3D {
     {
         if(!this.visible)
             return false;
-        float[] camPosition = getContext().getCameraPosition();
-        float[] forward = getContext().getForwardVector();
-
-        float multiplier = (camPosition[2] - getZ()) / forward[2];
-
-        float lookX = forward[0] * multiplier;
-        float lookY = forward[1] * multiplier;
-
-        if (lookX < (getWidth() + getX()) * scaleX && lookX > getX() * scaleX &&
-                lookY < (getHeight() + getY()) * scaleY && lookY > getY() * scaleY) {
-            isLookingAt = true;
-            if(this.lookAtCallback != null) lookAtCallback.onLookAt(this, lookX, lookY);
-            return true;
-        }
-
-        return false;
+        GazeIndex gaze = getContext().getGazeIndex();
+        if(gaze.getHitView() != this)
+            return false;
+        // World space, like the bounds the listeners compare it with.
+        float[] hit = gaze.getHitPoint();
+        isLookingAt = true;
+        if(this.lookAtCallback != null) lookAtCallback.onLookAt(this, hit[0], hit[1]);
+        return true;
     }
 
     /**
@@ -366,16 +489,19 @@ public abstract class View3D {
     public void setWidth(float width) {
         this.width = width;
         valid = false;
+        invalidateBounds();
     }
 
     public void setHeight(float height) {
         this.height = height;
         valid = false;
+        invalidateBounds();
     }
 
     public void setDepth(float depth) {
         this.depth = depth;
         valid = false;
+        invalidateBounds();
     }
 
     /**
@@ -400,6 +526,33 @@ public abstract class View3D {
         this.y += dy;
         this.z += dz;
         Matrix.translateM(this.getModelMatrix(), 0, dx, dy, dz);
+        localVersion++;
+    }
+
+    /**
+     * Moves the origin of the view to the given point of its parent's space (world space for
+     * views without a parent). Does nothing if the view is already there, so containers
+     * can call it every frame.
+     *
+     * @param x X position.
+     * @param y Y position.
+     * @param z Z position.
+     */
+    public void setPosition(float x, float y, float z)
+    {
+        float[] m = getModelMatrix();
+        if(m[12] == x && m[13] == y && m[14] == z)
+        {
+            return;
+        }
+        m[12] = x;
+        m[13] = y;
+        m[14] = z;
+        // Keep getX() * getScaleX() equal to the position, like after scale() then translate().
+        this.x = x / scaleX;
+        this.y = y / scaleY;
+        this.z = z / scaleZ;
+        localVersion++;
     }
 
 
@@ -422,6 +575,7 @@ public abstract class View3D {
         this.scaleY *= y;
         this.scaleZ *= z;
         Matrix.scaleM(this.getModelMatrix(), 0, x, y, z);
+        localVersion++;
     }
 
     public ViewData getViewData() {
@@ -430,47 +584,416 @@ public abstract class View3D {
 
     public void setViewData(ViewData data) {
         this.data = data;
+        invalidateBounds();
     }
 
     public FloatBuffer getVerticesBuffer() {
-        return verticesBuffer;
+        return mesh.getVerticesBuffer();
     }
 
     public FloatBuffer getColorBuffer() {
-        return colorBuffer;
+        return mesh.getColorBuffer();
     }
 
     public FloatBuffer getNormalBuffer() {
-        return normalBuffer;
+        return mesh.getNormalBuffer();
     }
 
     public FloatBuffer getTextureBuffer() {
-        return textureBuffer;
+        return mesh.getTextureBuffer();
     }
 
     public ShortBuffer getDrawOrderBuffer() {
-        return drawOrderBuffer;
+        return mesh.getDrawOrderBuffer();
+    }
+
+    public Mesh getMesh() {
+        return mesh;
     }
 
+    public boolean isBufferObjectsEnabled() {
+        return mesh.isBufferObjectsEnabled();
+    }
+
+    /**
+     * Chooses where the view data is kept while drawing. Enabled by default.
+     *
+     * @param enabled true to upload the view data into GL buffer objects once,
+     *                false to send the client side buffers on every draw.
+     */
+    public void setBufferObjectsEnabled(boolean enabled) {
+        mesh.setBufferObjectsEnabled(enabled);
+    }
 
     public CardboardUIActivity getContext() {
         return mContext;
     }
 
+    /**
+     * @return the local transform of the view, relative to its parent. Call
+     * {@link #invalidateTransform()} after changing it directly.
+     */
     public float[] getModelMatrix() {
         return mModelMatrix;
     }
 
+    public View3D getParent() {
+        return parent;
+    }
+
+    /**
+     * Makes the transform of this view relative to another view. Containers call this for
+     * their children, so moving or scaling the container moves its children too.
+     *
+     * @param parent The parent, null to place the view in world space.
+     */
+    public void setParent(View3D parent) {
+        this.parent = parent;
+        worldLocalVersion = -1;
+    }
+
+    /**
+     * Returns the transform from the view to world space: the world matrix of the parent
+     * times the model matrix. It is only computed again when the model matrix of this view
+     * or of one of its ancestors changed since the last call.
+     *
+     * @return the world matrix. Do not modify the array.
+     */
+    public float[] getWorldMatrix() {
+        if(parent == null)
+        {
+            if(worldLocalVersion != localVersion || worldParentVersion != -1)
+            {
+                System.arraycopy(mModelMatrix, 0, mWorldMatrix, 0, 16);
+                worldLocalVersion = localVersion;
+                worldParentVersion = -1;
+                worldVersion++;
+            }
+            return mWorldMatrix;
+        }
+        float[] parentWorld = parent.getWorldMatrix();
+        if(worldLocalVersion != localVersion || worldParentVersion != parent.worldVersion)
+        {
+            Matrix.multiplyMM(mWorldMatrix, 0, parentWorld, 0, mModelMatrix, 0);
+            worldLocalVersion = localVersion;
+            worldParentVersion = parent.worldVersion;
+            worldVersion++;
+        }
+        return mWorldMatrix;
+    }
+
+    /**
+     * Marks the model matrix as changed. Call this after changing the array returned by
+     * {@link #getModelMatrix()} directly.
+     */
+    public void invalidateTransform()
+    {
+        localVersion++;
+    }
+
+    /**
+     * @return the matrix the view is drawn with. It is the world matrix, scaled by the width
+     * and height of the view if the view uses the shared quad.
+     */
+    public float[] getDrawMatrix() {
+        float[] world = getWorldMatrix();
+        if(unitQuad)
+        {
+            if(drawWorldVersion != worldVersion)
+            {
+                Matrix.scaleM(mDrawMatrix, 0, world, 0, width, height, 1.0f);
+                drawWorldVersion = worldVersion;
+            }
+            return mDrawMatrix;
+        }
+        return world;
+    }
+
+    /**
+     * Returns the axis aligned box around the view in world space, as minX, minY, minZ, maxX,
+     * maxY, maxZ. The box is computed from the view data (or the width, height and depth of
+     * the view if it has no vertices) and the model matrix, and kept until the view is moved,
+     * scaled, resized or gets new data.
+     *
+     * @return the world bounds. Do not modify the array.
+     */
+    public float[] getWorldBounds() {
+        float[] drawMatrix = getDrawMatrix();
+        if(!worldBoundsValid || boundsWorldVersion != worldVersion)
+        {
+            transformBounds(drawMatrix, getLocalBounds(), worldBounds);
+            worldBoundsValid = true;
+            boundsWorldVersion = worldVersion;
+        }
+        return worldBounds;
+    }
+
+    /**
+     * @return the box around the view in the space of its draw matrix, as minX, minY, minZ,
+     * maxX, maxY, maxZ. Do not modify the array.
+     */
+    public float[] getLocalBounds() {
+        if(!localBoundsValid)
+        {
+            computeLocalBounds(localBounds);
+            localBoundsValid = true;
+        }
+        return localBounds;
+    }
+
+    /**
+     * Computes the box around the view in the space of its draw matrix. Views which draw
+     * something other than their view data can override this.
+     *
+     * @param out minX, minY, minZ, maxX, maxY, maxZ.
+     */
+    protected void computeLocalBounds(float[] out)
+    {
+        if(unitQuad)
+        {
+            setBounds(out, 0f, 0f, 0f, 1f, 1f, 0f);
+            return;
+        }
+        float[] vertices = data != null ? data.getVerticesData() : null;
+        if(vertices == null || vertices.length < 3)
+        {
+            setBounds(out, 0f, 0f, 0f, width, height, depth);
+            return;
+        }
+        out[0] = out[3] = vertices[0];
+        out[1] = out[4] = vertices[1];
+        out[2] = out[5] = vertices[2];
+        for(int i = 3; i + 2 < vertices.length; i += 3)
+        {
+            out[0] = Math.min(out[0], vertices[i]);
+            out[1] = Math.min(out[1], vertices[i + 1]);
+            out[2] = Math.min(out[2], vertices[i + 2]);
+            out[3] = Math.max(out[3], vertices[i]);
+            out[4] = Math.max(out[4], vertices[i + 1]);
+            out[5] = Math.max(out[5], vertices[i + 2]);
+        }
+    }
+
+    private static void setBounds(float[] out, float minX, float minY, float minZ,
+                                  float maxX, float maxY, float maxZ)
+    {
+        out[0] = minX;
+        out[1] = minY;
+        out[2] = minZ;
+        out[3] = maxX;
+        out[4] = maxY;
+        out[5] = maxZ;
+    }
+
+    /**
+     * Computes the aspect of a quad as it is drawn, the same way the batch shaders do: the
+     * scale of the matrix is part of it, so the border looks the same in both paths.
+     *
+     * @param sizeX Width of the quad before the matrix.
+     * @param sizeY Height of the quad before the matrix.
+     */
+    static float getAspect(float[] m, int offset, float sizeX, float sizeY)
+    {
+        float x = sizeX * (float) Math.sqrt(m[offset] * m[offset] + m[offset + 1] * m[offset + 1]
+                + m[offset + 2] * m[offset + 2]);
+        float y = sizeY * (float) Math.sqrt(m[offset + 4] * m[offset + 4] + m[offset + 5] * m[offset + 5]
+                + m[offset + 6] * m[offset + 6]);
+        // Like the shaders, a flat quad gets no NaN.
+        return x / Math.max(y, 1e-6f);
+    }
+
+    /**
+     * Transforms a box with a matrix and stores the box around the result.
+     */
+    private static void transformBounds(float[] m, float[] in, float[] out)
+    {
+        for(int i = 0; i < 3; i++)
+        {
+            // Each output axis is the translation plus the extremes of every input axis.
+            float min = m[12 + i];
+            float max = m[12 + i];
+            for(int j = 0; j < 3; j++)
+            {
+                float a = m[j * 4 + i] * in[j];
+                float b = m[j * 4 + i] * in[j + 3];
+                min += Math.min(a, b);
+                max += Math.max(a, b);
+            }
+            out[i] = min;
+            out[i + 3] = max;
+        }
+    }
+
+    /**
+     * Makes the view compute its bounds again. Call this after changing the model matrix or
+     * the vertices of the view directly.
+     */
+    public void invalidateBounds()
+    {
+        localBoundsValid = false;
+        worldBoundsValid = false;
+        drawWorldVersion = -1;
+    }
+
+    public boolean isUnitQuad() {
+        return unitQuad;
+    }
+
+    /**
+     * @return true if this view can be drawn as a part of a {@link QuadBatch}. The batch only
+     * draws textured quads, with or without a border, views needing other shader features are
+     * drawn alone.
+     */
+    public boolean isBatchable() {
+        return batchable && unitQuad && initialized
+                && (ShaderVariants.normalize(getShaderFlags())
+                        & ~(ShaderVariants.TEXTURED | ShaderVariants.BORDER)) == 0;
+    }
+
+    /**
+     * Views using the shared quad are batched by default. Disable it for a view that needs
+     * to be drawn on its own.
+     *
+     * @param batchable false to always draw the view with its own draw call.
+     */
+    public void setBatchable(boolean batchable) {
+        this.batchable = batchable;
+    }
+
+    public int getRenderPass() {
+        return renderPass;
+    }
+
+    /**
+     * Chooses the pass the view is drawn in. Views are opaque by default. Views with see-through
+     * parts must use {@link RenderQueue#PASS_TRANSPARENT}, views that must stay on top of
+     * everything use {@link RenderQueue#PASS_OVERLAY}.
+     *
+     * @param renderPass One of the PASS_ constants of {@link RenderQueue}.
+     */
+    public void setRenderPass(int renderPass) {
+        this.renderPass = renderPass;
+    }
+
     public float[] getMVPMatrix() {
         return mMVPMatrix;
     }
 
     public int getTextureHandle() {
+        if(textureRegion != null)
+        {
+            return textureRegion.getTextureHandle();
+        }
         return textureHandle;
     }
 
+    /**
+     * Makes the view use a whole texture. Clears the texture region if there was one.
+     *
+     * @param textureHandle GL texture handle, -1 for no texture.
+     */
     public void setTextureHandle(int textureHandle) {
         this.textureHandle = textureHandle;
+        this.textureRegion = null;
+    }
+
+    public TextureRegion getTextureRegion() {
+        return textureRegion;
+    }
+
+    /**
+     * Makes the view use a part of a texture, usually a region of the
+     * {@link com.karacasoft.cardboardui.texture.TextureAtlas}.
+     *
+     * @param textureRegion Region to draw, null for no texture.
+     */
+    public void setTextureRegion(TextureRegion textureRegion) {
+        this.textureRegion = textureRegion;
+        this.textureHandle = -1;
+    }
+
+    /**
+     * @return the features of the program the view is drawn with, see {@link ShaderVariants}.
+     * Unless set with {@link #setShaderFlags(int)}, views with a texture are
+     * {@link ShaderVariants#TEXTURED}, and views with their own mesh are also lit with their
+     * vertex colors. The shared quad has black vertex colors, lighting doesn't change it.
+     * Views with a border are also {@link ShaderVariants#BORDER}.
+     */
+    public int getShaderFlags() {
+        if(shaderFlags != -1)
+        {
+            return shaderFlags;
+        }
+        int flags = 0;
+        if(textureHandle != -1 || textureRegion != null)
+        {
+            flags |= ShaderVariants.TEXTURED;
+        }
+        if(!unitQuad)
+        {
+            flags |= ShaderVariants.LIT | ShaderVariants.VERTEX_COLOR;
+        }
+        if(Color.alpha(borderColor) != 0)
+        {
+            flags |= ShaderVariants.BORDER;
+        }
+        return flags;
+    }
+
+    /**
+     * Selects the program features of the view, for example to add
+     * {@link ShaderVariants#ALPHA_MASK} to a view with a cut-out texture.
+     *
+     * @param shaderFlags Flags of {@link ShaderVariants}, -1 to pick them automatically.
+     */
+    public void setShaderFlags(int shaderFlags) {
+        this.shaderFlags = shaderFlags;
+    }
+
+    public int getBorderColor() {
+        return borderColor;
+    }
+
+    public float getBorderRadius() {
+        return borderRadius;
+    }
+
+    public float getBorderWidth() {
+        return borderWidth;
+    }
+
+    /**
+     * Draws the outline of a rounded rectangle inside the bounds of a textured view, under
+     * its texture, see {@link ShaderVariants#BORDER}. The outline doesn't need texture memory
+     * and looks the same at any width.
+     *
+     * @param color  Color of the outline, transparent for no outline.
+     * @param radius Corner radius, relative to the height of the view.
+     * @param width  Stroke width, relative to the height of the view.
+     */
+    public void setBorder(int color, float radius, float width) {
+        this.borderColor = color;
+        this.borderRadius = radius;
+        this.borderWidth = width;
+    }
+
+    /**
+     * Starts a new texture request for the {@link com.karacasoft.cardboardui.texture.TextureLoader}.
+     * Textures of older requests may still arrive, they should be freed instead of used.
+     *
+     * @return id of the request.
+     * @see #isCurrentTextureRequest(int)
+     */
+    protected int newTextureRequest() {
+        return ++textureRequest;
+    }
+
+    /**
+     * @param request id returned by {@link #newTextureRequest()}.
+     * @return false if a newer request was started after this one.
+     */
+    protected boolean isCurrentTextureRequest(int request) {
+        return request == textureRequest;
     }
 
 
@@ -524,10 +1047,20 @@ public abstract class View3D {
         this.focusModeFocusable = focusModeFocusable;
     }
 
+    /**
+     * @deprecated Focus mode has no texture anymore, the progress is drawn by the highlight
+     * shader. The value is ignored.
+     */
+    @Deprecated
     public boolean isFocusModeTextureUsed() {
         return focusModeTextureUsed;
     }
 
+    /**
+     * @deprecated Focus mode has no texture anymore, the progress is drawn by the highlight
+     * shader. The value is ignored.
+     */
+    @Deprecated
     public void setFocusModeTextureUsed(boolean focusModeTextureUsed) {
         this.focusModeTextureUsed = focusModeTextureUsed;
     }
@@ -541,8 +1074,8 @@ public abstract class View3D {
          * Fires if the user is looking at the object. It fires on each frame,
          * so be careful with your implementation.
          * @param v The View3D object
-         * @param x X coordinate of the SCREEN.(Not the object)
-         * @param y Y coordinate of the SCREEN.(Not the object)
+         * @param x X coordinate of the point looked at, in world space.
+         * @param y Y coordinate of the point looked at, in world space.
          */
         void onLookAt(View3D v, float x, float y);
 
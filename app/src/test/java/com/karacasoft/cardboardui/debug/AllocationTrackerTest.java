@@ -0,0 +1,125 @@
+package com.karacasoft.cardboardui.debug;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AllocationTrackerTest {
+
+    /** A heap whose usage the test moves by hand. */
+    private static class FakeCounter implements AllocationTracker.Counter {
+
+        long bytes = 0;
+
+        @Override
+        public long read() {
+            return bytes;
+        }
+    }
+
+    private static AllocationTracker strictTracker(FakeCounter counter)
+    {
+        AllocationTracker tracker = new AllocationTracker(counter);
+        tracker.setWarmUpFrames(0);
+        tracker.setMode(AllocationTracker.MODE_STRICT);
+        return tracker;
+    }
+
+    @Test
+    public void strict_passesWhenNoFrameAllocates() throws Exception {
+        FakeCounter counter = new FakeCounter();
+        AllocationTracker tracker = strictTracker(counter);
+
+        for(int i = 0; i < 10; i++)
+        {
+            tracker.beginFrame();
+            tracker.endFrame();
+        }
+
+        tracker.assertNoAllocations();
+        assertEquals(10, tracker.getFrameCount());
+        assertEquals(0, tracker.getFramesWithAllocations());
+    }
+
+    @Test
+    public void strict_failsWhenAFrameAllocates() throws Exception {
+        FakeCounter counter = new FakeCounter();
+        AllocationTracker tracker = strictTracker(counter);
+
+        tracker.beginFrame();
+        counter.bytes += 64;
+        // Doesn't throw on the render thread.
+        tracker.endFrame();
+
+        try {
+            tracker.assertNoAllocations();
+            fail("The allocating frame was not reported");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("64 bytes"));
+        }
+        assertEquals(1, tracker.getFramesWithAllocations());
+        assertEquals(64, tracker.getLastFrameBytes());
+    }
+
+    @Test
+    public void allocationsBetweenFrames_dontCount() throws Exception {
+        FakeCounter counter = new FakeCounter();
+        AllocationTracker tracker = strictTracker(counter);
+
+        tracker.beginFrame();
+        tracker.endFrame();
+        counter.bytes += 1000;
+        tracker.beginFrame();
+        tracker.endFrame();
+
+        tracker.assertNoAllocations();
+    }
+
+    @Test
+    public void warmUpFrames_areNotChecked() throws Exception {
+        FakeCounter counter = new FakeCounter();
+        AllocationTracker tracker = new AllocationTracker(counter);
+        tracker.setWarmUpFrames(2);
+        tracker.setMode(AllocationTracker.MODE_STRICT);
+
+        for(int i = 0; i < 2; i++)
+        {
+            tracker.beginFrame();
+            counter.bytes += 100;
+            tracker.endFrame();
+        }
+        tracker.assertNoAllocations();
+
+        tracker.beginFrame();
+        counter.bytes += 100;
+        tracker.endFrame();
+        assertEquals(1, tracker.getFramesWithAllocations());
+    }
+
+    @Test
+    public void collectedFrames_areSkipped() throws Exception {
+        FakeCounter counter = new FakeCounter();
+        counter.bytes = 5000;
+        AllocationTracker tracker = strictTracker(counter);
+
+        tracker.beginFrame();
+        counter.bytes = 1000;
+        tracker.endFrame();
+
+        tracker.assertNoAllocations();
+        assertEquals(1, tracker.getSkippedFrames());
+    }
+
+    @Test
+    public void setMode_resetsAFailure() throws Exception {
+        FakeCounter counter = new FakeCounter();
+        AllocationTracker tracker = strictTracker(counter);
+        tracker.beginFrame();
+        counter.bytes += 8;
+        tracker.endFrame();
+
+        tracker.setMode(AllocationTracker.MODE_STRICT);
+
+        tracker.assertNoAllocations();
+    }
+}
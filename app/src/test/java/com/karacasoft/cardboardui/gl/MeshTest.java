@@ -0,0 +1,61 @@
+package com.karacasoft.cardboardui.gl;
+
+import com.karacasoft.cardboardui.view.ViewData;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class MeshTest {
+
+    private static ViewData quad(float z)
+    {
+        ViewData data = new ViewData();
+        data.setVerticesData(new float[]{ 0f, 0f, z, 1f, 0f, z, 1f, 1f, z, 0f, 1f, z });
+        data.setVerticesDrawOrder(new short[]{ 0, 1, 2, 0, 2, 3 });
+        return data;
+    }
+
+    @Test
+    public void setData_everyFrame_reusesTwoSetsOfBuffers() throws Exception {
+        Mesh mesh = new Mesh();
+        mesh.setBufferObjectsEnabled(false);
+        GLState state = new GLState();
+
+        mesh.setData(quad(0f));
+        mesh.bind(state);
+        FloatBuffer first = mesh.getVerticesBuffer();
+        mesh.setData(quad(1f));
+        mesh.bind(state);
+        FloatBuffer second = mesh.getVerticesBuffer();
+        assertNotSame(first, second);
+
+        for(int frame = 0; frame < 10; frame++)
+        {
+            mesh.setData(quad(frame));
+            FloatBuffer buffer = mesh.getVerticesBuffer();
+            assertTrue(buffer == first || buffer == second);
+            assertEquals(frame, buffer.get(2), 0f);
+            mesh.bind(state);
+        }
+    }
+
+    @Test
+    public void setData_doesNotWriteTheBufferBeingDrawn() throws Exception {
+        Mesh mesh = new Mesh();
+        mesh.setBufferObjectsEnabled(false);
+        GLState state = new GLState();
+
+        mesh.setData(quad(1f));
+        mesh.bind(state);
+        FloatBuffer drawn = mesh.getVerticesBuffer();
+        // Twice before the next bind, the second update reuses the first one.
+        mesh.setData(quad(2f));
+        mesh.setData(quad(3f));
+
+        assertEquals(1f, drawn.get(2), 0f);
+        assertEquals(3f, mesh.getVerticesBuffer().get(2), 0f);
+    }
+}
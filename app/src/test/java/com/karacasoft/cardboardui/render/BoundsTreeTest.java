@@ -0,0 +1,194 @@
+package com.karacasoft.cardboardui.render;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BoundsTreeTest {
+
+    /** A grid of flat 0.8 x 0.8 tiles at z = 0, like the items of a grid view. */
+    private static float[] tiles(int columns, int rows)
+    {
+        float[] bounds = new float[columns * rows * 6];
+        for(int y = 0; y < rows; y++)
+        {
+            for(int x = 0; x < columns; x++)
+            {
+                int o = (y * columns + x) * 6;
+                bounds[o] = x;
+                bounds[o + 1] = y;
+                bounds[o + 2] = 0f;
+                bounds[o + 3] = x + 0.8f;
+                bounds[o + 4] = y + 0.8f;
+                bounds[o + 5] = 0f;
+            }
+        }
+        return bounds;
+    }
+
+    private static int[] sortedHits(BoundsTree tree, int count)
+    {
+        int[] hits = new int[count];
+        for(int i = 0; i < count; i++)
+        {
+            hits[i] = tree.getHit(i);
+        }
+        Arrays.sort(hits);
+        return hits;
+    }
+
+    @Test
+    public void intersect_findsTheTileUnderARay() throws Exception {
+        BoundsTree tree = new BoundsTree();
+        tree.build(tiles(30, 30), 900);
+
+        // Straight down the z axis through tile (12, 7).
+        int count = tree.intersect(12.4f, 7.4f, 5f, 0f, 0f, -1f, 0f, Float.POSITIVE_INFINITY);
+
+        assertEquals(1, count);
+        assertEquals(7 * 30 + 12, tree.getHit(0));
+        // Between the tiles.
+        assertEquals(0, tree.intersect(12.9f, 7.4f, 5f, 0f, 0f, -1f, 0f, Float.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void intersect_matchesTestingEveryBox() throws Exception {
+        Random random = new Random(7);
+        float[] bounds = new float[500 * 6];
+        for(int i = 0; i < 500; i++)
+        {
+            for(int axis = 0; axis < 3; axis++)
+            {
+                float min = random.nextFloat() * 20f;
+                bounds[i * 6 + axis] = min;
+                bounds[i * 6 + axis + 3] = min + random.nextFloat() * 2f;
+            }
+        }
+        BoundsTree tree = new BoundsTree();
+        tree.build(bounds, 500);
+        BoundsTree single = new BoundsTree();
+
+        for(int ray = 0; ray < 50; ray++)
+        {
+            float ox = random.nextFloat() * 20f;
+            float oy = random.nextFloat() * 20f;
+            float dx = random.nextFloat() - 0.5f;
+            float dy = random.nextFloat() - 0.5f;
+            int count = tree.intersect(ox, oy, -5f, dx, dy, 1f, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+            int[] hits = sortedHits(tree, count);
+
+            int expected = 0;
+            for(int i = 0; i < 500; i++)
+            {
+                single.build(Arrays.copyOfRange(bounds, i * 6, i * 6 + 6), 1);
+                if(single.intersect(ox, oy, -5f, dx, dy, 1f, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY) == 1)
+                {
+                    assertTrue(Arrays.binarySearch(hits, i) >= 0);
+                    expected++;
+                }
+            }
+            assertEquals(expected, count);
+        }
+    }
+
+    @Test
+    public void refit_followsMovedBoxes() throws Exception {
+        float[] bounds = tiles(10, 10);
+        BoundsTree tree = new BoundsTree();
+        tree.build(bounds, 100);
+
+        // Scroll everything up by half a tile.
+        for(int i = 0; i < 100; i++)
+        {
+            bounds[i * 6 + 1] += 0.5f;
+            bounds[i * 6 + 4] += 0.5f;
+        }
+        tree.refit(bounds);
+
+        assertEquals(1, tree.intersect(3.4f, 5.2f, 5f, 0f, 0f, -1f, 0f, Float.POSITIVE_INFINITY));
+        assertEquals(4 * 10 + 3, tree.getHit(0));
+        assertFalse(tree.needsRebuild());
+    }
+
+    @Test
+    public void refit_asksForARebuildWhenBoxesScatter() throws Exception {
+        float[] bounds = tiles(10, 10);
+        BoundsTree tree = new BoundsTree();
+        tree.build(bounds, 100);
+
+        for(int i = 0; i < 100; i += 2)
+        {
+            bounds[i * 6] += 40f;
+            bounds[i * 6 + 3] += 40f;
+        }
+        tree.refit(bounds);
+
+        assertTrue(tree.needsRebuild());
+    }
+
+    @Test
+    public void raycast_returnsTheNearestBox() throws Exception {
+        float[] bounds = {
+                0f, 0f, -3f, 1f, 1f, -3f,
+                0f, 0f, -1f, 1f, 1f, -1f,
+                0f, 0f, -2f, 1f, 1f, -2f,
+                5f, 5f, -0.5f, 6f, 6f, -0.5f
+        };
+        BoundsTree tree = new BoundsTree();
+        tree.build(bounds, 4);
+
+        assertEquals(1, tree.raycast(0.5f, 0.5f, 0f, 0f, 0f, -1f, Float.POSITIVE_INFINITY, null));
+        assertEquals(1f, tree.getDistance(), 1e-6f);
+        // Boxes behind the origin don't count.
+        assertEquals(0, tree.raycast(0.5f, 0.5f, -2.5f, 0f, 0f, -1f, Float.POSITIVE_INFINITY, null));
+        assertEquals(-1, tree.raycast(3f, 3f, 0f, 0f, 0f, -1f, Float.POSITIVE_INFINITY, null));
+        assertTrue(Float.isNaN(tree.getDistance()));
+    }
+
+    @Test
+    public void raycast_usesTheExactTest() throws Exception {
+        float[] bounds = {
+                0f, 0f, -1f, 1f, 1f, -1f,
+                0f, 0f, -2f, 1f, 1f, -2f
+        };
+        BoundsTree tree = new BoundsTree();
+        tree.build(bounds, 2);
+
+        // The nearer item is a hole, the ray goes through it.
+        int hit = tree.raycast(0.5f, 0.5f, 0f, 0f, 0f, -1f, Float.POSITIVE_INFINITY, new BoundsTree.Intersector() {
+            @Override
+            public float intersect(int item) {
+                return item == 0 ? Float.NaN : 2f;
+            }
+        });
+
+        assertEquals(1, hit);
+        assertEquals(2f, tree.getDistance(), 0f);
+    }
+
+    @Test
+    public void intersectBox_testsASingleBox() throws Exception {
+        float[] box = {0f, 0f, 0f, 1f, 1f, 0f};
+
+        assertEquals(2f, BoundsTree.intersectBox(new float[]{0.5f, 0.5f, 2f}, new float[]{0f, 0f, -1f},
+                box, 0, 0f, Float.POSITIVE_INFINITY), 1e-6f);
+        // A slanted ray, the point where it crosses z = 0 is outside the box.
+        assertTrue(Float.isNaN(BoundsTree.intersectBox(new float[]{0.5f, 0.5f, 2f}, new float[]{0.5f, 0f, -1f},
+                box, 0, 0f, Float.POSITIVE_INFINITY)));
+        // Behind the origin.
+        assertTrue(Float.isNaN(BoundsTree.intersectBox(new float[]{0.5f, 0.5f, -1f}, new float[]{0f, 0f, -1f},
+                box, 0, 0f, Float.POSITIVE_INFINITY)));
+    }
+
+    @Test
+    public void emptyTree_hitsNothing() throws Exception {
+        BoundsTree tree = new BoundsTree();
+        tree.build(new float[0], 0);
+
+        assertEquals(0, tree.intersect(0f, 0f, 0f, 0f, 0f, -1f, 0f, Float.POSITIVE_INFINITY));
+        assertEquals(-1, tree.raycast(0f, 0f, 0f, 0f, 0f, -1f, Float.POSITIVE_INFINITY, null));
+    }
+}
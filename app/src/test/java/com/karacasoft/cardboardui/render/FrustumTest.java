@@ -0,0 +1,52 @@
+package com.karacasoft.cardboardui.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrustumTest {
+
+    private static final float[] IDENTITY = {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1
+    };
+
+    @Test
+    public void intersects_identityFrustumIsTheClipCube() throws Exception {
+        Frustum frustum = new Frustum();
+        frustum.set(IDENTITY, 0);
+
+        assertTrue(frustum.intersects(new float[]{-0.5f, -0.5f, -0.5f, 0.5f, 0.5f, 0.5f}, 0));
+        assertTrue(frustum.intersects(new float[]{0.5f, 0.5f, 0.5f, 2f, 2f, 2f}, 0));
+        assertFalse(frustum.intersects(new float[]{2f, -0.5f, -0.5f, 3f, 0.5f, 0.5f}, 0));
+        assertFalse(frustum.intersects(new float[]{-0.5f, -3f, -0.5f, 0.5f, -2f, 0.5f}, 0));
+        assertFalse(frustum.intersects(new float[]{-0.5f, -0.5f, 1.5f, 0.5f, 0.5f, 2f}, 0));
+    }
+
+    @Test
+    public void intersects_followsTranslation() throws Exception {
+        // Moves everything 5 units along x, column major.
+        float[] m = IDENTITY.clone();
+        m[12] = 5f;
+        Frustum frustum = new Frustum();
+        frustum.set(m, 0);
+
+        assertFalse(frustum.intersects(new float[]{-0.5f, -0.5f, -0.5f, 0.5f, 0.5f, 0.5f}, 0));
+        assertTrue(frustum.intersects(new float[]{-5.5f, -0.5f, -0.5f, -4.5f, 0.5f, 0.5f}, 0));
+    }
+
+    @Test
+    public void intersects_readsBoxAtOffset() throws Exception {
+        Frustum frustum = new Frustum();
+        frustum.set(IDENTITY, 0);
+
+        float[] boxes = {
+                2f, 2f, 2f, 3f, 3f, 3f,
+                0f, 0f, 0f, 0.1f, 0.1f, 0.1f
+        };
+        assertFalse(frustum.intersects(boxes, 0));
+        assertTrue(frustum.intersects(boxes, 6));
+    }
+}
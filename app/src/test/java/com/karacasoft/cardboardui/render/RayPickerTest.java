@@ -0,0 +1,209 @@
+package com.karacasoft.cardboardui.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RayPickerTest {
+
+    /** A unit quad around its origin, like a view in its own space. */
+    private static final float[] QUAD = { -0.5f, -0.5f, 0f, 0.5f, 0.5f, 0f };
+
+    private static float[] translation(float x, float y, float z)
+    {
+        float[] m = scale(1f, 1f, 1f);
+        m[12] = x;
+        m[13] = y;
+        m[14] = z;
+        return m;
+    }
+
+    private static float[] scale(float x, float y, float z)
+    {
+        float[] m = new float[16];
+        m[0] = x;
+        m[5] = y;
+        m[10] = z;
+        m[15] = 1f;
+        return m;
+    }
+
+    private static float[] rotationY(float degrees)
+    {
+        double a = Math.toRadians(degrees);
+        float[] m = scale(1f, 1f, 1f);
+        m[0] = (float) Math.cos(a);
+        m[2] = (float) -Math.sin(a);
+        m[8] = (float) Math.sin(a);
+        m[10] = (float) Math.cos(a);
+        return m;
+    }
+
+    private static float[] rotationZ(float degrees)
+    {
+        double a = Math.toRadians(degrees);
+        float[] m = scale(1f, 1f, 1f);
+        m[0] = (float) Math.cos(a);
+        m[1] = (float) Math.sin(a);
+        m[4] = (float) -Math.sin(a);
+        m[5] = (float) Math.cos(a);
+        return m;
+    }
+
+    private static float[] multiply(float[] a, float[] b)
+    {
+        float[] m = new float[16];
+        for(int column = 0; column < 4; column++)
+        {
+            for(int row = 0; row < 4; row++)
+            {
+                float sum = 0f;
+                for(int k = 0; k < 4; k++)
+                {
+                    sum += a[k * 4 + row] * b[column * 4 + k];
+                }
+                m[column * 4 + row] = sum;
+            }
+        }
+        return m;
+    }
+
+    /** World bounds of the quad, the way View3D computes them. */
+    private static float[] worldBounds(float[] m)
+    {
+        float[] bounds = {
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+        for(int corner = 0; corner < 8; corner++)
+        {
+            float x = QUAD[(corner & 1) == 0 ? 0 : 3];
+            float y = QUAD[(corner & 2) == 0 ? 1 : 4];
+            float z = QUAD[(corner & 4) == 0 ? 2 : 5];
+            for(int axis = 0; axis < 3; axis++)
+            {
+                float v = m[axis] * x + m[4 + axis] * y + m[8 + axis] * z + m[12 + axis];
+                bounds[axis] = Math.min(bounds[axis], v);
+                bounds[3 + axis] = Math.max(bounds[3 + axis], v);
+            }
+        }
+        return bounds;
+    }
+
+    private static int add(RayPicker picker, float[] matrix, int layer)
+    {
+        return picker.add(worldBounds(matrix), matrix, QUAD, layer);
+    }
+
+    /** View matrix of an eye at x, y on the z = 0 plane, looking down -z. */
+    private static float[] eyeAt(float x, float y)
+    {
+        return translation(-x, -y, 0f);
+    }
+
+    @Test
+    public void overlappingViews_nearestIsHit() throws Exception {
+        RayPicker picker = new RayPicker();
+        picker.begin();
+        int far = add(picker, translation(0f, 0f, -3f), RayPicker.LAYER_VIEW);
+        int near = add(picker, translation(0f, 0f, -1f), RayPicker.LAYER_VIEW);
+        picker.finish(true);
+
+        assertEquals(near, picker.pick(eyeAt(0f, 0f)));
+        assertEquals(1f, picker.getHitDistance(), 1e-5f);
+        assertEquals(-1f, picker.getHitPoint()[2], 1e-5f);
+
+        // The near one moves aside, the tree is refitted.
+        picker.begin();
+        add(picker, translation(0f, 0f, -3f), RayPicker.LAYER_VIEW);
+        add(picker, translation(5f, 0f, -1f), RayPicker.LAYER_VIEW);
+        picker.finish(false);
+
+        assertEquals(far, picker.pick(eyeAt(0f, 0f)));
+        assertEquals(3f, picker.getHitDistance(), 1e-5f);
+    }
+
+    @Test
+    public void hiddenView_isNotHit() throws Exception {
+        RayPicker picker = new RayPicker();
+        picker.begin();
+        int far = add(picker, translation(0f, 0f, -3f), RayPicker.LAYER_VIEW);
+        add(picker, translation(0f, 0f, -1f), RayPicker.LAYER_NONE);
+        picker.finish(true);
+
+        assertEquals(far, picker.pick(eyeAt(0f, 0f)));
+    }
+
+    @Test
+    public void rotatedQuad_isHitWhereItIsDrawn() throws Exception {
+        // A 4 x 0.2 bar along the diagonal, its bounds cover a 2.8 wide square.
+        float[] bar = multiply(translation(0f, 0f, -2f), multiply(rotationZ(45f), scale(4f, 0.2f, 1f)));
+        RayPicker picker = new RayPicker();
+        picker.begin();
+        int item = add(picker, bar, RayPicker.LAYER_VIEW);
+        picker.finish(true);
+
+        assertEquals(item, picker.pick(eyeAt(1f, 1f)));
+        assertEquals(2f, picker.getHitDistance(), 1e-5f);
+        // Inside the bounds, off the bar.
+        assertEquals(-1, picker.pick(eyeAt(1f, -1f)));
+        assertTrue(Float.isNaN(picker.getHitDistance()));
+    }
+
+    @Test
+    public void quadTurnedAway_isHitAtItsDepth() throws Exception {
+        RayPicker picker = new RayPicker();
+        picker.begin();
+        int item = add(picker, multiply(translation(0f, 0f, -2f), rotationY(60f)), RayPicker.LAYER_VIEW);
+        picker.finish(true);
+
+        // x = 0.2 is 0.4 along the turned quad, which goes 0.4 * sin(60) further away.
+        assertEquals(item, picker.pick(eyeAt(0.2f, 0f)));
+        assertEquals(2f + 0.4f * (float) Math.sin(Math.toRadians(60)), picker.getHitDistance(), 1e-4f);
+    }
+
+    @Test
+    public void turnedEye_castsAlongItsOwnAxis() throws Exception {
+        RayPicker picker = new RayPicker();
+        picker.begin();
+        add(picker, translation(0f, 0f, -3f), RayPicker.LAYER_VIEW);
+        // Facing +x, 3 units to the left.
+        int left = add(picker, multiply(translation(-3f, 0f, 0f), rotationY(90f)), RayPicker.LAYER_VIEW);
+        picker.finish(true);
+
+        // The eye turned 90 degrees to the left looks down -x.
+        assertEquals(left, picker.pick(rotationY(-90f)));
+        assertEquals(3f, picker.getHitDistance(), 1e-5f);
+        assertEquals(-3f, picker.getHitPoint()[0], 1e-5f);
+    }
+
+    @Test
+    public void container_isHitOnlyWhereNoChildIs() throws Exception {
+        RayPicker picker = new RayPicker();
+        picker.begin();
+        int container = add(picker, multiply(translation(0f, 0f, -2f), scale(4f, 4f, 1f)),
+                RayPicker.LAYER_CONTAINER);
+        // Just behind the container, like a child drawn on it.
+        int child = add(picker, translation(1f, 0f, -2.01f), RayPicker.LAYER_VIEW);
+        picker.finish(true);
+
+        assertEquals(child, picker.pick(eyeAt(1f, 0f)));
+        assertEquals(2.01f, picker.getHitDistance(), 1e-5f);
+        assertEquals(container, picker.pick(eyeAt(-1f, 0f)));
+        assertEquals(2f, picker.getHitDistance(), 1e-5f);
+        assertEquals(-1, picker.pick(eyeAt(3f, 0f)));
+    }
+
+    @Test
+    public void invertAffine_undoesTheMatrix() throws Exception {
+        float[] m = multiply(translation(1f, -2f, 3f), multiply(rotationY(30f), scale(2f, 0.5f, 1f)));
+        float[] inverse = new float[16];
+        assertTrue(RayPicker.invertAffine(m, 0, inverse));
+
+        float[] identity = multiply(m, inverse);
+        for(int i = 0; i < 16; i++)
+        {
+            assertEquals(i % 5 == 0 ? 1f : 0f, identity[i], 1e-5f);
+        }
+        assertFalse(RayPicker.invertAffine(scale(1f, 0f, 1f), 0, inverse));
+    }
+}
@@ -0,0 +1,68 @@
+package com.karacasoft.cardboardui.text;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DistanceFieldTest {
+
+    private static final int OPAQUE = 0xFF000000;
+
+    private static int[] square(int size, int from, int to)
+    {
+        int[] pixels = new int[size * size];
+        for(int y = from; y < to; y++)
+        {
+            for(int x = from; x < to; x++)
+            {
+                pixels[y * size + x] = OPAQUE;
+            }
+        }
+        return pixels;
+    }
+
+    private static int at(byte[] field, int size, int x, int y)
+    {
+        return field[y * size + x] & 0xFF;
+    }
+
+    @Test
+    public void generate_isAboveHalfInsideAndBelowOutside() throws Exception {
+        byte[] field = DistanceField.generate(square(20, 5, 15), 20, 20, 4);
+
+        assertTrue(at(field, 20, 5, 10) > 128);
+        assertTrue(at(field, 20, 4, 10) < 128);
+        assertTrue(at(field, 20, 14, 10) > 128);
+        assertTrue(at(field, 20, 15, 10) < 128);
+    }
+
+    @Test
+    public void generate_growsWithDistanceAndClampsAtSpread() throws Exception {
+        byte[] field = DistanceField.generate(square(20, 5, 15), 20, 20, 4);
+
+        assertTrue(at(field, 20, 6, 10) > at(field, 20, 5, 10));
+        assertTrue(at(field, 20, 3, 10) < at(field, 20, 4, 10));
+        assertEquals(255, at(field, 20, 10, 10));
+        assertEquals(0, at(field, 20, 0, 10));
+    }
+
+    @Test
+    public void generate_isSymmetricAroundTheOutline() throws Exception {
+        byte[] field = DistanceField.generate(square(20, 5, 15), 20, 20, 4);
+
+        // One pixel inside and one pixel outside the left edge.
+        assertEquals(255 - at(field, 20, 5, 10), at(field, 20, 4, 10), 1);
+    }
+
+    @Test
+    public void generate_handlesEmptyAndFullImages() throws Exception {
+        byte[] empty = DistanceField.generate(new int[16], 4, 4, 2);
+        byte[] full = DistanceField.generate(square(4, 0, 4), 4, 4, 2);
+
+        for(int i = 0; i < 16; i++)
+        {
+            assertEquals(0, empty[i] & 0xFF);
+            assertEquals(255, full[i] & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.karacasoft.cardboardui.texture;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ShelfPackerTest {
+
+    @Test
+    public void insert_placesRectanglesSideBySide() throws Exception {
+        ShelfPacker packer = new ShelfPacker(100, 100);
+        int[] pos = new int[2];
+
+        assertTrue(packer.insert(40, 10, pos));
+        assertEquals(0, pos[0]);
+        assertEquals(0, pos[1]);
+
+        assertTrue(packer.insert(40, 10, pos));
+        assertEquals(40, pos[0]);
+        assertEquals(0, pos[1]);
+
+        assertTrue(packer.insert(40, 10, pos));
+        assertEquals(0, pos[0]);
+        assertEquals(10, pos[1]);
+    }
+
+    @Test
+    public void insert_failsWhenFull() throws Exception {
+        ShelfPacker packer = new ShelfPacker(64, 64);
+        int[] pos = new int[2];
+
+        assertTrue(packer.insert(64, 64, pos));
+        assertFalse(packer.insert(1, 1, pos));
+        assertFalse(new ShelfPacker(64, 64).insert(65, 1, pos));
+    }
+
+    @Test
+    public void remove_reusesSpaceAtEndOfShelf() throws Exception {
+        ShelfPacker packer = new ShelfPacker(100, 100);
+        int[] pos = new int[2];
+
+        packer.insert(50, 20, pos);
+        packer.insert(50, 20, pos);
+        packer.remove(50, 0, 50, 20);
+
+        assertTrue(packer.insert(50, 20, pos));
+        assertEquals(50, pos[0]);
+        assertEquals(0, pos[1]);
+        assertEquals(2000, packer.getUsedArea());
+    }
+
+    @Test
+    public void remove_emptyShelfInTheMiddleIsReused() throws Exception {
+        ShelfPacker packer = new ShelfPacker(100, 30);
+        int[] pos = new int[2];
+
+        packer.insert(100, 10, pos);
+        packer.insert(100, 10, pos);
+        packer.insert(100, 10, pos);
+        packer.remove(0, 10, 100, 10);
+
+        assertTrue(packer.insert(100, 10, pos));
+        assertEquals(10, pos[1]);
+    }
+
+    @Test
+    public void remove_emptyShelvesNextToEachOtherAreMerged() throws Exception {
+        ShelfPacker packer = new ShelfPacker(100, 40);
+        int[] pos = new int[2];
+
+        packer.insert(100, 10, pos);
+        packer.insert(100, 10, pos);
+        packer.insert(100, 10, pos);
+        packer.insert(100, 10, pos);
+        packer.remove(0, 20, 100, 10);
+        packer.remove(0, 10, 100, 10);
+
+        // Only fits in the two empty shelves together.
+        assertTrue(packer.insert(100, 15, pos));
+        assertEquals(10, pos[1]);
+        // The rest of the band is still free.
+        assertTrue(packer.insert(100, 5, pos));
+        assertEquals(25, pos[1]);
+        assertFalse(packer.insert(1, 1, pos));
+    }
+
+    @Test
+    public void remove_emptyShelvesAtTheBottomAreOpenSpaceAgain() throws Exception {
+        ShelfPacker packer = new ShelfPacker(100, 30);
+        int[] pos = new int[2];
+
+        packer.insert(100, 10, pos);
+        packer.insert(100, 10, pos);
+        packer.insert(100, 10, pos);
+        packer.remove(0, 10, 100, 10);
+        packer.remove(0, 20, 100, 10);
+
+        assertTrue(packer.insert(100, 20, pos));
+        assertEquals(10, pos[1]);
+    }
+
+    @Test
+    public void remove_emptyPackerHasNoUsedArea() throws Exception {
+        ShelfPacker packer = new ShelfPacker(100, 100);
+        int[] pos = new int[2];
+
+        packer.insert(30, 30, pos);
+        packer.remove(pos[0], pos[1], 30, 30);
+
+        assertTrue(packer.isEmpty());
+        assertTrue(packer.insert(100, 100, pos));
+    }
+}
@@ -0,0 +1,47 @@
+package com.karacasoft.cardboardui.texture;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TextureRegistryTest {
+
+    @Test
+    public void markUsed_evictedRegionIsNotDrawnUntilRestored() throws Exception {
+        final TextureRegistry registry = new TextureRegistry();
+        final int[] reloads = new int[1];
+        TextureRegion region = registry.register(0, 16);
+        registry.setReloader(region, new TextureRegistry.Reloader() {
+            @Override
+            public void reload(TextureRegion region) {
+                reloads[0]++;
+            }
+        });
+
+        assertFalse(registry.markUsed(region));
+        assertFalse(registry.markUsed(region));
+        assertEquals(1, reloads[0]);
+
+        registry.restore(region, 7);
+        assertTrue(registry.markUsed(region));
+    }
+
+    @Test
+    public void markUsed_regionRestoredByTheReloaderIsDrawn() throws Exception {
+        final TextureRegistry registry = new TextureRegistry();
+        TextureRegion region = registry.register(0, 16);
+        registry.setReloader(region, new TextureRegistry.Reloader() {
+            @Override
+            public void reload(TextureRegion region) {
+                registry.restore(region, 7);
+            }
+        });
+
+        assertTrue(registry.markUsed(region));
+    }
+
+    @Test
+    public void markUsed_unregisteredRegionIsDrawn() throws Exception {
+        assertTrue(new TextureRegistry().markUsed(new TextureRegion(3)));
+    }
+}
@@ -0,0 +1,98 @@
+package com.karacasoft.cardboardui.view;
+
+import com.karacasoft.cardboardui.view.adapter.BaseAdapter3D;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class AdapterView3DTest {
+
+    /** An item with a fixed size. */
+    private static class Item extends View3D {
+
+        Item()
+        {
+            super(null);
+            measure();
+        }
+
+        @Override
+        public void measure() {
+            setWidth(1f);
+            setHeight(0.5f);
+        }
+    }
+
+    private static BaseAdapter3D<String> adapter(int count)
+    {
+        BaseAdapter3D<String> adapter = new BaseAdapter3D<String>(null) {
+            @Override
+            public View3D getView(int position) {
+                return new Item();
+            }
+        };
+        adapter.setItems(new ArrayList<>(Arrays.asList(new String[count])));
+        return adapter;
+    }
+
+    private static AdapterView3D list(float scale)
+    {
+        AdapterView3D list = new AdapterView3D(null);
+        list.setItemHeight(1.5f);
+        list.measure();
+        list.scale(scale, scale, scale);
+        list.setAdapter(adapter(4));
+        return list;
+    }
+
+    @Test
+    public void items_areSizedInTheUnitsOfTheList() throws Exception {
+        AdapterView3D list = list(2f);
+
+        View3D item = list.requestView(1);
+
+        // The scale of the list applies to the item through its parent.
+        assertSame(list, item.getParent());
+        assertEquals(1.5f, item.getHeight(), 0f);
+        assertEquals(list.getWidth(), item.getWidth(), 0f);
+    }
+
+    @Test
+    public void items_areSpacedByTheItemHeightWhateverTheScale() throws Exception {
+        AdapterView3D scaled = list(2f);
+        AdapterView3D plain = list(1f);
+
+        for(int i = 0; i < 4; i++)
+        {
+            scaled.requestView(i);
+            scaled.updateViewPosition(i);
+            plain.requestView(i);
+            plain.updateViewPosition(i);
+            float y = scaled.requestView(i).getModelMatrix()[13];
+            assertEquals(scaled.getHeight() - (i - 1) * 1.5f, y, 1e-6f);
+            assertEquals(plain.requestView(i).getModelMatrix()[13], y, 0f);
+        }
+    }
+
+    @Test
+    public void gridItems_areSpacedByTheItemSizeWhateverTheScale() throws Exception {
+        GridView3D grid = new GridView3D(null);
+        grid.setItemWidth(1f);
+        grid.setItemHeight(0.5f);
+        grid.setVerticalTiles(2);
+        grid.measure();
+        grid.scale(3f, 3f, 3f);
+        grid.setAdapter(adapter(4));
+
+        grid.updateViewPosition(3);
+
+        float[] m = grid.requestView(3).getModelMatrix();
+        // Second column, second row.
+        assertEquals(1f, m[12], 0f);
+        assertEquals(-0.5f, m[13], 0f);
+    }
+}
@@ -0,0 +1,38 @@
+package com.karacasoft.cardboardui.view;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class View3DTest {
+
+    @Test
+    public void aspect_includesTheScaleOfTheMatrix() throws Exception {
+        // A 2 x 1 quad in a parent scaled by 1 x 2 is drawn square.
+        float[] parent = new float[16];
+        parent[0] = 1f;
+        parent[5] = 2f;
+        parent[10] = 1f;
+        parent[15] = 1f;
+        // Own vertices: the size is passed, the matrix is the parent's.
+        assertEquals(1f, View3D.getAspect(parent, 0, 2f, 1f), 1e-6f);
+
+        // Shared quad: the draw matrix is the parent scaled by the 2 x 1 size.
+        float[] draw = parent.clone();
+        draw[0] *= 2f;
+        draw[5] *= 1f;
+        assertEquals(1f, View3D.getAspect(draw, 0, 1f, 1f), 1e-6f);
+        // Without the parent, the same quad is twice as wide as high.
+        draw[5] = 1f;
+        assertEquals(2f, View3D.getAspect(draw, 0, 1f, 1f), 1e-6f);
+    }
+
+    @Test
+    public void aspect_ofAFlatQuadIsFinite() throws Exception {
+        float[] m = new float[32];
+        m[16] = 1f;
+        m[31] = 1f;
+        float aspect = View3D.getAspect(m, 16, 1f, 1f);
+        assertFalse(Float.isNaN(aspect) || Float.isInfinite(aspect));
+    }
+}